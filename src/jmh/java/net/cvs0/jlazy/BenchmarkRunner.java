@@ -0,0 +1,51 @@
+package net.cvs0.jlazy;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for each of several thread counts.
+ * <p>
+ * JMH only takes a single thread count per run, so this runs the selected benchmarks once
+ * per count, with the gc profiler enabled to report allocation rates, and writes the results
+ * of each run to its own JSON file.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args The benchmark include regex, a comma-separated list of thread counts and
+     *             the directory to write the JSON results to, each optional
+     * @throws RunnerException if a benchmark fails to run
+     */
+    public static void main(String[] args) throws RunnerException {
+        String includes = args.length > 0 ? args[0] : ".*";
+        String threadCounts = args.length > 1 ? args[1] : "1,4,16,64";
+        File outputDirectory = new File(args.length > 2 ? args[2] : "build/reports/jmh");
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IllegalStateException("Could not create " + outputDirectory);
+        }
+
+        for (String threadCount : threadCounts.split(",")) {
+            int threads = Integer.parseInt(threadCount.trim());
+            Options options = new OptionsBuilder()
+                    .include(includes)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(outputDirectory, "results-" + threads + "-threads.json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
\ No newline at end of file
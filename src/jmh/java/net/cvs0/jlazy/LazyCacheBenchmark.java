@@ -0,0 +1,133 @@
+package net.cvs0.jlazy;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link LazyCache} lookups under different key distributions.
+ * <p>
+ * {@code hit} looks keys up in a cache that holds every key, so it measures the hit path
+ * alone. {@code hitOrMiss} uses a bounded cache an eighth of the size of the key space, so
+ * the share of misses, and the eviction work they cause, depends on the distribution: a
+ * Zipfian workload mostly hits, while a scan mostly misses. Each thread replays its own
+ * precomputed key sequence, so generating keys costs nothing during measurement. With a
+ * {@code nearCacheSize} above zero, both caches have a per-thread near cache of that size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LazyCacheBenchmark {
+    private static final int KEY_SPACE = 1 << 16;
+    private static final int SEQUENCE_LENGTH = 1 << 20;
+    private static final Supplier<Object> SUPPLIER = Object::new;
+
+    @Param({"uniform", "zipf", "scan"})
+    public String distribution;
+
+    @Param({"0", "1024"})
+    public int nearCacheSize;
+
+    private LazyCache<Integer, Object> fullCache;
+    private LazyCache<Integer, Object> boundedCache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        LazyCache.Builder<Object, Object> full = LazyCache.builder();
+        LazyCache.Builder<Object, Object> bounded = LazyCache.builder().maximumSize(KEY_SPACE / 8);
+        if (nearCacheSize > 0) {
+            full.nearCache(nearCacheSize);
+            bounded.nearCache(nearCacheSize);
+        }
+        fullCache = full.build();
+        boundedCache = bounded.build();
+        for (int key = 0; key < KEY_SPACE; key++) {
+            fullCache.getOrCreate(key, SUPPLIER);
+            boundedCache.getOrCreate(key, SUPPLIER);
+        }
+    }
+
+    @Benchmark
+    public Object hit(Keys keys) throws InterruptedException {
+        return fullCache.getOrCreate(keys.next(), SUPPLIER).get();
+    }
+
+    @Benchmark
+    public Object hitOrMiss(Keys keys) throws InterruptedException {
+        return boundedCache.getOrCreate(keys.next(), SUPPLIER).get();
+    }
+
+    /**
+     * A precomputed sequence of boxed keys for one thread.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private Integer[] sequence;
+        private int index;
+
+        @Setup(Level.Trial)
+        public void setUp(LazyCacheBenchmark benchmark) {
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            sequence = new Integer[SEQUENCE_LENGTH];
+            switch (benchmark.distribution) {
+                case "uniform":
+                    for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+                        sequence[i] = random.nextInt(KEY_SPACE);
+                    }
+                    break;
+                case "zipf":
+                    double[] cumulative = zipfCumulative(KEY_SPACE, 0.99);
+                    for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+                        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+                        sequence[i] = Math.min(rank < 0 ? -rank - 1 : rank, KEY_SPACE - 1);
+                    }
+                    break;
+                case "scan":
+                    // Threads start at different offsets so they don't move through the keys in lockstep
+                    int offset = random.nextInt(KEY_SPACE);
+                    for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+                        sequence[i] = (offset + i) % KEY_SPACE;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown distribution: " + benchmark.distribution);
+            }
+        }
+
+        Integer next() {
+            Integer key = sequence[index];
+            index = (index + 1) & (SEQUENCE_LENGTH - 1);
+            return key;
+        }
+
+        private static double[] zipfCumulative(int size, double exponent) {
+            double[] cumulative = new double[size];
+            double sum = 0;
+            for (int rank = 0; rank < size; rank++) {
+                sum += 1 / Math.pow(rank + 1, exponent);
+                cumulative[rank] = sum;
+            }
+            for (int rank = 0; rank < size; rank++) {
+                cumulative[rank] /= sum;
+            }
+            return cumulative;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+package net.cvs0.jlazy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures every {@link LazyInitializer} implementation: the cost of creating and
+ * initializing a fresh instance, and the steady-state cost of {@code get()} and
+ * {@code initialize()} on an instance shared by all benchmark threads.
+ * <p>
+ * Each fork runs a single implementation, so the calls through the interface stay
+ * monomorphic just like they would in an application that only uses one of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LazyInitializerBenchmark {
+    private static final Supplier<Object> SUPPLIER = Object::new;
+
+    @Param({"Lazy", "ExpiringLazy", "ThreadLocalLazy", "StripedLazy", "LazyWithRetry"})
+    public String implementation;
+
+    private LazyInitializer<Object> shared;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        shared = create(implementation);
+        shared.initialize();
+    }
+
+    @Benchmark
+    public Object firstInitialize() throws InterruptedException {
+        return create(implementation).initialize();
+    }
+
+    @Benchmark
+    public Object initialize() throws InterruptedException {
+        return shared.initialize();
+    }
+
+    @Benchmark
+    public Object get() {
+        return shared.get();
+    }
+
+    private static LazyInitializer<Object> create(String implementation) {
+        switch (implementation) {
+            case "Lazy":
+                return new Lazy<>(SUPPLIER);
+            case "ExpiringLazy":
+                return new ExpiringLazy<>(SUPPLIER, TimeUnit.HOURS.toMillis(1));
+            case "ThreadLocalLazy":
+                return new ThreadLocalLazy<>(SUPPLIER);
+            case "StripedLazy":
+                return new StripedLazy<>(SUPPLIER);
+            case "LazyWithRetry":
+                return new LazyWithRetry<>(SUPPLIER, 3, 100);
+            default:
+                throw new IllegalArgumentException("Unknown implementation: " + implementation);
+        }
+    }
+}
\ No newline at end of file
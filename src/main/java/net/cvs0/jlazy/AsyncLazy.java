@@ -0,0 +1,295 @@
+package net.cvs0.jlazy;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * A lazy value that is initialized on an executor, without blocking its callers.
+ * <p>
+ * {@link #initializeAsync()} starts the initializer on the executor if no initialization is
+ * running yet and returns a future for its result. Concurrent callers share a single
+ * initialization, but every call gets a future of its own, so a caller can give up by
+ * cancelling its future, or let it time out with {@link #initializeAsync(long)}, without
+ * affecting anyone else waiting for the value. Once every caller has given up, the
+ * initialization is cancelled: its result is discarded, and the thread running the
+ * initializer is interrupted. If the initializer throws, the instance stays uninitialized and
+ * the next call starts over.
+ * <p>
+ * Any executor can be used, such as a dedicated pool for slow loads, or an executor that
+ * starts a virtual thread per task on runtimes that have them. By default initializers run on
+ * the common ForkJoinPool.
+ *
+ * @param <T> The type of value to be lazily initialized
+ */
+public final class AsyncLazy<T> implements LazyInitializer<T> {
+    private static final Object UNINITIALIZED = new Object();
+
+    private final Supplier<T> initializer;
+    private final Executor executor;
+    private final AtomicReference<Load> pending = new AtomicReference<>();
+    private volatile Object value = UNINITIALIZED;
+
+    /**
+     * Creates a new AsyncLazy instance that initializes its value on the common ForkJoinPool.
+     *
+     * @param initializer The supplier function that will initialize the value when needed
+     */
+    public AsyncLazy(Supplier<T> initializer) {
+        this(initializer, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new AsyncLazy instance that initializes its value on the given executor.
+     *
+     * @param initializer The supplier function that will initialize the value when needed
+     * @param executor The executor to run the initializer on
+     */
+    public AsyncLazy(Supplier<T> initializer, Executor executor) {
+        this.initializer = Objects.requireNonNull(initializer, "initializer");
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
+    /**
+     * Gets the value if it's already initialized, otherwise returns null.
+     * This method does not trigger initialization.
+     *
+     * @return The initialized value or null if not yet initialized
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get() {
+        Object current = value;
+        return current == UNINITIALIZED ? null : (T) current;
+    }
+
+    /**
+     * Initializes the value if not already initialized and waits for it. If the thread is
+     * interrupted while waiting, it gives up like a caller cancelling its future.
+     *
+     * @return The initialized value
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws CancellationException if the initialization was cancelled
+     */
+    @Override
+    public T initialize() throws InterruptedException {
+        CompletableFuture<T> future = initializeAsync();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * Initializes the value on the executor if not already initialized, without blocking.
+     * Cancelling the returned future only gives up this caller's interest in the value.
+     *
+     * @return A new future that completes with the value, or with the initializer's failure
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<T> initializeAsync() {
+        Object current = value;
+        if (current != UNINITIALIZED) {
+            return CompletableFuture.completedFuture((T) current);
+        }
+        for (;;) {
+            Load load = pending.get();
+            if (load == null) {
+                Load created = new Load();
+                if (!pending.compareAndSet(null, created)) {
+                    continue;
+                }
+                CompletableFuture<T> waiter = created.join();
+                // The value may have been set between the first check and creating the load
+                current = value;
+                if (current != UNINITIALIZED) {
+                    finish(created, (T) current, null);
+                } else {
+                    start(created);
+                }
+                return waiter;
+            }
+            CompletableFuture<T> waiter = load.join();
+            if (waiter != null) {
+                return waiter;
+            }
+            // Cancelled by its last waiter, but not yet cleared
+            pending.compareAndSet(load, null);
+        }
+    }
+
+    /**
+     * Initializes the value like {@link #initializeAsync()}, but gives up waiting after the
+     * given time. Giving up does not cancel the initialization for other callers.
+     *
+     * @param timeoutMillis The maximum time in milliseconds to wait for the value
+     * @return A new future that completes with the value, or with a TimeoutException
+     * @throws IllegalArgumentException if timeoutMillis is not positive
+     */
+    public CompletableFuture<T> initializeAsync(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be positive: " + timeoutMillis);
+        }
+        return initializeAsync().orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks if the value has been initialized.
+     *
+     * @return true if the value has been initialized, false otherwise
+     */
+    @Override
+    public boolean isInitialized() {
+        return value != UNINITIALIZED;
+    }
+
+    /**
+     * Checks if an initialization is currently running.
+     *
+     * @return true if callers are waiting for an initialization, false otherwise
+     */
+    public boolean isInitializing() {
+        return pending.get() != null;
+    }
+
+    private void start(Load load) {
+        try {
+            executor.execute(() -> run(load));
+        } catch (RejectedExecutionException e) {
+            finish(load, null, e);
+        }
+    }
+
+    private void run(Load load) {
+        if (!load.enter()) {
+            return;
+        }
+        T result = null;
+        Throwable failure = null;
+        try {
+            result = initializer.get();
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        } finally {
+            load.exit();
+        }
+        finish(load, result, failure);
+    }
+
+    private void finish(Load load, T result, Throwable failure) {
+        if (!load.finish()) {
+            // Every waiter gave up; the result is discarded
+            return;
+        }
+        if (failure == null) {
+            value = result;
+        }
+        pending.compareAndSet(load, null);
+        if (failure == null) {
+            load.shared.complete(result);
+        } else {
+            load.shared.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * One run of the initializer and the callers waiting for it.
+     */
+    private final class Load {
+        final CompletableFuture<T> shared = new CompletableFuture<>();
+        // The rest is guarded by the load's lock
+        private int waiters;
+        private boolean cancelled;
+        private boolean finished;
+        private Thread runner;
+
+        /**
+         * Adds a waiter, unless the load was already cancelled.
+         *
+         * @return The waiter's future, or null if the load was cancelled
+         */
+        CompletableFuture<T> join() {
+            CompletableFuture<T> waiter = new CompletableFuture<>();
+            synchronized (this) {
+                if (cancelled) {
+                    return null;
+                }
+                waiters++;
+            }
+            shared.whenComplete((result, error) -> {
+                if (error == null) {
+                    waiter.complete(result);
+                } else {
+                    waiter.completeExceptionally(error);
+                }
+            });
+            waiter.whenComplete((result, error) -> {
+                // Completed before the load, so the caller cancelled or timed out
+                if (error != null && !shared.isDone()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        private void leave() {
+            synchronized (this) {
+                if (--waiters > 0 || finished || cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+            pending.compareAndSet(this, null);
+            shared.cancel(false);
+        }
+
+        synchronized boolean enter() {
+            if (cancelled) {
+                return false;
+            }
+            runner = Thread.currentThread();
+            return true;
+        }
+
+        synchronized void exit() {
+            runner = null;
+            if (cancelled) {
+                // Don't leave the interrupt meant for the initializer on the executor's thread
+                Thread.interrupted();
+            }
+        }
+
+        /**
+         * Marks the load as finished, unless it was already cancelled.
+         */
+        synchronized boolean finish() {
+            if (cancelled) {
+                return false;
+            }
+            finished = true;
+            return true;
+        }
+    }
+}
\ No newline at end of file
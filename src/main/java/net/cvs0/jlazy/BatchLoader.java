@@ -0,0 +1,180 @@
+package net.cvs0.jlazy;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A loader that coalesces individual key requests into batches.
+ * <p>
+ * Keys requested through {@link #load(Object)} are collected until either the batch reaches
+ * its maximum size or the oldest request has waited for the maximum delay, and are then
+ * passed to the batch function in a single call on the scheduler. Requests for a key that is
+ * already waiting in the current batch share its future.
+ * <p>
+ * Since it is a {@code Function<K, CompletableFuture<V>>}, a BatchLoader can be passed
+ * directly to {@link LazyCache#getOrCreateAsync(Object, Function)}, which makes concurrent
+ * cache misses from many callers collapse into a few bulk loads.
+ *
+ * @param <K> The type of keys being loaded
+ * @param <V> The type of values being loaded
+ */
+public class BatchLoader<K, V> implements Function<K, CompletableFuture<V>> {
+    private final Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> batchFunction;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private Map<K, CompletableFuture<V>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledDispatch;
+
+    /**
+     * Creates a new BatchLoader.
+     *
+     * @param batchFunction The function that loads the values for a batch of keys
+     * @param maxBatchSize The maximum number of keys passed to one call of the batch function
+     * @param maxDelayMillis The maximum time in milliseconds a request waits for its batch to fill up
+     * @param scheduler The scheduler that times batches and runs the batch function
+     * @throws IllegalArgumentException if maxBatchSize is not positive or maxDelayMillis is negative
+     */
+    public BatchLoader(Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> batchFunction,
+                       int maxBatchSize, long maxDelayMillis, ScheduledExecutorService scheduler) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("maxDelayMillis must not be negative: " + maxDelayMillis);
+        }
+        this.batchFunction = Objects.requireNonNull(batchFunction, "batchFunction");
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+    }
+
+    /**
+     * Requests the value for a key. The returned future completes once the batch containing
+     * the key has been loaded. If the batch function leaves the key out of its result, the
+     * future fails with a {@link NoSuchElementException}; if the batch function throws, the
+     * futures of every key in the batch fail with that exception. If the scheduler rejects the
+     * batch, its futures fail with the {@link RejectedExecutionException}.
+     * <p>
+     * Each caller gets its own copy of the shared future, so cancelling or completing it does
+     * not affect the other requests for the key.
+     *
+     * @param key The key to load
+     * @return A future that completes with the value for the key
+     */
+    public CompletableFuture<V> load(K key) {
+        Map<K, CompletableFuture<V>> full = null;
+        RejectedExecutionException rejected = null;
+        CompletableFuture<V> future;
+        synchronized (this) {
+            future = pending.get(key);
+            if (future != null) {
+                return future.copy();
+            }
+            future = new CompletableFuture<>();
+            pending.put(key, future);
+            if (pending.size() >= maxBatchSize) {
+                full = takePending();
+            } else if (pending.size() == 1) {
+                try {
+                    scheduledDispatch = scheduler.schedule(this::dispatch, maxDelayMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    full = takePending();
+                    rejected = e;
+                }
+            }
+        }
+        if (full != null && rejected == null) {
+            Map<K, CompletableFuture<V>> batch = full;
+            try {
+                scheduler.execute(() -> run(batch));
+            } catch (RejectedExecutionException e) {
+                rejected = e;
+            }
+        }
+        if (rejected != null) {
+            fail(full, rejected);
+        }
+        return future.copy();
+    }
+
+    /**
+     * Same as {@link #load(Object)}.
+     *
+     * @param key The key to load
+     * @return A future that completes with the value for the key
+     */
+    @Override
+    public CompletableFuture<V> apply(K key) {
+        return load(key);
+    }
+
+    /**
+     * Loads the current batch immediately on the calling thread, without waiting for it to
+     * fill up or for its delay to pass.
+     */
+    public void dispatch() {
+        Map<K, CompletableFuture<V>> batch;
+        synchronized (this) {
+            batch = takePending();
+        }
+        run(batch);
+    }
+
+    /**
+     * Gets the number of keys waiting in the current batch.
+     *
+     * @return The number of pending keys
+     */
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    private Map<K, CompletableFuture<V>> takePending() {
+        Map<K, CompletableFuture<V>> batch = pending;
+        pending = new LinkedHashMap<>();
+        if (scheduledDispatch != null) {
+            scheduledDispatch.cancel(false);
+            scheduledDispatch = null;
+        }
+        return batch;
+    }
+
+    private void run(Map<K, CompletableFuture<V>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<? extends K, ? extends V> loaded;
+        try {
+            loaded = batchFunction.apply(Collections.unmodifiableSet(batch.keySet()));
+        } catch (RuntimeException | Error e) {
+            fail(batch, e);
+            return;
+        }
+        for (Map.Entry<K, CompletableFuture<V>> entry : batch.entrySet()) {
+            K key = entry.getKey();
+            if (loaded != null && loaded.containsKey(key)) {
+                entry.getValue().complete(loaded.get(key));
+            } else {
+                entry.getValue().completeExceptionally(new NoSuchElementException("No value loaded for key " + key));
+            }
+        }
+    }
+
+    private void fail(Map<K, CompletableFuture<V>> batch, Throwable cause) {
+        for (CompletableFuture<V> future : batch.values()) {
+            future.completeExceptionally(cause);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,127 @@
+package net.cvs0.jlazy;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker that stops calls to a backend that keeps failing.
+ * <p>
+ * The breaker starts closed and lets every call through. After a number of consecutive
+ * failures it opens and rejects calls for a fixed duration. Once that duration has passed it
+ * becomes half-open and lets a single probe call through: if the probe succeeds the breaker
+ * closes again, and if it fails the breaker reopens for another full duration.
+ * A breaker can be shared between several lazy values that use the same backend.
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final Ticker ticker;
+    private volatile State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    /**
+     * Creates a new, closed CircuitBreaker.
+     *
+     * @param failureThreshold The number of consecutive failures after which the breaker opens
+     * @param openDurationMillis How long in milliseconds the breaker stays open before letting a probe through
+     * @throws IllegalArgumentException if failureThreshold is not positive or openDurationMillis is negative
+     */
+    public CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        this(failureThreshold, openDurationMillis, Ticker.system());
+    }
+
+    /**
+     * Creates a new, closed CircuitBreaker that measures how long it stays open with the
+     * given ticker.
+     *
+     * @param failureThreshold The number of consecutive failures after which the breaker opens
+     * @param openDurationMillis How long in milliseconds the breaker stays open before letting a probe through
+     * @param ticker The ticker to read the time from
+     * @throws IllegalArgumentException if failureThreshold is not positive or openDurationMillis is negative
+     */
+    public CircuitBreaker(int failureThreshold, long openDurationMillis, Ticker ticker) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failureThreshold must be positive: " + failureThreshold);
+        }
+        if (openDurationMillis < 0) {
+            throw new IllegalArgumentException("openDurationMillis must not be negative: " + openDurationMillis);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+        this.ticker = Objects.requireNonNull(ticker, "ticker");
+    }
+
+    /**
+     * Asks for permission to make a call. A caller that is granted permission must report
+     * the outcome through {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @return true if the call may proceed, false if it should fail fast
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && ticker.read() - openedAt >= openDurationNanos) {
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+            }
+            if (state == State.HALF_OPEN && !probeInFlight) {
+                probeInFlight = true;
+                return true;
+            }
+            return state == State.CLOSED;
+        }
+    }
+
+    /**
+     * Records a successful call, closing the breaker.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records a failed call, opening the breaker if the failure threshold was reached or if
+     * the call was a half-open probe.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = ticker.read();
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * Gets the current state of the breaker.
+     *
+     * @return The current state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * The states of a {@link CircuitBreaker}.
+     */
+    public enum State {
+        /**
+         * Calls are let through.
+         */
+        CLOSED,
+        /**
+         * Calls fail fast.
+         */
+        OPEN,
+        /**
+         * A single probe call is let through to test whether the backend recovered.
+         */
+        HALF_OPEN
+    }
+}
\ No newline at end of file
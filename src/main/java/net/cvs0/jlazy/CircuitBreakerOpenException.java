@@ -0,0 +1,19 @@
+package net.cvs0.jlazy;
+
+/**
+ * Thrown when an initialization is rejected because its {@link CircuitBreaker} is open.
+ * The exception carries no stack trace, since it is thrown on a fast path that is expected
+ * to be hit often while a backend is down.
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new CircuitBreakerOpenException.
+     *
+     * @param message The detail message
+     */
+    public CircuitBreakerOpenException(String message) {
+        super(message, null, false, false);
+    }
+}
\ No newline at end of file
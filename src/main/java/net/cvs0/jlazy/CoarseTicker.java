@@ -0,0 +1,36 @@
+package net.cvs0.jlazy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ticker whose time is updated by a background thread, so reading it costs a volatile read
+ * instead of a call to {@link System#nanoTime()}.
+ */
+final class CoarseTicker implements Ticker {
+    private static final ConcurrentHashMap<Long, CoarseTicker> SHARED = new ConcurrentHashMap<>();
+
+    private volatile long now = System.nanoTime();
+
+    private CoarseTicker(long resolutionMillis) {
+        long resolutionNanos = TimeUnit.MILLISECONDS.toNanos(resolutionMillis);
+        Thread updater = new Thread(() -> {
+            for (;;) {
+                LockSupport.parkNanos(resolutionNanos);
+                now = System.nanoTime();
+            }
+        }, "jlazy-ticker-" + resolutionMillis + "ms");
+        updater.setDaemon(true);
+        updater.start();
+    }
+
+    static CoarseTicker shared(long resolutionMillis) {
+        return SHARED.computeIfAbsent(resolutionMillis, CoarseTicker::new);
+    }
+
+    @Override
+    public long read() {
+        return now;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,32 @@
+package net.cvs0.jlazy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts values to and from bytes, so that a {@link LazyCache} can store them outside the
+ * Java heap or in a snapshot file.
+ *
+ * @param <T> The type of values being converted
+ */
+public interface Codec<T> {
+
+    /**
+     * Converts a value to bytes.
+     *
+     * @param value The value to convert, never null
+     * @return The bytes representing the value
+     */
+    byte[] encode(T value);
+
+    /**
+     * Converts bytes back to a value.
+     * <p>
+     * The buffer is a read-only view of the stored bytes, positioned at the first byte and
+     * limited to the bytes of this value, so they can be decoded without copying them first.
+     * It is only valid during this call and must not be kept.
+     *
+     * @param buffer The bytes produced by {@link #encode(Object)}
+     * @return The value
+     */
+    T decode(ByteBuffer buffer);
+}
\ No newline at end of file
@@ -1,107 +1,514 @@
 package net.cvs0.jlazy;
 
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 /**
  * A lazy initialization implementation that expires after a specified time.
- * 
+ * <p>
+ * By default a value expires once it has not been accessed for the expiration time; it can
+ * instead be configured to expire a fixed time after it was loaded. Instances are safe to
+ * share between threads, and concurrent callers of {@link #initialize()} share one load.
+ * <p>
+ * With refresh-ahead enabled, a value that has lived for a configured fraction of the
+ * expiration time is reloaded in the background while readers keep getting the current
+ * value, so callers only pay for a synchronous load if the value actually expires. When
+ * reloading fails, the old value can keep being served for a bounded grace period.
+ * <p>
+ * Time is read from a {@link Ticker}, {@link Ticker#system()} by default. The time of the
+ * last access is only written when it has moved on by at least a millisecond, so threads
+ * reading a shared instance in a tight loop don't keep invalidating each other's caches.
+ * With a {@link Ticker#coarse(long) coarse ticker} a read costs no clock call at all.
+ * <p>
+ * A value can be given a key on an {@link InvalidationChannel}, so that invalidating that key
+ * in any process sharing the channel's file discards the value here as well. A value that
+ * was being loaded when the invalidation arrived is discarded too once the load completes.
+ *
  * @param <T> The type of value to be lazily initialized
  */
 public class ExpiringLazy<T> implements LazyInitializer<T> {
+    private static final long ACCESS_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     private final Supplier<T> initializer;
-    private T value;
-    private long lastAccessTime;
     private final long expirationTimeInMillis;
-    private boolean initialized = false;
+    private final long expirationNanos;
+    private final ExpiryMode expiryMode;
+    private final long refreshAfterNanos;
+    private final Executor refreshExecutor;
+    private final long gracePeriodNanos;
+    private final Ticker ticker;
+    private final InvalidationChannel invalidationChannel;
+    private final Object invalidationKey;
+    // Held here because the channel only holds its subscribers weakly
+    private final InvalidationChannel.Listener invalidationListener;
+    private final StatsCounter stats;
+    private final AtomicReference<Entry<T>> entry = new AtomicReference<>();
+    // Incremented on every invalidation, so loads that overlap one don't publish their value
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long lastAccessTime;
 
     /**
-     * Creates a new ExpiringLazy instance.
-     * 
+     * Creates a new ExpiringLazy instance whose value expires after not being accessed for
+     * the given time.
+     *
      * @param initializer The supplier function that will initialize the value
      * @param expirationTimeInMillis The time in milliseconds after which the value expires
      */
     public ExpiringLazy(Supplier<T> initializer, long expirationTimeInMillis) {
-        this.initializer = initializer;
-        this.expirationTimeInMillis = expirationTimeInMillis;
-        this.lastAccessTime = System.currentTimeMillis();
+        this(builder(initializer).expireAfterAccess(expirationTimeInMillis));
+    }
+
+    private ExpiringLazy(Builder<T> builder) {
+        this.stats = builder.stats;
+        // Wrapping the initializer records refreshes as loads too
+        this.initializer = stats == null ? builder.initializer : stats.timed(builder.initializer);
+        this.expirationTimeInMillis = builder.expirationTimeInMillis;
+        this.expirationNanos = TimeUnit.MILLISECONDS.toNanos(builder.expirationTimeInMillis);
+        this.expiryMode = builder.expiryMode;
+        this.refreshAfterNanos = (long) (expirationNanos * builder.refreshAheadFraction);
+        this.refreshExecutor = builder.refreshExecutor;
+        this.gracePeriodNanos = TimeUnit.MILLISECONDS.toNanos(builder.gracePeriodMillis);
+        this.ticker = builder.ticker;
+        this.lastAccessTime = ticker.read();
+        this.invalidationChannel = builder.invalidationChannel;
+        this.invalidationKey = builder.invalidationKey;
+        if (invalidationChannel == null) {
+            this.invalidationListener = null;
+        } else {
+            int hash = invalidationKey.hashCode();
+            this.invalidationListener = new InvalidationChannel.Listener() {
+                @Override
+                public void invalidate(int invalidatedHash) {
+                    if (invalidatedHash == hash) {
+                        discard();
+                    }
+                }
+
+                @Override
+                public void invalidateAll() {
+                    discard();
+                }
+            };
+            invalidationChannel.subscribe(invalidationListener);
+        }
+    }
+
+    /**
+     * Creates a builder for an ExpiringLazy with the given initializer.
+     *
+     * @param initializer The supplier function that will initialize the value
+     * @param <T> The type of value to be lazily initialized
+     * @return A new builder
+     */
+    public static <T> Builder<T> builder(Supplier<T> initializer) {
+        return new Builder<>(initializer);
     }
 
     /**
      * Gets the value if it's already initialized and not expired, otherwise returns null.
-     * This method does not trigger initialization.
-     * 
+     * This method does not trigger initialization, but may start a background refresh.
+     *
      * @return The initialized value or null if not yet initialized or expired
      */
     @Override
     public T get() {
-        if (!initialized) {
+        Entry<T> current = entry.get();
+        if (current == null) {
             return null;
         }
-        
-        if (isExpired()) {
-            initialized = false;
-            value = null;
+
+        long now = ticker.read();
+        if (isExpired(current, now)) {
+            discardExpired(current);
             return null;
         }
-        
-        lastAccessTime = System.currentTimeMillis();
-        return value;
+
+        recordAccess(now);
+        maybeRefresh(current, now);
+        return current.value;
     }
-    
+
     /**
      * Initializes the value if not already initialized or if expired.
-     * 
+     * If reloading an expired value fails and the value is still within its grace period,
+     * the old value is returned instead of the failure.
+     *
      * @return The initialized value
      * @throws InterruptedException if the initialization process is interrupted
      */
     @Override
     public T initialize() throws InterruptedException {
-        if (!initialized || isExpired()) {
-            initialized = true;
-            value = initializer.get();
-            lastAccessTime = System.currentTimeMillis();
+        Entry<T> current = entry.get();
+        long now = ticker.read();
+        if (current != null && !isExpired(current, now)) {
+            recordAccess(now);
+            maybeRefresh(current, now);
+            recordLookup(false);
+            return current.value;
+        }
+
+        synchronized (this) {
+            current = entry.get();
+            now = ticker.read();
+            if (current != null && !isExpired(current, now)) {
+                recordAccess(now);
+                recordLookup(false);
+                return current.value;
+            }
+            recordLookup(true);
+            try {
+                return load(true);
+            } catch (RuntimeException e) {
+                if (current != null && gracePeriodNanos > 0 && !current.refreshFailed
+                        && now - startOf(current) - expirationNanos <= gracePeriodNanos) {
+                    entry.compareAndSet(current, current.withRefreshFailed(now, startOf(current)));
+                    return current.value;
+                }
+                throw e;
+            }
         }
-        return value;
     }
-    
+
     /**
      * Checks if the value has been initialized and has not expired.
-     * 
+     *
      * @return true if the value has been initialized and has not expired, false otherwise
      */
     @Override
     public boolean isInitialized() {
-        if (isExpired()) {
-            initialized = false;
-            value = null;
+        Entry<T> current = entry.get();
+        if (current == null) {
+            return false;
         }
-        return initialized;
+        if (isExpired(current, ticker.read())) {
+            discardExpired(current);
+            return false;
+        }
+        return true;
     }
-    
+
+    /**
+     * Discards the value, so that the next call to {@link #initialize()} loads it again. If the
+     * value has a key on an invalidation channel, the key is invalidated in every process.
+     */
+    public void invalidate() {
+        discard();
+        if (invalidationChannel != null) {
+            invalidationChannel.publishKey(invalidationKey.hashCode(), invalidationListener);
+        }
+    }
+
+    private void discard() {
+        invalidations.incrementAndGet();
+        entry.set(null);
+    }
+
+    private void recordAccess(long now) {
+        // Skipping writes within the same millisecond keeps readers from contending on the field
+        if (now - lastAccessTime >= ACCESS_GRANULARITY_NANOS) {
+            lastAccessTime = now;
+        }
+    }
+
+    private void recordLookup(boolean miss) {
+        if (stats != null) {
+            if (miss) {
+                stats.recordMisses(1);
+            } else {
+                stats.recordHits(1);
+            }
+        }
+    }
+
+    private T load(boolean accessed) {
+        long observed = invalidations.get();
+        T value = initializer.get();
+        long now = ticker.read();
+        if (accessed) {
+            // Written first, so lock-free readers never see the new entry with a stale access time
+            lastAccessTime = now;
+        }
+        Entry<T> loaded = new Entry<>(value, now);
+        entry.set(loaded);
+        if (invalidations.get() != observed) {
+            // Invalidated while loading, so the value may have been read before the invalidation
+            entry.compareAndSet(loaded, null);
+        }
+        return value;
+    }
+
+    private void maybeRefresh(Entry<T> current, long now) {
+        if (refreshExecutor == null || now - current.refreshTime < refreshAfterNanos
+                || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> refresh(current));
+        } catch (RejectedExecutionException e) {
+            refreshing.set(false);
+        }
+    }
+
+    private void refresh(Entry<T> expected) {
+        try {
+            synchronized (this) {
+                if (entry.get() != expected) {
+                    // Someone else reloaded the value in the meantime
+                    return;
+                }
+                try {
+                    load(false);
+                } catch (RuntimeException e) {
+                    // Also delays the next attempt, so a failing backend isn't reloaded on every read
+                    entry.compareAndSet(expected, expected.withRefreshFailed(ticker.read(), startOf(expected)));
+                }
+            }
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
     /**
      * Checks if the value has expired.
-     * 
+     *
      * @return true if the value has expired, false otherwise
      */
-    private boolean isExpired() {
-        return System.currentTimeMillis() - lastAccessTime > expirationTimeInMillis;
+    private boolean isExpired(Entry<T> current, long now) {
+        if (!current.refreshFailed) {
+            return now - startOf(current) > expirationNanos;
+        }
+        // Saturate rather than overflow for very long expiration times
+        long lifetime = expirationNanos + gracePeriodNanos < 0 ? Long.MAX_VALUE : expirationNanos + gracePeriodNanos;
+        // Fixed when reloading first failed, so reading the stale value doesn't extend its grace period
+        return now - current.staleSince > lifetime;
     }
-    
+
+    private long startOf(Entry<T> current) {
+        return expiryMode == ExpiryMode.AFTER_WRITE ? current.loadTime : lastAccessTime;
+    }
+
+    private void discardExpired(Entry<T> current) {
+        // Keep the old value around while it may still be needed as a fallback
+        if (gracePeriodNanos == 0 || current.refreshFailed) {
+            entry.compareAndSet(current, null);
+        }
+    }
+
     /**
      * Gets the time in milliseconds when the value will expire.
-     * 
+     *
      * @return The expiration time in milliseconds
      */
     public long getExpirationTimeInMillis() {
         return expirationTimeInMillis;
     }
-    
+
     /**
      * Gets the time in milliseconds since the last access.
-     * 
+     *
      * @return The time in milliseconds since the last access
      */
     public long getTimeSinceLastAccess() {
-        return System.currentTimeMillis() - lastAccessTime;
+        return TimeUnit.NANOSECONDS.toMillis(ticker.read() - lastAccessTime);
+    }
+
+    /**
+     * Gets how the expiration time is measured.
+     *
+     * @return The expiry mode
+     */
+    public ExpiryMode getExpiryMode() {
+        return expiryMode;
+    }
+
+    /**
+     * Determines what the expiration time of an {@link ExpiringLazy} is measured from.
+     */
+    public enum ExpiryMode {
+        /**
+         * The value expires once it has not been accessed for the expiration time.
+         */
+        AFTER_ACCESS,
+        /**
+         * The value expires once the expiration time has passed since it was loaded.
+         */
+        AFTER_WRITE
+    }
+
+    private static final class Entry<T> {
+        final T value;
+        final long loadTime;
+        // When reloading the value was last attempted
+        final long refreshTime;
+        final boolean refreshFailed;
+        // What the expiration is measured from once reloading has failed
+        final long staleSince;
+
+        Entry(T value, long loadTime) {
+            this(value, loadTime, loadTime, false, 0);
+        }
+
+        private Entry(T value, long loadTime, long refreshTime, boolean refreshFailed, long staleSince) {
+            this.value = value;
+            this.loadTime = loadTime;
+            this.refreshTime = refreshTime;
+            this.refreshFailed = refreshFailed;
+            this.staleSince = staleSince;
+        }
+
+        /**
+         * Marks a failed reload attempted at the given time. Only the first failure sets what
+         * the expiration is measured from.
+         */
+        Entry<T> withRefreshFailed(long now, long start) {
+            return new Entry<>(value, loadTime, now, true, refreshFailed ? staleSince : start);
+        }
+    }
+
+    /**
+     * Builder for {@link ExpiringLazy} instances.
+     *
+     * @param <T> The type of value to be lazily initialized
+     */
+    public static final class Builder<T> {
+        private final Supplier<T> initializer;
+        private long expirationTimeInMillis = -1;
+        private ExpiryMode expiryMode = ExpiryMode.AFTER_ACCESS;
+        private double refreshAheadFraction = 1.0;
+        private Executor refreshExecutor;
+        private long gracePeriodMillis;
+        private StatsCounter stats;
+        private Ticker ticker = Ticker.system();
+        private InvalidationChannel invalidationChannel;
+        private Object invalidationKey;
+
+        private Builder(Supplier<T> initializer) {
+            this.initializer = Objects.requireNonNull(initializer, "initializer");
+        }
+
+        /**
+         * Makes the value expire once it has not been accessed for the given time.
+         *
+         * @param expirationTimeInMillis The time in milliseconds after which the value expires
+         * @return This builder
+         * @throws IllegalArgumentException if expirationTimeInMillis is negative
+         */
+        public Builder<T> expireAfterAccess(long expirationTimeInMillis) {
+            return expireAfter(ExpiryMode.AFTER_ACCESS, expirationTimeInMillis);
+        }
+
+        /**
+         * Makes the value expire once the given time has passed since it was loaded.
+         *
+         * @param expirationTimeInMillis The time in milliseconds after which the value expires
+         * @return This builder
+         * @throws IllegalArgumentException if expirationTimeInMillis is negative
+         */
+        public Builder<T> expireAfterWrite(long expirationTimeInMillis) {
+            return expireAfter(ExpiryMode.AFTER_WRITE, expirationTimeInMillis);
+        }
+
+        private Builder<T> expireAfter(ExpiryMode expiryMode, long expirationTimeInMillis) {
+            if (expirationTimeInMillis < 0) {
+                throw new IllegalArgumentException("expirationTimeInMillis must not be negative: " + expirationTimeInMillis);
+            }
+            this.expiryMode = expiryMode;
+            this.expirationTimeInMillis = expirationTimeInMillis;
+            return this;
+        }
+
+        /**
+         * Reloads the value in the background once it has lived for the given fraction of
+         * the expiration time. Readers keep getting the current value while it reloads. A
+         * refresh that fails is tried again once the same time has passed since the attempt.
+         *
+         * @param fraction The fraction of the expiration time after which to refresh, between 0 and 1
+         * @param executor The executor to run refreshes on
+         * @return This builder
+         * @throws IllegalArgumentException if fraction is not between 0 and 1
+         */
+        public Builder<T> refreshAhead(double fraction, Executor executor) {
+            if (!(fraction > 0 && fraction < 1)) {
+                throw new IllegalArgumentException("fraction must be between 0 and 1: " + fraction);
+            }
+            this.refreshAheadFraction = fraction;
+            this.refreshExecutor = Objects.requireNonNull(executor, "executor");
+            return this;
+        }
+
+        /**
+         * Keeps serving the old value for up to the given time past its expiry when reloading
+         * it fails, instead of failing callers. The expiry is taken as of the first failed
+         * reload, so reading the stale value does not extend the grace period.
+         *
+         * @param gracePeriodMillis The grace period in milliseconds
+         * @return This builder
+         * @throws IllegalArgumentException if gracePeriodMillis is negative
+         */
+        public Builder<T> staleGracePeriod(long gracePeriodMillis) {
+            if (gracePeriodMillis < 0) {
+                throw new IllegalArgumentException("gracePeriodMillis must not be negative: " + gracePeriodMillis);
+            }
+            this.gracePeriodMillis = gracePeriodMillis;
+            return this;
+        }
+
+        /**
+         * Records hits and misses of {@link ExpiringLazy#initialize()}, and the time every
+         * load and refresh takes, in the given counter.
+         *
+         * @param stats The counter to record statistics in
+         * @return This builder
+         */
+        public Builder<T> recordStats(StatsCounter stats) {
+            this.stats = Objects.requireNonNull(stats, "stats");
+            return this;
+        }
+
+        /**
+         * Sets the ticker that expiration is measured with. By default this is
+         * {@link Ticker#system()}.
+         *
+         * @param ticker The ticker to read the time from
+         * @return This builder
+         */
+        public Builder<T> ticker(Ticker ticker) {
+            this.ticker = Objects.requireNonNull(ticker, "ticker");
+            return this;
+        }
+
+        /**
+         * Discards the value whenever the given key is invalidated on the given channel, in
+         * this or any other process.
+         *
+         * @param channel The channel to receive invalidations on
+         * @param key The key that identifies the value on the channel
+         * @return This builder
+         */
+        public Builder<T> invalidatedBy(InvalidationChannel channel, Object key) {
+            this.invalidationChannel = Objects.requireNonNull(channel, "channel");
+            this.invalidationKey = Objects.requireNonNull(key, "key");
+            return this;
+        }
+
+        /**
+         * Builds a new ExpiringLazy with the configured settings.
+         *
+         * @return A new, uninitialized ExpiringLazy
+         * @throws IllegalStateException if no expiration time was set
+         */
+        public ExpiringLazy<T> build() {
+            if (expirationTimeInMillis < 0) {
+                throw new IllegalStateException("An expiration time must be set");
+            }
+            return new ExpiringLazy<>(this);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package net.cvs0.jlazy;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Remembers the most recent initialization failure for a limited time, so that callers can
+ * get the failure rethrown instead of calling a backend that just failed.
+ * <p>
+ * While a failure is remembered, {@link #throwIfCached()} and {@link #beforeAttempt()} rethrow
+ * the original exception instance, which is cheap since no new exception or stack trace is
+ * created. Once the failure's time to live has passed, exactly one caller of
+ * {@link #beforeAttempt()} is let through to probe the backend; everyone else keeps getting
+ * the failure until the probe reports its outcome. Only runtime exceptions are remembered.
+ */
+final class FailureMemo {
+    private final long ttlNanos;
+    private final Ticker ticker;
+    private volatile CachedFailure failure;
+
+    /**
+     * Creates a new FailureMemo.
+     *
+     * @param ttlMillis How long in milliseconds a failure is remembered
+     * @throws IllegalArgumentException if ttlMillis is not positive
+     */
+    FailureMemo(long ttlMillis) {
+        this(ttlMillis, Ticker.system());
+    }
+
+    /**
+     * Creates a new FailureMemo that measures the time to live with the given ticker.
+     *
+     * @param ttlMillis How long in milliseconds a failure is remembered
+     * @param ticker The ticker to read the time from
+     * @throws IllegalArgumentException if ttlMillis is not positive
+     */
+    FailureMemo(long ttlMillis, Ticker ticker) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("failure TTL must be positive: " + ttlMillis);
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.ticker = Objects.requireNonNull(ticker, "ticker");
+    }
+
+    /**
+     * Rethrows the remembered failure if it is still live or if a probe is in progress.
+     * This is meant as a fast check before waiting for a lock.
+     */
+    void throwIfCached() {
+        CachedFailure current = failure;
+        if (current != null && (!current.isExpired(ticker.read()) || current.probing.get())) {
+            throw current.exception;
+        }
+    }
+
+    /**
+     * Called right before an attempt. Rethrows the remembered failure if it is still live,
+     * and otherwise lets through only the first caller after it expired.
+     */
+    void beforeAttempt() {
+        CachedFailure current = failure;
+        if (current != null && (!current.isExpired(ticker.read()) || !current.probing.compareAndSet(false, true))) {
+            throw current.exception;
+        }
+    }
+
+    /**
+     * Records a failed attempt.
+     *
+     * @param exception The failure to remember
+     */
+    void onFailure(Throwable exception) {
+        if (exception instanceof RuntimeException) {
+            failure = new CachedFailure((RuntimeException) exception, ticker.read() + ttlNanos);
+        } else {
+            failure = null;
+        }
+    }
+
+    /**
+     * Records a successful attempt, forgetting any remembered failure.
+     */
+    void onSuccess() {
+        failure = null;
+    }
+
+    private static final class CachedFailure {
+        final RuntimeException exception;
+        final long expiresAt;
+        final AtomicBoolean probing = new AtomicBoolean();
+
+        CachedFailure(RuntimeException exception, long expiresAt) {
+            this.exception = exception;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
\ No newline at end of file
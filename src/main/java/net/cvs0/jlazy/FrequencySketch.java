@@ -0,0 +1,124 @@
+package net.cvs0.jlazy;
+
+/**
+ * A probabilistic frequency counter used by {@link LazyCache} to decide whether a new entry
+ * is worth keeping over an existing one.
+ * <p>
+ * This is a count-min sketch with four 4-bit counters per item, packed sixteen to a
+ * {@code long}. Counters saturate at 15 and are periodically halved so that the sketch
+ * reflects recent popularity rather than all-time popularity. Instances are not thread-safe;
+ * callers must guard them with their own lock.
+ *
+ * @param <E> The type of items being counted
+ */
+final class FrequencySketch<E> {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    /**
+     * Creates a sketch sized for the given number of entries.
+     *
+     * @param maximumSize The expected maximum number of distinct entries being tracked
+     */
+    FrequencySketch(long maximumSize) {
+        resize(maximumSize);
+    }
+
+    /**
+     * Grows the sketch if it is too small for the given number of entries. Growing discards
+     * the recorded frequencies.
+     *
+     * @param maximumSize The expected maximum number of distinct entries being tracked
+     */
+    void ensureCapacity(long maximumSize) {
+        if (maximumSize > table.length && table.length < 1 << 30) {
+            resize(maximumSize);
+        }
+    }
+
+    private void resize(long maximumSize) {
+        int capacity = (int) Math.max(8, Math.min(maximumSize, 1 << 30));
+        this.table = new long[ceilingPowerOfTwo(capacity)];
+        this.tableMask = table.length - 1;
+        this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+        this.size = 0;
+    }
+
+    /**
+     * Returns the estimated number of occurrences of an item, up to a maximum of 15.
+     *
+     * @param item The item to look up
+     * @return The estimated frequency of the item
+     */
+    int frequency(E item) {
+        int hash = spread(item.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an occurrence of an item, aging all counters once enough items were recorded.
+     *
+     * @param item The item to record
+     */
+    void increment(E item) {
+        int hash = spread(item.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+    static int ceilingPowerOfTwo(int x) {
+        return x <= 1 ? 1 : Integer.highestOneBit(x - 1) << 1;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,331 @@
+package net.cvs0.jlazy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Propagates invalidations between processes on the same host through a memory-mapped file,
+ * without a network or a broker.
+ * <p>
+ * The file holds a ring of invalidation records and a sequence counter. Publishing an
+ * invalidation claims the next sequence number with an atomic increment of the counter and
+ * writes the record into the ring slot for that number, stamping the slot before and after
+ * so readers never act on a half-written record. Every process that opened the file polls
+ * the counter, which is a single read of shared memory while nothing has changed, and
+ * delivers the records it has not seen yet to the caches and lazy values subscribed to its
+ * channel. A process that falls more than the ring's capacity behind, or finds a record
+ * overwritten before it could read it, cannot tell what it missed and clears everything
+ * instead of serving stale values. The same goes for a record that was claimed but is still
+ * not written a second later, because its publisher died or stalled halfway: readers clear
+ * everything and carry on with the records after it, rather than holding them back.
+ * <p>
+ * Records identify keys by their {@link Object#hashCode()}, so keys must have hash codes
+ * that are the same in every process, such as strings, numbers or records of them. A key
+ * invalidation also invalidates other keys with the same hash code. Invalidations published
+ * through a channel are delivered right away to the other subscribers of the same channel
+ * instance and are never delivered back to it by polling.
+ */
+public final class InvalidationChannel {
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    static final int MAGIC = 0x4a4c5a49;
+    static final int VERSION = 1;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SEQUENCE_OFFSET = 16;
+    private static final int SLOTS_OFFSET = 64;
+    private static final int SLOT_SIZE = 32;
+
+    private static final long KIND_KEY = 1;
+    private static final long KIND_ALL = 2;
+    private static final long STALLED_RECORD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final Ticker ticker;
+    private final long origin = ThreadLocalRandom.current().nextLong();
+    private final CopyOnWriteArrayList<WeakReference<Listener>> listeners = new CopyOnWriteArrayList<>();
+    // Guarded by this
+    private long nextSequence;
+    private long stalledSequence = -1;
+    private long stalledSince;
+
+    /**
+     * Opens the channel backed by the given file, creating the file with room for the given
+     * number of records if it doesn't exist yet. Records published before the channel was
+     * opened are not delivered.
+     *
+     * @param file The file shared by the processes
+     * @param capacity The number of records the ring holds, rounded up to a power of two;
+     *                 only used when the file is created
+     * @throws IllegalArgumentException if capacity is not positive
+     * @throws IllegalStateException if the file exists but is not an invalidation channel
+     * @throws UncheckedIOException if the file cannot be created or mapped
+     */
+    public InvalidationChannel(Path file, int capacity) {
+        this(file, capacity, Ticker.system());
+    }
+
+    InvalidationChannel(Path file, int capacity, Ticker ticker) {
+        Objects.requireNonNull(file, "file");
+        this.ticker = Objects.requireNonNull(ticker, "ticker");
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int requested = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The lock keeps two processes from creating the file at the same time
+            FileLock lock = channel.lock();
+            try {
+                this.capacity = initialize(file, channel, requested);
+            } finally {
+                lock.release();
+            }
+            // Mappings stay valid after the channel is closed
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SLOTS_OFFSET + (long) this.capacity * SLOT_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map " + file, e);
+        }
+        this.nextSequence = (long) LONG.getVolatile(buffer, SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Creates the header if the file is new, and checks it.
+     *
+     * @return The capacity of the file
+     */
+    private static int initialize(Path file, FileChannel channel, int requested) throws IOException {
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(SLOTS_OFFSET);
+            header.putInt(MAGIC).putInt(VERSION).putInt(requested);
+            header.clear();
+            channel.write(header, 0);
+            channel.write(ByteBuffer.allocate(1), SLOTS_OFFSET + (long) requested * SLOT_SIZE - 1);
+        }
+        ByteBuffer header = ByteBuffer.allocate(CAPACITY_OFFSET + 4);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < header.capacity() || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IllegalStateException(file + " is not an invalidation channel");
+        }
+        int capacity = header.getInt();
+        if (Integer.bitCount(capacity) != 1 || channel.size() < SLOTS_OFFSET + (long) capacity * SLOT_SIZE) {
+            throw new IllegalStateException(file + " is not an invalidation channel");
+        }
+        return capacity;
+    }
+
+    /**
+     * Invalidates a key in every process, and right away in every cache and lazy value
+     * subscribed to this channel.
+     *
+     * @param key The key to invalidate
+     */
+    public void invalidate(Object key) {
+        Objects.requireNonNull(key, "key");
+        publish(KIND_KEY, key.hashCode(), null);
+    }
+
+    /**
+     * Invalidates everything in every process, and right away in every cache and lazy value
+     * subscribed to this channel.
+     */
+    public void invalidateAll() {
+        publish(KIND_ALL, 0, null);
+    }
+
+    /**
+     * Delivers the invalidations other processes published since the last poll to the
+     * subscribers of this channel.
+     *
+     * @return The number of invalidations delivered, counting a fallback to a full clear as one
+     */
+    public synchronized int poll() {
+        long end = (long) LONG.getVolatile(buffer, SEQUENCE_OFFSET);
+        if (end == nextSequence) {
+            return 0;
+        }
+        if (end - nextSequence > capacity) {
+            nextSequence = end;
+            deliverAll(null);
+            return 1;
+        }
+        int delivered = 0;
+        for (; nextSequence < end; nextSequence++) {
+            int slot = slotOffset(nextSequence);
+            long stamp = (long) LONG.getVolatile(buffer, slot);
+            long stampSequence = Math.abs(stamp) - 1;
+            if (stampSequence < nextSequence || (stampSequence == nextSequence && stamp < 0)) {
+                if (!hasStalled(nextSequence)) {
+                    // Claimed but not written yet; picked up by a later poll
+                    break;
+                }
+                // Its publisher died or stalled, so what it was about to invalidate is unknown
+                deliverAll(null);
+                delivered++;
+                continue;
+            }
+            long recordOrigin = (long) LONG.getVolatile(buffer, slot + 8);
+            long hash = (long) LONG.getVolatile(buffer, slot + 16);
+            long kind = (long) LONG.getVolatile(buffer, slot + 24);
+            if (stampSequence != nextSequence || (long) LONG.getVolatile(buffer, slot) != stamp) {
+                // Overwritten by a writer that lapped the ring
+                nextSequence = end;
+                deliverAll(null);
+                return delivered + 1;
+            }
+            if (recordOrigin == origin) {
+                continue;
+            }
+            if (kind == KIND_ALL) {
+                deliverAll(null);
+            } else {
+                deliver((int) hash, null);
+            }
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * Polls this channel periodically on the given executor.
+     *
+     * @param executor The executor to poll on
+     * @param periodMillis The delay in milliseconds between polls
+     * @throws IllegalArgumentException if periodMillis is not positive
+     */
+    public void pollEvery(ScheduledExecutorService executor, long periodMillis) {
+        Objects.requireNonNull(executor, "executor");
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis must be positive: " + periodMillis);
+        }
+        // Only hold the channel weakly so the scheduled task doesn't keep an unused channel alive
+        WeakReference<InvalidationChannel> reference = new WeakReference<>(this);
+        ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        task[0] = executor.scheduleWithFixedDelay(() -> {
+            InvalidationChannel target = reference.get();
+            if (target == null) {
+                task[0].cancel(false);
+            } else {
+                target.poll();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the number of records the ring holds.
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Subscribes a listener. The channel only holds it weakly, so subscribers hold on to their
+     * listener for as long as they want to be notified.
+     */
+    void subscribe(Listener listener) {
+        listeners.add(new WeakReference<>(listener));
+    }
+
+    /**
+     * Publishes the invalidation of every key with the given hash code on behalf of a
+     * subscriber, which has already invalidated them itself.
+     */
+    void publishKey(int hash, Listener source) {
+        publish(KIND_KEY, hash, source);
+    }
+
+    /**
+     * Publishes the invalidation of everything on behalf of a subscriber, which has already
+     * invalidated everything itself.
+     */
+    void publishAll(Listener source) {
+        publish(KIND_ALL, 0, source);
+    }
+
+    private void publish(long kind, int hash, Listener source) {
+        long sequence = (long) LONG.getAndAdd(buffer, SEQUENCE_OFFSET, 1L);
+        int slot = slotOffset(sequence);
+        // Readers that see this marker know the record is not complete yet
+        LONG.setVolatile(buffer, slot, -(sequence + 1));
+        LONG.setVolatile(buffer, slot + 8, origin);
+        LONG.setVolatile(buffer, slot + 16, (long) hash);
+        LONG.setVolatile(buffer, slot + 24, kind);
+        LONG.setVolatile(buffer, slot, sequence + 1);
+        if (kind == KIND_ALL) {
+            deliverAll(source);
+        } else {
+            deliver(hash, source);
+        }
+    }
+
+    /**
+     * Checks whether a record has been claimed but not written for too long. Must be called
+     * with the channel's lock held.
+     */
+    private boolean hasStalled(long sequence) {
+        long now = ticker.read();
+        if (stalledSequence != sequence) {
+            stalledSequence = sequence;
+            stalledSince = now;
+            return false;
+        }
+        return now - stalledSince >= STALLED_RECORD_NANOS;
+    }
+
+    private int slotOffset(long sequence) {
+        return SLOTS_OFFSET + (int) (sequence & (capacity - 1)) * SLOT_SIZE;
+    }
+
+    private void deliver(int hash, Listener source) {
+        for (WeakReference<Listener> reference : listeners) {
+            Listener listener = reference.get();
+            if (listener == null) {
+                listeners.remove(reference);
+            } else if (listener != source) {
+                listener.invalidate(hash);
+            }
+        }
+    }
+
+    private void deliverAll(Listener source) {
+        for (WeakReference<Listener> reference : listeners) {
+            Listener listener = reference.get();
+            if (listener == null) {
+                listeners.remove(reference);
+            } else if (listener != source) {
+                listener.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Receives the invalidations delivered by a channel.
+     */
+    interface Listener {
+        /**
+         * Invalidates every key with the given hash code.
+         */
+        void invalidate(int hash);
+
+        void invalidateAll();
+    }
+}
\ No newline at end of file
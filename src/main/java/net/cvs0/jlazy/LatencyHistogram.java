@@ -0,0 +1,62 @@
+package net.cvs0.jlazy;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies with fixed, power-of-two sized buckets.
+ * <p>
+ * Bucket 0 counts latencies below 1024 ns, bucket {@code i} counts latencies from
+ * {@code 2^(i + 9)} ns up to {@code 2^(i + 10)} ns, and the last bucket counts everything from
+ * {@code 2^40} ns (about 18 minutes) up. Since the buckets never change, recording a latency
+ * is a couple of bit operations and a {@link LongAdder} increment, and never allocates once
+ * the adder has grown to fit the contention on it.
+ */
+final class LatencyHistogram {
+    static final int BUCKET_COUNT = 32;
+    private static final int FIRST_BUCKET_SHIFT = 10;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    void record(long nanos) {
+        buckets[bucketOf(nanos)].increment();
+    }
+
+    /**
+     * Gets the number of latencies recorded in each bucket.
+     *
+     * @return A new array with the count of each bucket
+     */
+    long[] counts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    static int bucketOf(long nanos) {
+        int bucket = (63 - Long.numberOfLeadingZeros(nanos)) - (FIRST_BUCKET_SHIFT - 1);
+        return Math.max(0, Math.min(bucket, BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Gets the exclusive upper bound of a bucket.
+     *
+     * @param bucket The bucket index
+     * @return The upper bound in nanoseconds, or Long.MAX_VALUE for the last bucket
+     */
+    static long upperBoundNanos(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << (bucket + FIRST_BUCKET_SHIFT);
+    }
+}
\ No newline at end of file
@@ -4,58 +4,134 @@ import java.util.function.Supplier;
 
 /**
  * Basic implementation of lazy initialization.
+ * <p>
+ * Instances are safe to share between threads. The initializer runs at most once per
+ * successful initialization, and the value is safely published to every thread that
+ * observes it. Once initialized, {@link #get()} and {@link #initialize()} are a single
+ * volatile read with no locking and no allocation. If the initializer throws, the instance
+ * stays uninitialized and the next call to {@link #initialize()} runs it again.
+ * <p>
+ * Optionally, a failure can be remembered for a limited time. During that time every call
+ * to {@link #initialize()} rethrows the same exception instead of running the initializer
+ * again; once it has passed, a single caller runs the initializer to probe whether it
+ * succeeds now.
+ *
  * @param <T> The type of value to be lazily initialized
  */
 public class Lazy<T> implements LazyInitializer<T> {
-    private final Supplier<T> initializer;
-    private T value;
-    private boolean initialized = false;
+    private static final Object UNINITIALIZED = new Object();
+
+    private Supplier<T> initializer;
+    private final FailureMemo failureMemo;
+    private volatile Object value = UNINITIALIZED;
 
     /**
      * Creates a new Lazy instance with the given initializer.
-     * 
+     *
      * @param initializer The supplier function that will initialize the value when needed
      */
     public Lazy(Supplier<T> initializer) {
         this.initializer = initializer;
+        this.failureMemo = null;
+    }
+
+    /**
+     * Creates a new Lazy instance that remembers initialization failures for the given time.
+     *
+     * @param initializer The supplier function that will initialize the value when needed
+     * @param failureTtlMillis How long in milliseconds a failure is rethrown before the initializer is tried again
+     * @throws IllegalArgumentException if failureTtlMillis is not positive
+     */
+    public Lazy(Supplier<T> initializer, long failureTtlMillis) {
+        this(initializer, failureTtlMillis, Ticker.system());
+    }
+
+    /**
+     * Creates a new Lazy instance that remembers initialization failures for the given time,
+     * as measured by the given ticker.
+     *
+     * @param initializer The supplier function that will initialize the value when needed
+     * @param failureTtlMillis How long in milliseconds a failure is rethrown before the initializer is tried again
+     * @param ticker The ticker to read the time from
+     * @throws IllegalArgumentException if failureTtlMillis is not positive
+     */
+    public Lazy(Supplier<T> initializer, long failureTtlMillis, Ticker ticker) {
+        this.initializer = initializer;
+        this.failureMemo = new FailureMemo(failureTtlMillis, ticker);
+    }
+
+    /**
+     * Creates a new Lazy instance that records how long its initializer takes, and whether it
+     * fails, in the given statistics.
+     *
+     * @param initializer The supplier function that will initialize the value when needed
+     * @param stats The statistics to record initializations in
+     */
+    public Lazy(Supplier<T> initializer, StatsCounter stats) {
+        this(stats.timed(initializer));
     }
 
     /**
      * Gets the value if it's already initialized, otherwise returns null.
      * This method does not trigger initialization.
-     * 
+     *
      * @return The initialized value or null if not yet initialized
      */
     @Override
+    @SuppressWarnings("unchecked")
     public T get() {
-        if (!initialized) {
-            return null;
-        }
-        return value;
+        Object current = value;
+        return current == UNINITIALIZED ? null : (T) current;
     }
-    
+
     /**
      * Initializes the value if not already initialized and returns it.
-     * 
+     * Concurrent callers block until the first caller has finished running the initializer
+     * and then all observe the same value.
+     *
      * @return The initialized value
      * @throws InterruptedException if the initialization process is interrupted
      */
     @Override
+    @SuppressWarnings("unchecked")
     public T initialize() throws InterruptedException {
-        if (!initialized) {
-            initialized = true;
-            value = initializer.get();
+        Object current = value;
+        if (current == UNINITIALIZED) {
+            FailureMemo memo = failureMemo;
+            if (memo != null) {
+                memo.throwIfCached();
+            }
+            synchronized (this) {
+                current = value;
+                if (current == UNINITIALIZED) {
+                    if (memo == null) {
+                        current = initializer.get();
+                    } else {
+                        memo.beforeAttempt();
+                        try {
+                            current = initializer.get();
+                        } catch (RuntimeException | Error e) {
+                            memo.onFailure(e);
+                            throw e;
+                        }
+                        memo.onSuccess();
+                    }
+                    value = current;
+                    // Drop the supplier so anything it captured can be collected
+                    initializer = null;
+                }
+            }
         }
-        return value;
+        return (T) current;
     }
-    
+
     /**
      * Checks if the value has been initialized.
-     * 
+     *
      * @return true if the value has been initialized, false otherwise
      */
     @Override
     public boolean isInitialized() {
-        return initialized;
+        return value != UNINITIALIZED;
     }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package net.cvs0.jlazy;
+
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+/**
+ * A fixed-length array of lazily computed elements.
+ * <p>
+ * Each element is computed from its index the first time it is initialized, exactly once,
+ * no matter how many threads request it at the same time. Unlike an array of {@link Lazy}
+ * instances, all elements live in a single flat array, so an element costs one reference
+ * instead of a wrapper object with its own initializer and state. If computing an element
+ * throws, the element stays uninitialized and the next request computes it again.
+ *
+ * @param <T> The type of elements
+ */
+public final class LazyArray<T> {
+    private final IntFunction<? extends T> initializer;
+    private final LazySlots slots;
+
+    /**
+     * Creates a new LazyArray.
+     *
+     * @param length The number of elements
+     * @param initializer The function that computes the element at an index
+     * @throws IllegalArgumentException if length is negative
+     */
+    public LazyArray(int length, IntFunction<? extends T> initializer) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative: " + length);
+        }
+        this.initializer = Objects.requireNonNull(initializer, "initializer");
+        this.slots = new LazySlots(length);
+    }
+
+    /**
+     * Gets the number of elements.
+     *
+     * @return The length of the array
+     */
+    public int length() {
+        return slots.length();
+    }
+
+    /**
+     * Gets an element if it's already initialized, otherwise returns null.
+     * This method does not trigger initialization.
+     *
+     * @param index The index of the element
+     * @return The initialized element or null if not yet initialized
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public T get(int index) {
+        return slots.get(index);
+    }
+
+    /**
+     * Initializes an element if not already initialized and returns it. Concurrent callers
+     * for the same element wait for the first one to compute it.
+     *
+     * @param index The index of the element
+     * @return The initialized element
+     * @throws InterruptedException if the thread is interrupted while waiting for another thread to compute the element
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * @throws IllegalStateException if computing the element requires the element itself
+     */
+    public T initialize(int index) throws InterruptedException {
+        return slots.initialize(index, initializer);
+    }
+
+    /**
+     * Checks if an element has been initialized.
+     *
+     * @param index The index of the element
+     * @return true if the element has been initialized, false otherwise
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public boolean isInitialized(int index) {
+        return slots.isInitialized(index);
+    }
+}
\ No newline at end of file
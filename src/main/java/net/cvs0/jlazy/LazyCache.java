@@ -1,68 +1,1915 @@
 package net.cvs0.jlazy;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
  * A cache for lazy-initialized values, indexed by keys.
- * 
+ * <p>
+ * The cache is safe for concurrent use. Keys are spread over independently locked segments,
+ * lookups of existing entries never take a lock, and each entry's value is initialized once
+ * no matter how many threads request it at the same time.
+ * <p>
+ * A cache created with a maximum size evicts entries once it grows past that size. New
+ * entries enter a small LRU admission window; when an entry leaves the window it only
+ * replaces the least recently used entry of the main LRU region if a frequency sketch says
+ * it has been requested more often, so a one-off scan over many keys cannot flush hot ones.
+ * Instead of counting entries, a cache can bound the total weight of its entries as
+ * calculated by a {@link Weigher}, for example their estimated size in bytes. An entry
+ * weighs nothing while its value loads, and is weighed once the value is available.
+ * <p>
+ * Entries can also expire a fixed time after they were created or last accessed. Expired
+ * entries are never returned, and are reclaimed incrementally through a hierarchical timing
+ * wheel as part of normal cache operations, or periodically on a maintenance executor, so
+ * reclaiming them never requires scanning the cache.
+ * <p>
+ * By default an entry whose initialization fails is removed, so the next request for its key
+ * tries again. With failure caching enabled, the failure is instead kept and rethrown to
+ * every caller for a limited time, after which a single caller probes the backend again.
+ * <p>
+ * Instead of holding values strongly, a cache can hold them through soft or weak references,
+ * so that the garbage collector may reclaim them when memory runs low or once nothing else
+ * uses them. Reclaimed entries disappear from the cache as if they had been evicted, and the
+ * next request for their key initializes them again. A {@link Lazy} returned by the cache
+ * keeps its value reachable for as long as the caller holds on to it.
+ * <p>
+ * A bounded cache can have a second, off-heap tier. Values evicted to keep within the
+ * maximum size or weight are then encoded through a {@link Codec} and stored in direct
+ * buffers or a memory-mapped file, where they cost the garbage collector nothing. A request
+ * that misses the heap checks the off-heap tier before initializing the value, and moves a
+ * value found there back onto the heap. Space taken by values that left the off-heap tier
+ * is compacted as part of {@link #cleanUp()}, so with a maintenance executor it happens in
+ * the background.
+ * <p>
+ * A cache can also save a snapshot of its initialized entries to a local file, on demand or
+ * periodically, and restore it when it is next built, for example after a restart. The
+ * snapshot is memory-mapped and only its keys are read up front; each value is decoded from
+ * the file the first time it is requested, instead of being initialized again. A snapshot
+ * that is corrupt or was written in an incompatible format is ignored.
+ * <p>
+ * Expiration is measured with a {@link Ticker}. The time of an entry's last access is only
+ * written when it has moved on by at least a millisecond, so concurrent readers of a hot
+ * entry don't contend on it.
+ * <p>
+ * A cache can also keep a small near cache per thread in front of its segments. Repeated
+ * {@link #getOrCreate(Object, Supplier)} calls for the same keys are then served from the
+ * calling thread's own table without hashing into the shared map. Removing a key or clearing
+ * the cache invalidates every thread's near cache before its next lookup, and expired or
+ * collected entries are never served from it; an entry evicted for size may still be served
+ * by a thread's near cache until it is displaced there.
+ * <p>
+ * Caches in several processes on the same host can share an {@link InvalidationChannel}, so
+ * that removing a key or clearing the cache in one process does the same in the others.
+ * <p>
+ * A cache can record hits, misses, evictions and load times in a {@link StatsCounter}; one
+ * that doesn't pays no cost for it.
+ * Null keys are not supported.
+ *
  * @param <K> The type of keys used to index the cache
  * @param <V> The type of values stored in the cache
  */
 public class LazyCache<K, V> {
-    private final Map<K, Lazy<V>> cache = new HashMap<>();
+    private static final long UNBOUNDED = -1;
+    private static final int MAXIMUM_SEGMENTS = 1 << 16;
+    private static final int MINIMUM_SEGMENT_SIZE = 16;
+    private static final long ACCESS_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // One in this many near cache hits is also reported to the segment's eviction policy
+    private static final int NEAR_HIT_SAMPLE_MASK = 15;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final long failureTtlMillis;
+    private final StatsCounter stats;
+    private final ValueStrength valueStrength;
+    private final Weigher<? super K, ? super V> weigher;
+    private final OffHeapTier<K, V> offHeap;
+    private final Path snapshotFile;
+    private final Codec<K> snapshotKeyCodec;
+    private final Codec<V> snapshotValueCodec;
+    private final Snapshot<K, V> restored;
+    private final Ticker ticker;
+    private final long startNanos;
+    private final NearCache<K, Node<K, V>> nearCache;
+    private final InvalidationChannel invalidationChannel;
+    // Held here because the channel only holds its subscribers weakly
+    private final InvalidationChannel.Listener invalidationListener;
+
+    /**
+     * Creates a new unbounded LazyCache.
+     */
+    public LazyCache() {
+        this(builder());
+    }
+
+    /**
+     * Creates a new LazyCache that holds at most the given number of entries.
+     *
+     * @param maximumSize The maximum number of entries the cache may hold
+     * @throws IllegalArgumentException if maximumSize is negative
+     */
+    public LazyCache(long maximumSize) {
+        this(builder().maximumSize(maximumSize));
+    }
+
+    @SuppressWarnings("unchecked")
+    private LazyCache(Builder<?, ?> builder) {
+        if (builder.weigher != null && builder.maximumWeight == UNBOUNDED) {
+            throw new IllegalStateException("A weigher requires a maximum weight");
+        }
+        if (builder.weigher == null && builder.maximumWeight != UNBOUNDED) {
+            throw new IllegalStateException("A maximum weight requires a weigher");
+        }
+        if (builder.maximumSize != UNBOUNDED && builder.maximumWeight != UNBOUNDED) {
+            throw new IllegalStateException("A cache cannot have both a maximum size and a maximum weight");
+        }
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        this.failureTtlMillis = builder.failureTtlMillis;
+        this.stats = builder.stats;
+        this.valueStrength = builder.valueStrength;
+        this.weigher = (Weigher<? super K, ? super V>) builder.weigher;
+        this.ticker = builder.ticker;
+        this.startNanos = ticker.read();
+        this.nearCache = builder.nearCacheSize == 0 ? null : new NearCache<>(builder.nearCacheSize);
+        if (builder.snapshotExecutor != null && builder.snapshotFile == null) {
+            throw new IllegalStateException("Periodic snapshots require a snapshot file");
+        }
+        if (builder.offHeapCodec != null && maximumOf(builder) == UNBOUNDED) {
+            throw new IllegalStateException("An off-heap tier requires a maximum size or weight");
+        }
+        this.offHeap = builder.offHeapCodec == null ? null : new OffHeapTier<>(
+                (Codec<V>) builder.offHeapCodec, builder.offHeapCapacityBytes, builder.offHeapFile);
+        this.snapshotFile = builder.snapshotFile;
+        this.snapshotKeyCodec = (Codec<K>) builder.snapshotKeyCodec;
+        this.snapshotValueCodec = (Codec<V>) builder.snapshotValueCodec;
+        this.restored = snapshotFile == null ? null : Snapshot.restore(snapshotFile, snapshotKeyCodec,
+                snapshotValueCodec, TimeUnit.NANOSECONDS.toMillis(expireAfterWriteNanos));
+        long maximum = weighs() ? builder.maximumWeight : builder.maximumSize;
+        int concurrencyLevel = builder.concurrencyLevel;
+        if (concurrencyLevel == 0) {
+            // Every segment gets an equal share of the maximum weight, so splitting a weighted
+            // cache by default would evict any entry heavier than one segment's share
+            concurrencyLevel = weighs() ? 1 : 4 * Runtime.getRuntime().availableProcessors();
+        }
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel
+                && segmentCount < MAXIMUM_SEGMENTS
+                && (maximum == UNBOUNDED || (long) segmentCount * 2 * MINIMUM_SEGMENT_SIZE <= maximum)) {
+            segmentCount <<= 1;
+        }
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        for (int i = 0; i < segmentCount; i++) {
+            long segmentMaximum = UNBOUNDED;
+            if (maximum != UNBOUNDED) {
+                segmentMaximum = maximum / segmentCount + (i < maximum % segmentCount ? 1 : 0);
+            }
+            segments[i] = new Segment<>(this, segmentMaximum);
+        }
+        if (builder.maintenanceExecutor != null) {
+            scheduleMaintenance(this, builder.maintenanceExecutor, builder.maintenancePeriodMillis);
+        }
+        if (builder.snapshotExecutor != null) {
+            scheduleSnapshots(this, builder.snapshotExecutor, builder.snapshotPeriodMillis);
+        }
+        this.invalidationChannel = builder.invalidationChannel;
+        if (invalidationChannel == null) {
+            this.invalidationListener = null;
+        } else {
+            this.invalidationListener = new InvalidationChannel.Listener() {
+                @Override
+                public void invalidate(int hash) {
+                    removeHash(hash);
+                }
+
+                @Override
+                public void invalidateAll() {
+                    clearLocally();
+                }
+            };
+            invalidationChannel.subscribe(invalidationListener);
+        }
+    }
+
+    private static long maximumOf(Builder<?, ?> builder) {
+        return builder.weigher != null ? builder.maximumWeight : builder.maximumSize;
+    }
+
+    private static void scheduleMaintenance(LazyCache<?, ?> cache, ScheduledExecutorService executor, long periodMillis) {
+        // Only hold the cache weakly so the scheduled task doesn't keep an unused cache alive
+        WeakReference<LazyCache<?, ?>> reference = new WeakReference<>(cache);
+        ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        task[0] = executor.scheduleWithFixedDelay(() -> {
+            LazyCache<?, ?> target = reference.get();
+            if (target == null) {
+                task[0].cancel(false);
+            } else {
+                target.cleanUp();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void scheduleSnapshots(LazyCache<?, ?> cache, ScheduledExecutorService executor, long periodMillis) {
+        WeakReference<LazyCache<?, ?>> reference = new WeakReference<>(cache);
+        ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        task[0] = executor.scheduleWithFixedDelay(() -> {
+            LazyCache<?, ?> target = reference.get();
+            if (target == null) {
+                task[0].cancel(false);
+                return;
+            }
+            try {
+                target.saveSnapshot();
+            } catch (IOException e) {
+                // Keep the previous snapshot and try again next period
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a builder for configuring a new LazyCache.
+     *
+     * @return A new builder with default settings
+     */
+    public static Builder<Object, Object> builder() {
+        return new Builder<>();
+    }
 
     /**
      * Gets a lazy value from the cache or creates a new one if not present.
-     * 
+     * The returned value is always initialized. If the initializer throws, the entry is
+     * removed so that a later call can try again.
+     *
      * @param key The key to look up in the cache
      * @param initializer The supplier function to initialize the value if not in cache
      * @return A Lazy instance that will provide the value
      * @throws InterruptedException if the initialization process is interrupted
      */
     public Lazy<V> getOrCreate(K key, Supplier<V> initializer) throws InterruptedException {
-        Lazy<V> lazy = cache.computeIfAbsent(key, k -> new Lazy<>(initializer));
-        
+        Objects.requireNonNull(key, "key");
+        NearCache<K, Node<K, V>>.Table near = nearCache == null ? null : nearCache.table();
+        if (near != null) {
+            Lazy<V> cached = nearHit(near, key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Segment<K, V> segment = segmentFor(key);
+        Node<K, V> node;
+        Lazy<V> lazy;
+        boolean miss;
+        do {
+            node = segment.get(key);
+            miss = false;
+            if (node == null) {
+                Node<K, V> candidate = newNode(key, stats == null ? initializer : stats.timed(initializer));
+                node = segment.insertIfAbsent(candidate);
+                miss = node == candidate;
+            }
+            // Only null if the garbage collector reclaimed the value in the meantime
+            lazy = node.lazy();
+        } while (lazy == null);
+        recordLookup(miss);
+
         // Initialize the value immediately for the cache
-        lazy.initialize();
-        
+        try {
+            if (!lazy.isInitialized()) {
+                initialize(node, lazy);
+            }
+        } catch (RuntimeException | Error e) {
+            if (!cachesFailures()) {
+                segment.removeIfSame(key, node);
+            }
+            throw e;
+        }
+        onLoaded(segment, node, lazy);
+        if (near != null) {
+            near.put(key, node);
+        }
+
         return lazy;
     }
-    
+
+    private Lazy<V> nearHit(NearCache<K, Node<K, V>>.Table near, K key) {
+        Node<K, V> node = near.get(key);
+        if (node == null) {
+            return null;
+        }
+        Lazy<V> lazy = node.lazy();
+        if (lazy == null) {
+            near.remove(key);
+            return null;
+        }
+        if (expires()) {
+            long now = now();
+            if (isExpired(node, now)) {
+                near.remove(key);
+                return null;
+            }
+            recordAccess(node, now);
+        }
+        if (near.sampleHit(NEAR_HIT_SAMPLE_MASK)) {
+            // Keeps keys that are hot in near caches from looking cold to the eviction policy
+            segmentFor(key).touch(node);
+        }
+        if (stats != null) {
+            stats.recordNearHit();
+        }
+        return lazy;
+    }
+
+    /**
+     * Gets a value from the cache, or starts loading it asynchronously if not present.
+     * Concurrent calls for a missing key share a single load: the loader is invoked once and
+     * every caller's future completes with its result. If the load fails, the entry is removed
+     * so that a later call can try again.
+     * <p>
+     * The loader is invoked on the calling thread and should return quickly, doing its actual
+     * work asynchronously. Callers that only have a blocking supplier can use
+     * {@link #getOrCreateAsync(Object, Supplier, Executor)} instead.
+     *
+     * @param key The key to look up in the cache
+     * @param loader The function that starts loading the value for the key if not in cache
+     * @return A future that completes with the value
+     */
+    public CompletableFuture<V> getOrCreateAsync(K key, Function<? super K, ? extends CompletableFuture<V>> loader) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(loader, "loader");
+        Segment<K, V> segment = segmentFor(key);
+        for (;;) {
+            Node<K, V> node = segment.get(key);
+            if (node == null) {
+                Node<K, V> candidate = newLoadingNode(key);
+                node = segment.insertIfAbsent(candidate);
+                if (node == candidate) {
+                    recordLookup(true);
+                    CompletableFuture<V> future = candidate.future;
+                    startLoad(segment, candidate, loader);
+                    return future.isDone() ? future : future.copy();
+                }
+            }
+            CompletableFuture<V> future = futureOf(segment, node);
+            // Only null if the garbage collector reclaimed the value in the meantime
+            if (future != null) {
+                recordLookup(false);
+                return future;
+            }
+        }
+    }
+
+    /**
+     * Gets a value from the cache, or starts initializing it on the given executor if not
+     * present. Concurrent calls for a missing key share a single initialization. If the
+     * initializer throws, the entry is removed so that a later call can try again.
+     *
+     * @param key The key to look up in the cache
+     * @param initializer The supplier function to initialize the value if not in cache
+     * @param executor The executor to run the initializer on
+     * @return A future that completes with the value
+     */
+    public CompletableFuture<V> getOrCreateAsync(K key, Supplier<V> initializer, Executor executor) {
+        Objects.requireNonNull(initializer, "initializer");
+        Objects.requireNonNull(executor, "executor");
+        return getOrCreateAsync(key, k -> CompletableFuture.supplyAsync(initializer, executor));
+    }
+
+    /**
+     * Gets the values for several keys at once. Keys already in the cache are served from it,
+     * and all keys that are missing are passed to a single call of the batch loader, which
+     * runs on the calling thread. Keys that another caller is already loading are not loaded
+     * again; this call waits for those loads instead.
+     * <p>
+     * Keys the batch loader leaves out of its result are not cached and are left out of the
+     * returned map. If the batch loader throws, none of its keys are cached and the exception
+     * is rethrown.
+     *
+     * @param keys The keys to look up in the cache
+     * @param batchLoader The function that loads the values for all keys missing from the cache
+     * @return A map from each key that has a value to that value, in the iteration order of keys
+     * @throws InterruptedException if the initialization process is interrupted
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys,
+                            Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> batchLoader)
+            throws InterruptedException {
+        Objects.requireNonNull(batchLoader, "batchLoader");
+        Set<K> requested = new LinkedHashSet<>(keys);
+        Map<K, V> found = new HashMap<>();
+        Map<K, Node<K, V>> owned = new LinkedHashMap<>();
+        Map<Node<K, V>, Lazy<V>> inFlight = new LinkedHashMap<>();
+        for (K key : requested) {
+            Objects.requireNonNull(key, "key");
+            Segment<K, V> segment = segmentFor(key);
+            Node<K, V> node;
+            Lazy<V> lazy = null;
+            do {
+                node = segment.get(key);
+                if (node == null) {
+                    Node<K, V> candidate = newLoadingNode(key);
+                    node = segment.insertIfAbsent(candidate);
+                    if (node == candidate) {
+                        break;
+                    }
+                }
+                // Only null if the garbage collector reclaimed the value in the meantime
+                lazy = node.lazy();
+            } while (lazy == null);
+            if (lazy == null) {
+                Stored<V> stored = takeStored(key);
+                watchLoad(segment, node, stored != null);
+                if (stored != null) {
+                    restoreWriteTime(segment, node, stored.writeTime);
+                    node.future.complete(stored.value);
+                    found.put(key, stored.value);
+                    continue;
+                }
+                owned.put(key, node);
+            } else if (lazy.isInitialized()) {
+                found.put(key, lazy.get());
+            } else {
+                inFlight.put(node, lazy);
+            }
+        }
+
+        if (stats != null) {
+            stats.recordMisses(owned.size());
+            stats.recordHits(requested.size() - owned.size());
+        }
+
+        if (!owned.isEmpty()) {
+            Map<? extends K, ? extends V> loaded;
+            try {
+                loaded = batchLoader.apply(Collections.unmodifiableSet(owned.keySet()));
+            } catch (RuntimeException | Error e) {
+                for (Node<K, V> node : owned.values()) {
+                    node.future.completeExceptionally(e);
+                }
+                throw e;
+            }
+            for (Map.Entry<K, Node<K, V>> entry : owned.entrySet()) {
+                K key = entry.getKey();
+                CompletableFuture<V> future = entry.getValue().future;
+                if (loaded != null && loaded.containsKey(key)) {
+                    V value = loaded.get(key);
+                    future.complete(value);
+                    found.put(key, value);
+                } else {
+                    future.completeExceptionally(new NoSuchElementException("No value loaded for key " + key));
+                }
+            }
+        }
+
+        for (Map.Entry<Node<K, V>, Lazy<V>> entry : inFlight.entrySet()) {
+            Node<K, V> node = entry.getKey();
+            try {
+                found.put(node.key, entry.getValue().initialize());
+            } catch (NoSuchElementException e) {
+                // Another batch found no value for this key either
+                if (node.future == null) {
+                    throw e;
+                }
+            }
+        }
+
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : requested) {
+            if (found.containsKey(key)) {
+                result.put(key, found.get(key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates an entry for getOrCreate whose initializer checks the off-heap tier and the
+     * restored snapshot before doing any work, and stamps the entry's write time once its
+     * value has been loaded.
+     */
+    private Node<K, V> newNode(K key, Supplier<V> initializer) {
+        Node<K, V> node = new Node<>(key, null, null);
+        // Published before the entry is inserted, so asynchronous callers never mistake an
+        // entry whose load has not started yet for one whose load failed
+        node.loading = new CompletableFuture<>();
+        boolean tiered = offHeap != null || restored != null;
+        node.lazy = newLazy(() -> {
+            Stored<V> stored = tiered ? takeStored(key) : null;
+            if (stored != null) {
+                restoreWriteTime(segmentFor(key), node, stored.writeTime);
+                return stored.value;
+            }
+            V value = initializer.get();
+            // Expire after write counts from when the value became available
+            node.writeTime = now();
+            return value;
+        });
+        return node;
+    }
+
+    private Stored<V> takeStored(K key) {
+        long now = now();
+        if (offHeap != null) {
+            Stored<V> demoted = offHeap.take(key, now);
+            if (demoted != null) {
+                if (stats != null) {
+                    stats.recordOffHeapHit();
+                }
+                return demoted;
+            }
+        }
+        Stored<V> snapshotted = restored == null ? null : restored.take(key, now);
+        // Restored entries were only filtered by age when the cache was built
+        if (snapshotted != null && expireAfterWriteNanos > 0 && now - snapshotted.writeTime >= expireAfterWriteNanos) {
+            return null;
+        }
+        return snapshotted;
+    }
+
+    /**
+     * Lets a value taken from the off-heap tier or the snapshot keep the write time it had,
+     * so moving between tiers doesn't extend its expire-after-write time.
+     */
+    private void restoreWriteTime(Segment<K, V> segment, Node<K, V> node, long writeTime) {
+        node.writeTime = writeTime;
+        if (expireAfterWriteNanos > 0) {
+            segment.rescheduleExpiry(node);
+        }
+    }
+
     /**
-     * Removes a key from the cache.
-     * 
+     * Moves the value of an entry that is being evicted for size to the off-heap tier.
+     */
+    void demote(Node<K, V> node) {
+        if (offHeap == null) {
+            return;
+        }
+        Lazy<V> lazy = node.lazy();
+        if (lazy == null || !lazy.isInitialized() || lazy.get() == null) {
+            return;
+        }
+        offHeap.put(node.key, lazy.get(), node.writeTime, expires() ? expirationTime(node) : OffHeapTier.NEVER);
+    }
+
+    private Lazy<V> newLazy(Supplier<V> initializer) {
+        return cachesFailures() ? new Lazy<>(initializer, failureTtlMillis, ticker) : new Lazy<>(initializer);
+    }
+
+    private Node<K, V> newLoadingNode(K key) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        return new Node<>(key, newLazy(() -> join(future)), future);
+    }
+
+    private void recordLookup(boolean miss) {
+        if (stats != null) {
+            if (miss) {
+                stats.recordMisses(1);
+            } else {
+                stats.recordHits(1);
+            }
+        }
+    }
+
+    private void watchLoad(Segment<K, V> segment, Node<K, V> node, boolean stored) {
+        long loadStart = stats == null ? 0 : System.nanoTime();
+        node.future.whenComplete((value, error) -> {
+            if (stats != null) {
+                if (error == null) {
+                    stats.recordLoadSuccess(System.nanoTime() - loadStart);
+                } else {
+                    stats.recordLoadFailure(System.nanoTime() - loadStart);
+                }
+            }
+            if (error == null) {
+                if (!stored) {
+                    // Expire after write counts from when the value became available
+                    node.writeTime = now();
+                }
+                // Lets synchronous readers of the entry take the Lazy fast path from now on
+                Lazy<V> lazy = node.lazy();
+                initializeQuietly(lazy);
+                onLoaded(segment, node, lazy);
+            } else if (cachesFailures()) {
+                // The failed entry stays cached; its write time now marks when it failed
+                node.writeTime = now();
+            } else {
+                segment.removeIfSame(node.key, node);
+            }
+        });
+    }
+
+    private void startLoad(Segment<K, V> segment, Node<K, V> node,
+                           Function<? super K, ? extends CompletableFuture<V>> loader) {
+        CompletableFuture<V> future = node.future;
+        Stored<V> stored = takeStored(node.key);
+        watchLoad(segment, node, stored != null);
+        if (stored != null) {
+            restoreWriteTime(segment, node, stored.writeTime);
+            future.complete(stored.value);
+            return;
+        }
+        try {
+            CompletableFuture<V> load = loader.apply(node.key);
+            if (load == null) {
+                throw new NullPointerException("loader returned a null future for key " + node.key);
+            }
+            load.whenComplete((value, error) -> {
+                if (error == null) {
+                    future.complete(value);
+                } else {
+                    future.completeExceptionally(error);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Once an entry's value is loaded, weighs the entry if the cache is bounded by weight, and
+     * lets the cache hold the value through a soft or weak reference if so configured.
+     */
+    private void onLoaded(Segment<K, V> segment, Node<K, V> node, Lazy<V> lazy) {
+        if (weigher != null) {
+            int weight;
+            try {
+                weight = weigher.weigh(node.key, lazy.get());
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Weight of " + node.key + " must not be negative: " + weight);
+                }
+            } catch (RuntimeException | Error e) {
+                // An entry that can't be weighed can't be accounted for
+                segment.removeIfSame(node.key, node);
+                throw e;
+            }
+            segment.updateWeight(node, weight);
+        }
+        if (valueStrength != ValueStrength.STRONG) {
+            node.releaseValue(valueStrength == ValueStrength.SOFT, segment.referenceQueue);
+        }
+    }
+
+    /**
+     * Gets a future for an entry's value, or null if the entry's value has been reclaimed.
+     */
+    private CompletableFuture<V> futureOf(Segment<K, V> segment, Node<K, V> node) {
+        CompletableFuture<V> future = node.future;
+        if (future == null) {
+            // The entry was created by getOrCreate, which initializes it on the calling thread,
+            // or its value was loaded and is now only referenced softly or weakly
+            Lazy<V> lazy = node.lazy();
+            if (lazy == null) {
+                return null;
+            }
+            if (lazy.isInitialized()) {
+                return CompletableFuture.completedFuture(lazy.get());
+            }
+            CompletableFuture<V> loading = node.loading;
+            if (loading == null) {
+                // Only cleared once the value is loaded
+                return CompletableFuture.completedFuture(lazy.get());
+            }
+            if (!loading.isCompletedExceptionally()) {
+                // Either its creator is about to initialize the entry or is doing so now
+                return loading.isDone() ? loading : loading.copy();
+            }
+            // The entry's last attempt failed, so try again on the calling thread, where
+            // getOrCreateAsync runs its loaders as well
+            try {
+                initialize(node, lazy);
+                onLoaded(segment, node, lazy);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return CompletableFuture.failedFuture(e);
+            } catch (RuntimeException | Error e) {
+                if (!cachesFailures()) {
+                    segment.removeIfSame(node.key, node);
+                }
+                return CompletableFuture.failedFuture(e);
+            }
+            return CompletableFuture.completedFuture(lazy.get());
+        }
+        // Hand out a copy while loading so one caller cancelling or completing it can't affect the others
+        return future.isDone() ? future : future.copy();
+    }
+
+    /**
+     * Initializes an entry created by getOrCreate on the calling thread, completing the
+     * entry's loading future with the outcome so asynchronous callers can wait for it without
+     * blocking a thread. The future is dropped once the value is loaded; after a failure it
+     * stays failed until the next attempt replaces it.
+     */
+    private static <K, V> void initialize(Node<K, V> node, Lazy<V> lazy) throws InterruptedException {
+        CompletableFuture<V> loading = node.loading;
+        if (loading == null || loading.isCompletedExceptionally()) {
+            loading = new CompletableFuture<>();
+            node.loading = loading;
+        }
+        try {
+            loading.complete(lazy.initialize());
+        } catch (Throwable e) {
+            loading.completeExceptionally(e);
+            throw e;
+        }
+        if (node.loading == loading) {
+            node.loading = null;
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static void initializeQuietly(Lazy<?> lazy) {
+        try {
+            lazy.initialize();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes a key from the cache, and from the caches of other processes if the cache has
+     * an invalidation channel.
+     *
      * @param key The key to remove
      * @return true if the key was present and removed, false otherwise
      */
     public boolean remove(K key) {
-        return cache.remove(key) != null;
+        Objects.requireNonNull(key, "key");
+        boolean removed = removeLocally(key);
+        if (invalidationChannel != null) {
+            invalidationChannel.publishKey(key.hashCode(), invalidationListener);
+        }
+        return removed;
+    }
+
+    private boolean removeLocally(K key) {
+        boolean removed = segmentFor(key).remove(key);
+        removed |= restored != null && restored.remove(key);
+        removed |= offHeap != null && offHeap.remove(key);
+        if (nearCache != null) {
+            // After the removal, so a racing lookup cannot bring the entry back
+            nearCache.invalidateAll();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every key with the given hash code, for an invalidation from another process.
+     * Records only carry hash codes, so this scans the keys of one segment and, if present,
+     * all keys of the off-heap tier and the restored snapshot.
+     */
+    private void removeHash(int hash) {
+        Segment<K, V> segment = segmentForHash(hash);
+        for (K key : segment.map.keySet()) {
+            if (key.hashCode() == hash) {
+                segment.remove(key);
+            }
+        }
+        if (offHeap != null) {
+            offHeap.removeIf(key -> key.hashCode() == hash);
+        }
+        if (restored != null) {
+            restored.removeIf(key -> key.hashCode() == hash);
+        }
+        if (nearCache != null) {
+            nearCache.invalidateAll();
+        }
     }
-    
+
     /**
-     * Clears all entries from the cache.
+     * Clears all entries from the cache, and from the caches of other processes if the cache
+     * has an invalidation channel.
      */
     public void clear() {
-        cache.clear();
+        clearLocally();
+        if (invalidationChannel != null) {
+            invalidationChannel.publishAll(invalidationListener);
+        }
+    }
+
+    private void clearLocally() {
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+        if (offHeap != null) {
+            offHeap.clear();
+        }
+        if (restored != null) {
+            restored.clear();
+        }
+        if (nearCache != null) {
+            nearCache.invalidateAll();
+        }
     }
-    
+
     /**
-     * Checks if a key exists in the cache.
-     * 
+     * Checks if a key exists in the cache, on the heap, in the off-heap tier or in the
+     * restored snapshot.
+     *
      * @param key The key to check
      * @return true if the key exists in the cache, false otherwise
      */
     public boolean containsKey(K key) {
-        return cache.containsKey(key);
+        Objects.requireNonNull(key, "key");
+        return segmentFor(key).containsKey(key) || (offHeap != null && offHeap.contains(key, now()))
+                || (restored != null && restored.contains(key));
     }
-    
+
     /**
-     * Gets the number of entries in the cache.
-     * 
+     * Gets the number of entries on the heap, not counting the off-heap tier. This may include
+     * expired entries and entries whose values were garbage collected that have not been
+     * removed yet.
+     *
      * @return The number of entries
      */
     public int size() {
-        return cache.size();
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.map.size();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes a snapshot of the cache's initialized entries to the file configured with
+     * {@link Builder#snapshot(Path, Codec, Codec)}, replacing the previous snapshot
+     * atomically. Entries of the restored snapshot that were never requested are carried
+     * over; entries in the off-heap tier and entries with null values are left out.
+     *
+     * @throws IOException if the snapshot cannot be written
+     * @throws IllegalStateException if the cache has no snapshot file
+     */
+    public void saveSnapshot() throws IOException {
+        if (snapshotFile == null) {
+            throw new IllegalStateException("The cache has no snapshot file");
+        }
+        long nowMillis = System.currentTimeMillis();
+        long now = now();
+        Snapshot.write(snapshotFile, writer -> {
+            for (Segment<K, V> segment : segments) {
+                for (Node<K, V> node : segment.map.values()) {
+                    Lazy<V> lazy = node.lazy();
+                    if (lazy == null || !lazy.isInitialized() || lazy.get() == null
+                            || (expires() && isExpired(node, now))) {
+                        continue;
+                    }
+                    long writtenAt = nowMillis - TimeUnit.NANOSECONDS.toMillis(now - node.writeTime);
+                    writer.write(snapshotKeyCodec.encode(node.key),
+                            ByteBuffer.wrap(snapshotValueCodec.encode(lazy.get())), writtenAt);
+                }
+            }
+            if (restored != null) {
+                restored.forEachRemaining((key, value, writtenAt) -> {
+                    if (!segmentFor(key).map.containsKey(key)) {
+                        writer.write(snapshotKeyCodec.encode(key), value, writtenAt);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Gets the total weight of the entries in the cache. Without a {@link Weigher} every
+     * entry weighs 1, so this is the number of entries.
+     *
+     * @return The total weight of the entries
+     */
+    public long weightedSize() {
+        long weightedSize = 0;
+        for (Segment<K, V> segment : segments) {
+            weightedSize += segment.weightedSize();
+        }
+        return weightedSize;
+    }
+
+    /**
+     * Takes a snapshot of the statistics this cache has recorded. If the cache was not built
+     * to record statistics, every count is zero.
+     *
+     * @return A new snapshot
+     */
+    public StatsSnapshot stats() {
+        return stats == null ? StatsSnapshot.empty() : stats.snapshot();
+    }
+
+    /**
+     * Performs pending maintenance, such as reclaiming expired entries, right away. The cache
+     * does this as part of normal operations, so calling this method is only needed to
+     * reclaim memory from a cache that is rarely written to.
+     */
+    public void cleanUp() {
+        for (Segment<K, V> segment : segments) {
+            segment.cleanUp();
+        }
+        if (offHeap != null) {
+            offHeap.compact(now());
+        }
+    }
+
+    long now() {
+        return ticker.read() - startNanos;
+    }
+
+    boolean expires() {
+        return expireAfterWriteNanos > 0 || expireAfterAccessNanos > 0;
+    }
+
+    boolean expiresAfterAccess() {
+        return expireAfterAccessNanos > 0;
+    }
+
+    void recordAccess(Node<K, V> node, long now) {
+        if (expireAfterAccessNanos > 0 && now - node.accessTime >= ACCESS_GRANULARITY_NANOS) {
+            node.accessTime = now;
+        }
+    }
+
+    StatsCounter statsCounter() {
+        return stats;
+    }
+
+    boolean weighs() {
+        return weigher != null;
+    }
+
+    boolean cachesFailures() {
+        return failureTtlMillis > 0;
+    }
+
+    /**
+     * Checks whether an entry whose asynchronous load failed has been cached for long enough
+     * that the next request should load it again. Entries created by getOrCreate don't need
+     * this, since their Lazy handles retrying after the failure TTL itself.
+     */
+    boolean isFailedLoadExpired(Node<K, V> node) {
+        CompletableFuture<V> future = node.future;
+        return cachesFailures() && future != null && future.isCompletedExceptionally()
+                && now() - node.writeTime >= TimeUnit.MILLISECONDS.toNanos(failureTtlMillis);
+    }
+
+    boolean isExpired(Node<K, V> node, long now) {
+        return expirationTime(node) - now <= 0;
+    }
+
+    long expirationTime(Node<K, V> node) {
+        long expirationTime = Long.MAX_VALUE;
+        if (expireAfterWriteNanos > 0) {
+            expirationTime = node.writeTime + expireAfterWriteNanos;
+        }
+        if (expireAfterAccessNanos > 0) {
+            expirationTime = Math.min(expirationTime, node.accessTime + expireAfterAccessNanos);
+        }
+        return expirationTime;
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        return segmentForHash(key.hashCode());
+    }
+
+    private Segment<K, V> segmentForHash(int hashCode) {
+        // Use different hash bits than ConcurrentHashMap so segments don't skew its buckets
+        int hash = hashCode * 0x9e3779b9;
+        return segments[(hash >>> 16) & segmentMask];
+    }
+
+    /**
+     * Builder for {@link LazyCache} instances.
+     *
+     * @param <K> The type of keys of the caches being built
+     * @param <V> The type of values of the caches being built
+     */
+    public static final class Builder<K, V> {
+        private long maximumSize = UNBOUNDED;
+        private long maximumWeight = UNBOUNDED;
+        private Weigher<?, ?> weigher;
+        private Codec<?> offHeapCodec;
+        private long offHeapCapacityBytes;
+        private Path offHeapFile;
+        private Path snapshotFile;
+        private Codec<?> snapshotKeyCodec;
+        private Codec<?> snapshotValueCodec;
+        private ScheduledExecutorService snapshotExecutor;
+        private long snapshotPeriodMillis;
+        // 0 picks a default suited to the kind of bound
+        private int concurrencyLevel;
+        private long expireAfterWriteNanos;
+        private long expireAfterAccessNanos;
+        private long failureTtlMillis;
+        private StatsCounter stats;
+        private ValueStrength valueStrength = ValueStrength.STRONG;
+        private ScheduledExecutorService maintenanceExecutor;
+        private long maintenancePeriodMillis;
+        private Ticker ticker = Ticker.system();
+        private int nearCacheSize;
+        private InvalidationChannel invalidationChannel;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the maximum number of entries the cache may hold.
+         *
+         * @param maximumSize The maximum number of entries
+         * @return This builder
+         * @throws IllegalArgumentException if maximumSize is negative
+         */
+        public Builder<K, V> maximumSize(long maximumSize) {
+            if (maximumSize < 0) {
+                throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum total weight of the entries the cache may hold. The weight of each
+         * entry is calculated by the weigher set with {@link #weigher(Weigher)}, which is
+         * required along with this setting. A cache cannot have both a maximum size and a
+         * maximum weight.
+         * <p>
+         * The maximum weight is split evenly among the cache's segments, so a weighted cache
+         * uses a single segment unless {@link #concurrencyLevel(int)} is set explicitly. With
+         * several segments, an entry heavier than one segment's share is evicted right away.
+         *
+         * @param maximumWeight The maximum total weight of the entries
+         * @return This builder
+         * @throws IllegalArgumentException if maximumWeight is negative
+         */
+        public Builder<K, V> maximumWeight(long maximumWeight) {
+            if (maximumWeight < 0) {
+                throw new IllegalArgumentException("maximumWeight must not be negative: " + maximumWeight);
+            }
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * Sets the weigher used to calculate the weight of entries for
+         * {@link #maximumWeight(long)}.
+         *
+         * @param weigher The weigher
+         * @param <K1> The type of keys of the caches being built
+         * @param <V1> The type of values of the caches being built
+         * @return This builder
+         */
+        @SuppressWarnings("unchecked")
+        public <K1 extends K, V1 extends V> Builder<K1, V1> weigher(Weigher<? super K1, ? super V1> weigher) {
+            this.weigher = Objects.requireNonNull(weigher, "weigher");
+            return (Builder<K1, V1>) this;
+        }
+
+        /**
+         * Sets the expected number of threads updating the cache at the same time. The cache
+         * is split into at most this many independently locked segments; a bounded cache
+         * uses fewer segments when it is too small to split that finely. By default this is
+         * four times the number of processors, or 1 for a cache bounded by weight.
+         *
+         * @param concurrencyLevel The expected number of concurrently updating threads
+         * @return This builder
+         * @throws IllegalArgumentException if concurrencyLevel is not positive
+         */
+        public Builder<K, V> concurrencyLevel(int concurrencyLevel) {
+            if (concurrencyLevel <= 0) {
+                throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+            }
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * Makes entries expire once the given time has passed since they were created.
+         *
+         * @param expirationTimeInMillis The time in milliseconds after which entries expire
+         * @return This builder
+         * @throws IllegalArgumentException if expirationTimeInMillis is not positive
+         */
+        public Builder<K, V> expireAfterWrite(long expirationTimeInMillis) {
+            this.expireAfterWriteNanos = toNanos(expirationTimeInMillis);
+            return this;
+        }
+
+        /**
+         * Makes entries expire once they have not been accessed for the given time.
+         *
+         * @param expirationTimeInMillis The time in milliseconds after which entries expire
+         * @return This builder
+         * @throws IllegalArgumentException if expirationTimeInMillis is not positive
+         */
+        public Builder<K, V> expireAfterAccess(long expirationTimeInMillis) {
+            this.expireAfterAccessNanos = toNanos(expirationTimeInMillis);
+            return this;
+        }
+
+        /**
+         * Runs cache maintenance, such as reclaiming expired entries, periodically on the
+         * given executor instead of only during normal cache operations.
+         *
+         * @param executor The executor to run maintenance on
+         * @param periodMillis The delay in milliseconds between maintenance runs
+         * @return This builder
+         * @throws IllegalArgumentException if periodMillis is not positive
+         */
+        public Builder<K, V> maintenanceExecutor(ScheduledExecutorService executor, long periodMillis) {
+            if (periodMillis <= 0) {
+                throw new IllegalArgumentException("periodMillis must be positive: " + periodMillis);
+            }
+            this.maintenanceExecutor = Objects.requireNonNull(executor, "executor");
+            this.maintenancePeriodMillis = periodMillis;
+            return this;
+        }
+
+        /**
+         * Keeps failed initializations cached for the given time instead of removing them.
+         * During that time requests for the key get the failure rethrown without calling the
+         * initializer again; afterwards a single request tries again.
+         *
+         * @param failureTtlMillis How long in milliseconds a failure stays cached
+         * @return This builder
+         * @throws IllegalArgumentException if failureTtlMillis is not positive
+         */
+        public Builder<K, V> cacheFailuresFor(long failureTtlMillis) {
+            if (failureTtlMillis <= 0) {
+                throw new IllegalArgumentException("failureTtlMillis must be positive: " + failureTtlMillis);
+            }
+            this.failureTtlMillis = failureTtlMillis;
+            return this;
+        }
+
+        /**
+         * Holds values through soft references, so the garbage collector reclaims them when
+         * memory runs low, least recently used first. This sizes the cache by the available
+         * heap rather than by a number of entries.
+         *
+         * @return This builder
+         */
+        public Builder<K, V> softValues() {
+            this.valueStrength = ValueStrength.SOFT;
+            return this;
+        }
+
+        /**
+         * Holds values through weak references, so the garbage collector reclaims them as soon
+         * as nothing outside the cache uses them.
+         *
+         * @return This builder
+         */
+        public Builder<K, V> weakValues() {
+            this.valueStrength = ValueStrength.WEAK;
+            return this;
+        }
+
+        /**
+         * Adds an off-heap tier of the given capacity backed by direct buffers. Values evicted
+         * from the heap for size are encoded with the codec and kept there until the tier runs
+         * out of space. The cache must have a maximum size or weight.
+         *
+         * @param codec The codec for values
+         * @param capacityBytes The number of bytes to store values in, at least 8 KiB
+         * @param <V1> The type of values of the caches being built
+         * @return This builder
+         * @throws IllegalArgumentException if capacityBytes is less than 8 KiB
+         */
+        public <V1 extends V> Builder<K, V1> offHeap(Codec<V1> codec, long capacityBytes) {
+            return offHeap(codec, capacityBytes, null);
+        }
+
+        /**
+         * Adds an off-heap tier of the given capacity backed by a memory-mapped file on local
+         * disk. The file is scratch space: it is created if missing, and whatever it contains
+         * is overwritten. The cache must have a maximum size or weight.
+         *
+         * @param codec The codec for values
+         * @param capacityBytes The number of bytes to store values in, at least 8 KiB
+         * @param file The file to map, or null to use direct buffers
+         * @param <V1> The type of values of the caches being built
+         * @return This builder
+         * @throws IllegalArgumentException if capacityBytes is less than 8 KiB
+         */
+        @SuppressWarnings("unchecked")
+        public <V1 extends V> Builder<K, V1> offHeap(Codec<V1> codec, long capacityBytes, Path file) {
+            // The tier needs at least two regions of its minimum size
+            if (capacityBytes < OffHeapTier.MINIMUM_CAPACITY) {
+                throw new IllegalArgumentException("capacityBytes must be at least " + OffHeapTier.MINIMUM_CAPACITY
+                        + ": " + capacityBytes);
+            }
+            this.offHeapCodec = Objects.requireNonNull(codec, "codec");
+            this.offHeapCapacityBytes = capacityBytes;
+            this.offHeapFile = file;
+            return (Builder<K, V1>) this;
+        }
+
+        /**
+         * Sets the file the cache saves snapshots of its entries to. If the file holds a valid
+         * snapshot when the cache is built, its entries are restored: each value is decoded
+         * from the memory-mapped file the first time its key is requested. Entries older than
+         * the expire-after-write time are not restored.
+         *
+         * @param file The snapshot file
+         * @param keyCodec The codec for keys
+         * @param valueCodec The codec for values
+         * @param <K1> The type of keys of the caches being built
+         * @param <V1> The type of values of the caches being built
+         * @return This builder
+         */
+        @SuppressWarnings("unchecked")
+        public <K1 extends K, V1 extends V> Builder<K1, V1> snapshot(Path file, Codec<K1> keyCodec, Codec<V1> valueCodec) {
+            this.snapshotFile = Objects.requireNonNull(file, "file");
+            this.snapshotKeyCodec = Objects.requireNonNull(keyCodec, "keyCodec");
+            this.snapshotValueCodec = Objects.requireNonNull(valueCodec, "valueCodec");
+            return (Builder<K1, V1>) this;
+        }
+
+        /**
+         * Saves a snapshot periodically on the given executor, in addition to calls to
+         * {@link LazyCache#saveSnapshot()}. Requires a snapshot file.
+         *
+         * @param executor The executor to save snapshots on
+         * @param periodMillis The delay in milliseconds between snapshots
+         * @return This builder
+         * @throws IllegalArgumentException if periodMillis is not positive
+         */
+        public Builder<K, V> snapshotEvery(ScheduledExecutorService executor, long periodMillis) {
+            if (periodMillis <= 0) {
+                throw new IllegalArgumentException("periodMillis must be positive: " + periodMillis);
+            }
+            this.snapshotExecutor = Objects.requireNonNull(executor, "executor");
+            this.snapshotPeriodMillis = periodMillis;
+            return this;
+        }
+
+        /**
+         * Makes the cache record hits, misses, evictions and load times in a new
+         * {@link StatsCounter}, readable through {@link LazyCache#stats()}.
+         *
+         * @return This builder
+         */
+        public Builder<K, V> recordStats() {
+            return recordStats(new StatsCounter());
+        }
+
+        /**
+         * Makes the cache record hits, misses, evictions and load times in the given counter,
+         * which may be shared with other caches.
+         *
+         * @param stats The counter to record statistics in
+         * @return This builder
+         */
+        public Builder<K, V> recordStats(StatsCounter stats) {
+            this.stats = Objects.requireNonNull(stats, "stats");
+            return this;
+        }
+
+        /**
+         * Sets the ticker that expiration and cached failures are measured with. By default
+         * this is {@link Ticker#system()}.
+         *
+         * @param ticker The ticker to read the time from
+         * @return This builder
+         */
+        public Builder<K, V> ticker(Ticker ticker) {
+            this.ticker = Objects.requireNonNull(ticker, "ticker");
+            return this;
+        }
+
+        /**
+         * Puts a near cache of the given size in front of the cache on every thread that calls
+         * {@link LazyCache#getOrCreate(Object, Supplier)}. Each thread's near cache is a 2-way
+         * set-associative table, so a key can be displaced by another key hashing to the same
+         * set before the table is full.
+         *
+         * @param entriesPerThread The number of entries per thread, rounded up to a power of two
+         * @return This builder
+         * @throws IllegalArgumentException if entriesPerThread is not positive
+         */
+        public Builder<K, V> nearCache(int entriesPerThread) {
+            if (entriesPerThread <= 0) {
+                throw new IllegalArgumentException("entriesPerThread must be positive: " + entriesPerThread);
+            }
+            this.nearCacheSize = entriesPerThread;
+            return this;
+        }
+
+        /**
+         * Connects the cache to an invalidation channel. Removing a key or clearing the cache
+         * is then published to the other processes using the channel's file, and
+         * invalidations they publish are applied to this cache whenever the channel is polled.
+         * <p>
+         * Invalidations only carry hash codes, so applying one from another process scans the
+         * keys of one segment, plus every key in the off-heap tier and the restored snapshot
+         * if those are configured. That is cheap for a steady trickle of invalidations, but a
+         * burst of them against a large off-heap tier or snapshot costs a scan each.
+         *
+         * @param channel The channel to publish and receive invalidations on
+         * @return This builder
+         */
+        public Builder<K, V> invalidationChannel(InvalidationChannel channel) {
+            this.invalidationChannel = Objects.requireNonNull(channel, "channel");
+            return this;
+        }
+
+        private static long toNanos(long expirationTimeInMillis) {
+            if (expirationTimeInMillis <= 0) {
+                throw new IllegalArgumentException("expirationTimeInMillis must be positive: " + expirationTimeInMillis);
+            }
+            return TimeUnit.MILLISECONDS.toNanos(expirationTimeInMillis);
+        }
+
+        /**
+         * Builds a new cache with the configured settings.
+         *
+         * @param <K1> The type of keys used to index the cache
+         * @param <V1> The type of values stored in the cache
+         * @return A new, empty cache
+         * @throws IllegalStateException if only one of a maximum weight and a weigher is set,
+         *                               both a maximum size and a maximum weight are set, or
+         *                               an off-heap tier is set without either, or periodic
+         *                               snapshots are set without a snapshot file
+         * @throws java.io.UncheckedIOException if the off-heap file cannot be mapped or the
+         *                                      snapshot file exists but cannot be read
+         */
+        public <K1 extends K, V1 extends V> LazyCache<K1, V1> build() {
+            return new LazyCache<>(this);
+        }
+    }
+
+    private enum ValueStrength {
+        STRONG, SOFT, WEAK
+    }
+
+    /**
+     * A reference to an entry's Lazy that knows its entry, so the entry can be removed once
+     * the reference is cleared and enqueued.
+     */
+    private interface ValueReference<K, V> {
+        Node<K, V> node();
+    }
+
+    private static final class SoftValueReference<K, V> extends SoftReference<Lazy<V>> implements ValueReference<K, V> {
+        private final Node<K, V> node;
+
+        SoftValueReference(Lazy<V> lazy, Node<K, V> node, ReferenceQueue<Lazy<V>> queue) {
+            super(lazy, queue);
+            this.node = node;
+        }
+
+        @Override
+        public Node<K, V> node() {
+            return node;
+        }
+    }
+
+    private static final class WeakValueReference<K, V> extends WeakReference<Lazy<V>> implements ValueReference<K, V> {
+        private final Node<K, V> node;
+
+        WeakValueReference(Lazy<V> lazy, Node<K, V> node, ReferenceQueue<Lazy<V>> queue) {
+            super(lazy, queue);
+            this.node = node;
+        }
+
+        @Override
+        public Node<K, V> node() {
+            return node;
+        }
+    }
+
+    /**
+     * A cache entry. The list links, queue, timer links and expiration time are guarded by
+     * the owning segment's lock.
+     */
+    static final class Node<K, V> {
+        static final int WINDOW = 0;
+        static final int MAIN = 1;
+        static final int DEAD = 2;
+
+        final K key;
+        // Cleared once a loaded value is only held through valueReference
+        private volatile Lazy<V> lazy;
+        private volatile Reference<Lazy<V>> valueReference;
+        // Only set for entries loaded through getOrCreateAsync, until their value is released
+        volatile CompletableFuture<V> future;
+        // Only set for entries created by getOrCreate, until their value is loaded
+        volatile CompletableFuture<V> loading;
+        // The entry's weight; guarded by the segment's lock
+        int weight = 1;
+        volatile long writeTime;
+        volatile long accessTime;
+        Node<K, V> prev;
+        Node<K, V> next;
+        int queue;
+        long expirationTime;
+        Node<K, V> timerPrev;
+        Node<K, V> timerNext;
+
+        Node(K key, Lazy<V> lazy, CompletableFuture<V> future) {
+            this.key = key;
+            this.lazy = lazy;
+            this.future = future;
+        }
+
+        /**
+         * Gets the entry's Lazy.
+         *
+         * @return The Lazy, or null if the garbage collector reclaimed it
+         */
+        Lazy<V> lazy() {
+            Lazy<V> strong = lazy;
+            if (strong != null) {
+                return strong;
+            }
+            Reference<Lazy<V>> reference = valueReference;
+            return reference == null ? null : reference.get();
+        }
+
+        boolean isCollected() {
+            if (lazy != null) {
+                return false;
+            }
+            Reference<Lazy<V>> reference = valueReference;
+            return reference != null && reference.get() == null;
+        }
+
+        /**
+         * Stops holding the loaded value strongly, keeping only a soft or weak reference.
+         */
+        void releaseValue(boolean soft, ReferenceQueue<Lazy<V>> queue) {
+            Lazy<V> strong = lazy;
+            if (strong == null) {
+                return;
+            }
+            // Publish the reference before dropping the strong one so readers always find one
+            valueReference = soft
+                    ? new SoftValueReference<>(strong, this, queue)
+                    : new WeakValueReference<>(strong, this, queue);
+            future = null;
+            lazy = null;
+        }
+
+        static <K, V> Node<K, V> sentinel() {
+            Node<K, V> head = new Node<>(null, null, null);
+            head.prev = head;
+            head.next = head;
+            return head;
+        }
+    }
+
+    /**
+     * A value taken from the off-heap tier or a restored snapshot, with the time it was first
+     * written to the cache in {@link #now()} time.
+     *
+     * @param <V> The type of the value
+     */
+    static final class Stored<V> {
+        final V value;
+        final long writeTime;
+
+        Stored(V value, long writeTime) {
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * An independently locked slice of the cache. Lookups go straight to the concurrent map;
+     * the eviction policy and timer wheel are only touched under the lock. Reads that the
+     * policy needs to know about are recorded in a small lossy ring buffer and replayed in
+     * batches, so a cache hit never waits for the lock. Expired entries are reclaimed
+     * whenever the segment does maintenance: on writes, when the read buffer is drained, and
+     * on {@link LazyCache#cleanUp()}.
+     */
+    static final class Segment<K, V> {
+        private static final int READ_BUFFER_SIZE = 16;
+        private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+        private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+        final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+        private final LazyCache<K, V> cache;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long maximum;
+        private final long windowMaximum;
+        private final FrequencySketch<K> sketch;
+        private final Node<K, V> window = Node.sentinel();
+        private final Node<K, V> main = Node.sentinel();
+        private long windowWeight;
+        private long mainWeight;
+        private final TimerWheel<K, V> timerWheel;
+        final ReferenceQueue<Lazy<V>> referenceQueue;
+
+        private final AtomicReferenceArray<Node<K, V>> readBuffer;
+        private final AtomicLong readBufferWrites;
+        private volatile long readBufferReads;
+
+        Segment(LazyCache<K, V> cache, long maximum) {
+            this.cache = cache;
+            this.maximum = maximum;
+            if (maximum == UNBOUNDED) {
+                this.windowMaximum = UNBOUNDED;
+                this.sketch = null;
+            } else {
+                this.windowMaximum = Math.max(1, maximum / 100);
+                // A weighted sketch grows with the number of entries instead
+                this.sketch = new FrequencySketch<>(cache.weighs() ? 0 : maximum);
+            }
+            this.timerWheel = cache.expires() ? new TimerWheel<>(this::expireOrUpdate, cache.now()) : null;
+            this.referenceQueue = cache.valueStrength == ValueStrength.STRONG ? null : new ReferenceQueue<>();
+            if (evicts() || cache.expiresAfterAccess()) {
+                this.readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+                this.readBufferWrites = new AtomicLong();
+            } else {
+                this.readBuffer = null;
+                this.readBufferWrites = null;
+            }
+        }
+
+        boolean evicts() {
+            return maximum != UNBOUNDED;
+        }
+
+        Node<K, V> get(K key) {
+            Node<K, V> node = map.get(key);
+            if (node == null) {
+                return null;
+            }
+            if (cache.expires()) {
+                long now = cache.now();
+                if (cache.isExpired(node, now)) {
+                    return null;
+                }
+                cache.recordAccess(node, now);
+            }
+            if (cache.isFailedLoadExpired(node) || node.isCollected()) {
+                return null;
+            }
+            if (readBuffer != null) {
+                recordRead(node);
+            }
+            return node;
+        }
+
+        boolean containsKey(K key) {
+            Node<K, V> node = map.get(key);
+            return node != null && !isStale(node, cache.expires() ? cache.now() : 0);
+        }
+
+        Node<K, V> insertIfAbsent(Node<K, V> candidate) {
+            K key = candidate.key;
+            lock.lock();
+            try {
+                long now = cache.expires() ? cache.now() : 0;
+                Node<K, V> node = map.get(key);
+                if (node != null && isStale(node, now)) {
+                    evictNode(node);
+                    node = null;
+                }
+                if (node == null) {
+                    node = candidate;
+                    node.writeTime = now;
+                    node.accessTime = now;
+                    map.put(key, node);
+                    if (evicts()) {
+                        if (cache.weighs()) {
+                            // Weighed once loaded
+                            node.weight = 0;
+                            sketch.ensureCapacity(map.size());
+                        }
+                        sketch.increment(key);
+                        node.queue = Node.WINDOW;
+                        linkLast(window, node);
+                        windowWeight += node.weight;
+                    }
+                    if (timerWheel != null) {
+                        node.expirationTime = cache.expirationTime(node);
+                        timerWheel.schedule(node);
+                    }
+                    if (evicts()) {
+                        evict();
+                    }
+                } else {
+                    cache.recordAccess(node, now);
+                    onAccess(node);
+                }
+                maintenance(now);
+                return node;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Moves an entry on the timer wheel after its write time changed.
+         */
+        void rescheduleExpiry(Node<K, V> node) {
+            if (timerWheel == null) {
+                return;
+            }
+            lock.lock();
+            try {
+                // Only entries still in the cache are scheduled
+                if (node.timerNext != null) {
+                    node.expirationTime = cache.expirationTime(node);
+                    timerWheel.reschedule(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void updateWeight(Node<K, V> node, int weight) {
+            lock.lock();
+            try {
+                if (node.queue == Node.DEAD) {
+                    return;
+                }
+                if (node.queue == Node.WINDOW) {
+                    windowWeight += weight - node.weight;
+                } else {
+                    mainWeight += weight - node.weight;
+                }
+                node.weight = weight;
+                evict();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long weightedSize() {
+            if (!evicts()) {
+                return map.size();
+            }
+            lock.lock();
+            try {
+                return windowWeight + mainWeight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isStale(Node<K, V> node, long now) {
+            return (cache.expires() && cache.isExpired(node, now)) || cache.isFailedLoadExpired(node)
+                    || node.isCollected();
+        }
+
+        boolean remove(K key) {
+            lock.lock();
+            try {
+                Node<K, V> node = map.remove(key);
+                if (node == null) {
+                    return false;
+                }
+                discard(node);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Reports a read that was served by a near cache to the eviction policy.
+         */
+        void touch(Node<K, V> node) {
+            if (readBuffer != null) {
+                recordRead(node);
+            }
+        }
+
+        void removeIfSame(K key, Node<K, V> node) {
+            lock.lock();
+            try {
+                if (map.remove(key, node)) {
+                    discard(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                for (Node<K, V> node : map.values()) {
+                    node.queue = Node.DEAD;
+                }
+                map.clear();
+                if (evicts()) {
+                    resetList(window);
+                    resetList(main);
+                    windowWeight = 0;
+                    mainWeight = 0;
+                }
+                if (timerWheel != null) {
+                    timerWheel.clear();
+                }
+                if (readBuffer != null) {
+                    for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                        readBuffer.lazySet(i, null);
+                    }
+                    readBufferReads = readBufferWrites.get();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void cleanUp() {
+            lock.lock();
+            try {
+                maintenance(cache.expires() ? cache.now() : 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void maintenance(long now) {
+            if (referenceQueue != null) {
+                drainReferenceQueue();
+            }
+            if (readBuffer != null) {
+                drainReadBuffer();
+            }
+            if (timerWheel != null) {
+                timerWheel.advance(now);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void drainReferenceQueue() {
+            Reference<? extends Lazy<V>> reference;
+            while ((reference = referenceQueue.poll()) != null) {
+                Node<K, V> node = ((ValueReference<K, V>) reference).node();
+                // The entry may already have been removed or replaced
+                if (map.get(node.key) == node) {
+                    evictNode(node);
+                }
+            }
+        }
+
+        private void recordRead(Node<K, V> node) {
+            long writes = readBufferWrites.get();
+            long pending = writes - readBufferReads;
+            if (pending < READ_BUFFER_SIZE && readBufferWrites.compareAndSet(writes, writes + 1)) {
+                readBuffer.lazySet((int) (writes & READ_BUFFER_MASK), node);
+                pending++;
+            }
+            if (pending >= READ_BUFFER_DRAIN_THRESHOLD && lock.tryLock()) {
+                try {
+                    maintenance(cache.expires() ? cache.now() : 0);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        private void drainReadBuffer() {
+            long reads = readBufferReads;
+            long writes = readBufferWrites.get();
+            for (; reads < writes; reads++) {
+                int index = (int) (reads & READ_BUFFER_MASK);
+                Node<K, V> node = readBuffer.get(index);
+                if (node == null) {
+                    // The writer claimed this slot but hasn't published into it yet
+                    break;
+                }
+                readBuffer.lazySet(index, null);
+                onAccess(node);
+            }
+            readBufferReads = reads;
+        }
+
+        private void onAccess(Node<K, V> node) {
+            if (node.queue == Node.DEAD) {
+                return;
+            }
+            if (evicts()) {
+                sketch.increment(node.key);
+                unlink(node);
+                linkLast(node.queue == Node.WINDOW ? window : main, node);
+            }
+            if (timerWheel != null && cache.expiresAfterAccess()) {
+                node.expirationTime = cache.expirationTime(node);
+                timerWheel.reschedule(node);
+            }
+        }
+
+        private boolean expireOrUpdate(Node<K, V> node) {
+            long expirationTime = cache.expirationTime(node);
+            if (expirationTime - cache.now() <= 0) {
+                evictNode(node);
+                return true;
+            }
+            node.expirationTime = expirationTime;
+            return false;
+        }
+
+        private void evict() {
+            while (windowWeight > windowMaximum) {
+                Node<K, V> candidate = window.next;
+                unlink(candidate);
+                windowWeight -= candidate.weight;
+                candidate.queue = Node.MAIN;
+                linkLast(main, candidate);
+                mainWeight += candidate.weight;
+                if (windowWeight + mainWeight > maximum) {
+                    Node<K, V> victim = main.next;
+                    if (victim != candidate && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                        evictForSize(victim);
+                    } else {
+                        evictForSize(candidate);
+                    }
+                }
+            }
+            // Heavy entries may take several evictions to make room for
+            while (windowWeight + mainWeight > maximum) {
+                evictForSize(mainWeight > 0 ? main.next : window.next);
+            }
+        }
+
+        private void evictForSize(Node<K, V> node) {
+            cache.demote(node);
+            evictNode(node);
+        }
+
+        private void evictNode(Node<K, V> node) {
+            map.remove(node.key, node);
+            discard(node);
+            StatsCounter stats = cache.statsCounter();
+            if (stats != null) {
+                stats.recordEviction();
+            }
+        }
+
+        private void discard(Node<K, V> node) {
+            if (node.queue == Node.DEAD) {
+                return;
+            }
+            if (evicts()) {
+                unlink(node);
+                if (node.queue == Node.WINDOW) {
+                    windowWeight -= node.weight;
+                } else {
+                    mainWeight -= node.weight;
+                }
+            }
+            if (timerWheel != null) {
+                timerWheel.deschedule(node);
+            }
+            node.queue = Node.DEAD;
+        }
+
+        private static <K, V> void linkLast(Node<K, V> head, Node<K, V> node) {
+            Node<K, V> last = head.prev;
+            node.prev = last;
+            node.next = head;
+            last.next = node;
+            head.prev = node;
+        }
+
+        private static <K, V> void unlink(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+
+        private static <K, V> void resetList(Node<K, V> head) {
+            head.prev = head;
+            head.next = head;
+        }
     }
 }
\ No newline at end of file
@@ -1,7 +1,16 @@
 package net.cvs0.jlazy;
 
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
 /**
  * Common interface for all lazy initialization implementations.
+ * <p>
+ * Lazy values can be combined into a dependency graph with {@link #map(Function)},
+ * {@link #flatMap(Function)}, {@link #zip(LazyInitializer, BiFunction)} and
+ * {@link #allOf(List)}; see {@link LazyNode} for how such graphs are initialized.
+ *
  * @param <T> The type of value to be lazily initialized
  */
 public interface LazyInitializer<T> {
@@ -28,4 +37,53 @@ public interface LazyInitializer<T> {
      * @return true if the value has been initialized, false otherwise
      */
     boolean isInitialized();
+
+    /**
+     * Creates a lazy value computed from this one by applying a function to it.
+     *
+     * @param mapper The function to apply to this value
+     * @param <R> The type of the new value
+     * @return A new graph node depending on this value
+     */
+    default <R> LazyNode<R> map(Function<? super T, ? extends R> mapper) {
+        return LazyNode.of(this).map(mapper);
+    }
+
+    /**
+     * Creates a lazy value computed by initializing the lazy value a function returns for
+     * this one.
+     *
+     * @param mapper The function returning the lazy value to initialize for this value
+     * @param <R> The type of the new value
+     * @return A new graph node depending on this value
+     */
+    default <R> LazyNode<R> flatMap(Function<? super T, ? extends LazyInitializer<R>> mapper) {
+        return LazyNode.of(this).flatMap(mapper);
+    }
+
+    /**
+     * Creates a lazy value combined from this one and another, which are initialized
+     * concurrently.
+     *
+     * @param other The other lazy value
+     * @param combiner The function combining both values
+     * @param <U> The type of the other value
+     * @param <R> The type of the new value
+     * @return A new graph node depending on both values
+     */
+    default <U, R> LazyNode<R> zip(LazyInitializer<U> other, BiFunction<? super T, ? super U, ? extends R> combiner) {
+        return LazyNode.of(this).zip(other, combiner);
+    }
+
+    /**
+     * Creates a lazy value holding the list of the given lazy values, which are initialized
+     * concurrently.
+     *
+     * @param initializers The lazy values to combine
+     * @param <T> The type of the combined values
+     * @return A new graph node depending on all given values
+     */
+    static <T> LazyNode<List<T>> allOf(List<? extends LazyInitializer<? extends T>> initializers) {
+        return LazyNode.allOf(initializers);
+    }
 }
\ No newline at end of file
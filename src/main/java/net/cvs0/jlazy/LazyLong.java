@@ -0,0 +1,69 @@
+package net.cvs0.jlazy;
+
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * Lazy initialization of a primitive {@code long} value.
+ * <p>
+ * Behaves like {@link Lazy}, but keeps the value in a primitive field so neither
+ * initialization nor reads box it. Instances are safe to share between threads; the
+ * initializer runs at most once per successful initialization, and once initialized,
+ * {@link #initialize()} is a single volatile read followed by a plain field read.
+ * If the initializer throws, the instance stays uninitialized and the next call to
+ * {@link #initialize()} runs it again.
+ */
+public class LazyLong {
+    private LongSupplier initializer;
+    private long value;
+    private volatile boolean initialized;
+
+    /**
+     * Creates a new LazyLong instance with the given initializer.
+     *
+     * @param initializer The supplier function that will initialize the value when needed
+     */
+    public LazyLong(LongSupplier initializer) {
+        this.initializer = Objects.requireNonNull(initializer, "initializer");
+    }
+
+    /**
+     * Gets the value if it's already initialized, otherwise returns 0.
+     * This method does not trigger initialization.
+     *
+     * @return The initialized value or 0 if not yet initialized
+     */
+    public long get() {
+        return initialized ? value : 0;
+    }
+
+    /**
+     * Initializes the value if not already initialized and returns it.
+     * Concurrent callers block until the first caller has finished running the initializer
+     * and then all observe the same value.
+     *
+     * @return The initialized value
+     */
+    public long initialize() {
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    value = initializer.getAsLong();
+                    // The volatile write publishes value to every thread that reads initialized
+                    initialized = true;
+                    initializer = null;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Checks if the value has been initialized.
+     *
+     * @return true if the value has been initialized, false otherwise
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,150 @@
+package net.cvs0.jlazy;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A read-only map over a fixed set of keys whose values are computed lazily.
+ * <p>
+ * Each value is computed from its key the first time it is initialized, exactly once, no
+ * matter how many threads request it at the same time. The keys are kept in an
+ * open-addressing table and each value lives in the slot of a flat array at the same
+ * position as its key, so an entry costs two references instead of a map entry and a
+ * {@link Lazy} instance. If computing a value throws, it stays uninitialized and the next
+ * request computes it again.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ */
+public final class LazyMap<K, V> {
+    private final Object[] keys;
+    private final int mask;
+    private final Set<K> keySet;
+    private final Function<? super K, ? extends V> initializer;
+    private final LazySlots slots;
+
+    /**
+     * Creates a new LazyMap.
+     *
+     * @param keys The keys of the map; duplicates are ignored
+     * @param initializer The function that computes the value for a key
+     * @throws NullPointerException if a key is null
+     */
+    public LazyMap(Collection<? extends K> keys, Function<? super K, ? extends V> initializer) {
+        this.initializer = Objects.requireNonNull(initializer, "initializer");
+        Set<K> distinct = new LinkedHashSet<>();
+        for (K key : keys) {
+            distinct.add(Objects.requireNonNull(key, "key"));
+        }
+        this.keySet = Collections.unmodifiableSet(distinct);
+        // At most half full keeps probe sequences short
+        int capacity = Integer.highestOneBit(Math.max(1, distinct.size()) * 2 - 1) << 1;
+        this.keys = new Object[capacity];
+        this.mask = capacity - 1;
+        for (K key : distinct) {
+            int index = spread(key.hashCode()) & mask;
+            while (this.keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            this.keys[index] = key;
+        }
+        this.slots = new LazySlots(capacity);
+    }
+
+    /**
+     * Gets the value for a key if it's already initialized, otherwise returns null.
+     * This method does not trigger initialization.
+     *
+     * @param key The key
+     * @return The initialized value or null if not yet initialized
+     * @throws IllegalArgumentException if the key is not a key of this map
+     */
+    public V get(Object key) {
+        return slots.get(indexOf(key));
+    }
+
+    /**
+     * Initializes the value for a key if not already initialized and returns it. Concurrent
+     * callers for the same key wait for the first one to compute it.
+     *
+     * @param key The key
+     * @return The initialized value
+     * @throws InterruptedException if the thread is interrupted while waiting for another thread to compute the value
+     * @throws IllegalArgumentException if the key is not a key of this map
+     * @throws IllegalStateException if computing the value requires the value itself
+     */
+    @SuppressWarnings("unchecked")
+    public V initialize(K key) throws InterruptedException {
+        return slots.initialize(indexOf(key), index -> initializer.apply((K) keys[index]));
+    }
+
+    /**
+     * Checks if the value for a key has been initialized.
+     *
+     * @param key The key
+     * @return true if the value has been initialized, false otherwise
+     * @throws IllegalArgumentException if the key is not a key of this map
+     */
+    public boolean isInitialized(Object key) {
+        return slots.isInitialized(indexOf(key));
+    }
+
+    /**
+     * Checks if a key is one of the keys of this map.
+     *
+     * @param key The key
+     * @return true if the map has the key, false otherwise
+     */
+    public boolean containsKey(Object key) {
+        return key != null && find(key) >= 0;
+    }
+
+    /**
+     * Gets the keys of this map, in the order they were given.
+     *
+     * @return An unmodifiable set of the keys
+     */
+    public Set<K> keySet() {
+        return keySet;
+    }
+
+    /**
+     * Gets the number of keys.
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        return keySet.size();
+    }
+
+    private int indexOf(Object key) {
+        Objects.requireNonNull(key, "key");
+        int index = find(key);
+        if (index < 0) {
+            throw new IllegalArgumentException("Not a key of this map: " + key);
+        }
+        return index;
+    }
+
+    private int find(Object key) {
+        int index = spread(key.hashCode()) & mask;
+        for (;;) {
+            Object candidate = keys[index];
+            if (candidate == null) {
+                return -1;
+            }
+            if (candidate.equals(key)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
\ No newline at end of file
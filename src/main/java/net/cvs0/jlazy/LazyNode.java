@@ -0,0 +1,403 @@
+package net.cvs0.jlazy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A lazy value in a dependency graph of lazy values.
+ * <p>
+ * Nodes are built from other {@link LazyInitializer}s with {@link #map(Function)},
+ * {@link #flatMap(Function)}, {@link #zip(LazyInitializer, BiFunction)} and
+ * {@link #allOf(List)}. Forcing a node forces its dependencies first, starting all of them at
+ * once, so independent branches of the graph initialize concurrently on the executor instead
+ * of one after another on the calling thread. No thread of the executor ever blocks waiting
+ * for a dependency; each node's function runs once all of its inputs are available.
+ * <p>
+ * A derived node computes its value exactly once, no matter how many nodes depend on it or
+ * how many threads force it at the same time. If its function or one of its dependencies
+ * fails, the node stays uninitialized and forcing it again tries again. A node that simply
+ * wraps another LazyInitializer leaves memoization to it, so wrapping an {@link ExpiringLazy}
+ * still lets its value expire. If a {@link #flatMap(Function)} creates a cycle, forcing fails
+ * with an IllegalStateException naming the nodes on the cycle, even when the nodes on it are
+ * forced from different threads at the same time.
+ *
+ * @param <T> The type of value to be lazily initialized
+ */
+public final class LazyNode<T> implements LazyInitializer<T> {
+    private static final Object UNINITIALIZED = new Object();
+    private static final LazyNode<?>[] NO_DEPENDENCIES = new LazyNode<?>[0];
+
+    private final LazyInitializer<T> source;
+    private final LazyNode<?>[] dependencies;
+    private final Function<Object[], ?> function;
+    private final boolean flat;
+    private final AtomicReference<CompletableFuture<T>> pending = new AtomicReference<>();
+    // The pending nodes this node's computation waits for, which may be forced on other threads
+    private final Set<LazyNode<?>> waitingFor = ConcurrentHashMap.newKeySet();
+    private volatile Object value = UNINITIALIZED;
+
+    private LazyNode(LazyInitializer<T> source) {
+        this.source = source;
+        this.dependencies = NO_DEPENDENCIES;
+        this.function = null;
+        this.flat = false;
+    }
+
+    private LazyNode(LazyNode<?>[] dependencies, Function<Object[], ?> function, boolean flat) {
+        this.source = null;
+        this.dependencies = dependencies;
+        this.function = function;
+        this.flat = flat;
+    }
+
+    /**
+     * Gets a graph node for the given lazy value.
+     *
+     * @param initializer The lazy value
+     * @param <T> The type of value to be lazily initialized
+     * @return The initializer itself if it already is a node, otherwise a node wrapping it
+     */
+    public static <T> LazyNode<T> of(LazyInitializer<T> initializer) {
+        Objects.requireNonNull(initializer, "initializer");
+        if (initializer instanceof LazyNode) {
+            return (LazyNode<T>) initializer;
+        }
+        return new LazyNode<>(initializer);
+    }
+
+    /**
+     * Creates a node whose value is the list of the values of the given lazy values, which
+     * are initialized concurrently.
+     *
+     * @param initializers The lazy values to combine
+     * @param <T> The type of the combined values
+     * @return A new node
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> LazyNode<List<T>> allOf(List<? extends LazyInitializer<? extends T>> initializers) {
+        LazyNode<?>[] dependencies = new LazyNode<?>[initializers.size()];
+        for (int i = 0; i < dependencies.length; i++) {
+            dependencies[i] = of(initializers.get(i));
+        }
+        return new LazyNode<>(dependencies, values -> {
+            List<T> list = new ArrayList<>(values.length);
+            for (Object element : values) {
+                list.add((T) element);
+            }
+            return Collections.unmodifiableList(list);
+        }, false);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> LazyNode<R> map(Function<? super T, ? extends R> mapper) {
+        Objects.requireNonNull(mapper, "mapper");
+        return new LazyNode<>(new LazyNode<?>[]{this}, values -> mapper.apply((T) values[0]), false);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> LazyNode<R> flatMap(Function<? super T, ? extends LazyInitializer<R>> mapper) {
+        Objects.requireNonNull(mapper, "mapper");
+        return new LazyNode<>(new LazyNode<?>[]{this}, values -> mapper.apply((T) values[0]), true);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <U, R> LazyNode<R> zip(LazyInitializer<U> other, BiFunction<? super T, ? super U, ? extends R> combiner) {
+        Objects.requireNonNull(combiner, "combiner");
+        return new LazyNode<>(new LazyNode<?>[]{this, of(other)},
+                values -> combiner.apply((T) values[0], (U) values[1]), false);
+    }
+
+    /**
+     * Gets the value if it's already initialized, otherwise returns null.
+     * This method does not trigger initialization.
+     *
+     * @return The initialized value or null if not yet initialized
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get() {
+        if (source != null) {
+            return source.get();
+        }
+        Object current = value;
+        return current == UNINITIALIZED ? null : (T) current;
+    }
+
+    /**
+     * Initializes the value and everything it depends on, running independent dependencies
+     * concurrently on the common ForkJoinPool, and waits for the result.
+     *
+     * @return The initialized value
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws IllegalStateException if the graph contains a cycle
+     */
+    @Override
+    public T initialize() throws InterruptedException {
+        CompletableFuture<T> future = initializeAsync(ForkJoinPool.commonPool());
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * Initializes the value and everything it depends on without blocking, running
+     * independent dependencies concurrently on the given executor.
+     *
+     * @param executor The executor to initialize dependencies and run node functions on
+     * @return A future that completes with the value
+     */
+    public CompletableFuture<T> initializeAsync(Executor executor) {
+        Objects.requireNonNull(executor, "executor");
+        CompletableFuture<T> future = force(executor, null);
+        // Hand out a copy while pending so one caller cancelling or completing it can't affect
+        // the other callers or the nodes that depend on this one
+        return future.isDone() ? future : future.copy();
+    }
+
+    /**
+     * Checks if the value has been initialized.
+     *
+     * @return true if the value has been initialized, false otherwise
+     */
+    @Override
+    public boolean isInitialized() {
+        return source != null ? source.isInitialized() : value != UNINITIALIZED;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<T> force(Executor executor, Path path) {
+        Object current = value;
+        if (current != UNINITIALIZED) {
+            return CompletableFuture.completedFuture((T) current);
+        }
+        if (Path.contains(path, this)) {
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("Dependency cycle detected: " + Path.describe(path, this)));
+        }
+        if (source != null) {
+            return forceSource(executor);
+        }
+
+        CompletableFuture<T> future = pending.get();
+        if (future != null) {
+            return await(future, path);
+        }
+        CompletableFuture<T> created = new CompletableFuture<>();
+        if (!pending.compareAndSet(null, created)) {
+            return force(executor, path);
+        }
+        Path next = new Path(this, path);
+        CompletableFuture<?>[] inputs = new CompletableFuture<?>[dependencies.length];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = dependencies[i].force(executor, next);
+        }
+        CompletableFuture.allOf(inputs).whenComplete((ignored, error) -> {
+            if (error != null) {
+                fail(created, error);
+                return;
+            }
+            try {
+                executor.execute(() -> compute(created, inputs, executor, next));
+            } catch (RejectedExecutionException e) {
+                fail(created, e);
+            }
+        });
+        return await(created, path);
+    }
+
+    /**
+     * Records that the node at the head of the path waits for this pending node, and fails
+     * instead if this node already waits for that one, directly or through other pending
+     * nodes. Both sides record their edge before searching, so when two threads close a
+     * cycle at the same time at least one of them finds it.
+     */
+    private CompletableFuture<T> await(CompletableFuture<T> future, Path path) {
+        if (path == null) {
+            return future;
+        }
+        LazyNode<?> waiter = path.node;
+        waiter.waitingFor.add(this);
+        List<LazyNode<?>> cycle = findWaitChain(this, waiter);
+        if (cycle == null) {
+            return future;
+        }
+        waiter.waitingFor.remove(this);
+        StringBuilder description = new StringBuilder(waiter.toString());
+        for (LazyNode<?> node : cycle) {
+            description.append(" -> ").append(node);
+        }
+        return CompletableFuture.failedFuture(
+                new IllegalStateException("Dependency cycle detected: " + description));
+    }
+
+    /**
+     * Finds a chain of pending nodes from one node to another along what they wait for.
+     *
+     * @return The nodes on the chain, from the first node to the target, or null if there is none
+     */
+    private static List<LazyNode<?>> findWaitChain(LazyNode<?> from, LazyNode<?> target) {
+        Map<LazyNode<?>, LazyNode<?>> reachedFrom = new IdentityHashMap<>();
+        Deque<LazyNode<?>> queue = new ArrayDeque<>();
+        reachedFrom.put(from, from);
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            LazyNode<?> node = queue.poll();
+            if (node == target) {
+                List<LazyNode<?>> chain = new ArrayList<>();
+                for (LazyNode<?> n = node; n != from; n = reachedFrom.get(n)) {
+                    chain.add(n);
+                }
+                chain.add(from);
+                Collections.reverse(chain);
+                return chain;
+            }
+            for (LazyNode<?> next : node.waitingFor) {
+                if (reachedFrom.putIfAbsent(next, node) == null) {
+                    queue.add(next);
+                }
+            }
+        }
+        return null;
+    }
+
+    private CompletableFuture<T> forceSource(Executor executor) {
+        if (source.isInitialized()) {
+            try {
+                return CompletableFuture.completedFuture(source.initialize());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return CompletableFuture.failedFuture(e);
+            } catch (RuntimeException | Error e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(source.initialize());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    future.completeExceptionally(e);
+                } catch (RuntimeException | Error e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void compute(CompletableFuture<T> created, CompletableFuture<?>[] inputs, Executor executor, Path path) {
+        Object result;
+        try {
+            Object[] values = new Object[inputs.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = inputs[i].join();
+            }
+            result = function.apply(values);
+        } catch (RuntimeException | Error e) {
+            fail(created, e);
+            return;
+        }
+        if (!flat) {
+            succeed(created, (T) result);
+            return;
+        }
+        LazyInitializer<T> inner = (LazyInitializer<T>) result;
+        if (inner == null) {
+            fail(created, new NullPointerException("flatMap function returned null"));
+            return;
+        }
+        // Forcing with this node still on the path detects graphs that lead back to it
+        of(inner).force(executor, path).whenComplete((innerValue, error) -> {
+            if (error != null) {
+                fail(created, error);
+            } else {
+                succeed(created, innerValue);
+            }
+        });
+    }
+
+    private void succeed(CompletableFuture<T> created, T result) {
+        waitingFor.clear();
+        value = result;
+        pending.compareAndSet(created, null);
+        created.complete(result);
+    }
+
+    private void fail(CompletableFuture<T> created, Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        waitingFor.clear();
+        pending.compareAndSet(created, null);
+        created.completeExceptionally(error);
+    }
+
+    /**
+     * The chain of nodes currently being forced, from the innermost node outwards.
+     */
+    private static final class Path {
+        final LazyNode<?> node;
+        final Path parent;
+
+        Path(LazyNode<?> node, Path parent) {
+            this.node = node;
+            this.parent = parent;
+        }
+
+        static boolean contains(Path path, LazyNode<?> node) {
+            for (Path p = path; p != null; p = p.parent) {
+                if (p.node == node) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        static String describe(Path path, LazyNode<?> repeated) {
+            List<String> names = new ArrayList<>();
+            names.add(repeated.toString());
+            for (Path p = path; p != null; p = p.parent) {
+                names.add(p.node.toString());
+                if (p.node == repeated) {
+                    break;
+                }
+            }
+            Collections.reverse(names);
+            return String.join(" -> ", names);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,410 @@
+package net.cvs0.jlazy;
+
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of lazily created instances of a resource that is expensive to create and
+ * not safe for concurrent use, such as a codec or a connection.
+ * <p>
+ * Instances are only created when a borrower finds no idle one, and never more than the
+ * maximum size exist at the same time; once that many are borrowed, further borrowers wait
+ * for one to be released. Borrowing and releasing take no pool-wide lock as long as an
+ * instance is available: the most recently released instance is handed out first, so a pool
+ * that is used at a steady rate keeps reusing the same few warm instances. The pool tracks
+ * which instances are borrowed, and rejects giving back an instance it did not lend out.
+ * <p>
+ * Optionally, instances that stay idle for longer than a timeout are discarded on a
+ * schedule, so that a pool shrinks back after a burst, and a disposer is called for every
+ * discarded instance. The pool exposes its current size and utilization as well as
+ * cumulative counts of created, expired and waiting borrows for monitoring.
+ *
+ * @param <T> The type of pooled instances
+ */
+public final class LazyPool<T> {
+    private final Supplier<T> factory;
+    private final int maximumSize;
+    private final long idleTimeoutNanos;
+    private final Consumer<? super T> disposer;
+    // One permit per instance that may still be borrowed
+    private final Semaphore permits;
+    // Most recently released first
+    private final ConcurrentLinkedDeque<Idle<T>> idle = new ConcurrentLinkedDeque<>();
+    // The borrowed instances, by identity
+    private final Set<Lent> lent = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger borrowed = new AtomicInteger();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+
+    private LazyPool(Builder<T> builder) {
+        this.factory = builder.factory;
+        this.maximumSize = builder.maximumSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(builder.idleTimeoutMillis);
+        this.disposer = builder.disposer;
+        this.permits = new Semaphore(maximumSize);
+        if (builder.expiryExecutor != null) {
+            scheduleExpiry(this, builder.expiryExecutor, Math.max(1, builder.idleTimeoutMillis / 2));
+        }
+    }
+
+    private static void scheduleExpiry(LazyPool<?> pool, ScheduledExecutorService executor, long periodMillis) {
+        // Only hold the pool weakly so the scheduled task doesn't keep an unused pool alive
+        WeakReference<LazyPool<?>> reference = new WeakReference<>(pool);
+        ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        task[0] = executor.scheduleWithFixedDelay(() -> {
+            LazyPool<?> target = reference.get();
+            if (target == null) {
+                task[0].cancel(false);
+            } else {
+                target.expireIdle();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a builder for a LazyPool of instances created by the given factory.
+     *
+     * @param factory The supplier function that creates new instances
+     * @param <T> The type of pooled instances
+     * @return A new builder
+     */
+    public static <T> Builder<T> builder(Supplier<T> factory) {
+        return new Builder<>(factory);
+    }
+
+    /**
+     * Borrows an instance, creating one if none is idle and the pool is not full, and
+     * otherwise waiting for one to be released. The instance must be given back with
+     * {@link #release(Object)} or {@link #invalidate(Object)}.
+     *
+     * @return An instance for the caller's exclusive use
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public T borrow() throws InterruptedException {
+        if (!permits.tryAcquire()) {
+            waitCount.increment();
+            permits.acquire();
+        }
+        return take();
+    }
+
+    /**
+     * Borrows an instance like {@link #borrow()}, waiting at most the given time for one to
+     * be released.
+     *
+     * @param timeoutMillis The maximum time in milliseconds to wait
+     * @return An instance for the caller's exclusive use, or null if none became available in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public T borrow(long timeoutMillis) throws InterruptedException {
+        if (!permits.tryAcquire()) {
+            waitCount.increment();
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        }
+        return take();
+    }
+
+    /**
+     * Gives a borrowed instance back to the pool.
+     *
+     * @param instance An instance borrowed from this pool
+     * @throws IllegalArgumentException if the instance is not currently borrowed from this pool
+     */
+    public void release(T instance) {
+        giveBack(instance);
+        idle.offerFirst(new Idle<>(instance, System.nanoTime()));
+        permits.release();
+    }
+
+    /**
+     * Discards a borrowed instance that is broken instead of giving it back, making room
+     * for a new one.
+     *
+     * @param instance An instance borrowed from this pool
+     * @throws IllegalArgumentException if the instance is not currently borrowed from this pool
+     */
+    public void invalidate(T instance) {
+        giveBack(instance);
+        size.decrementAndGet();
+        dispose(instance);
+        permits.release();
+    }
+
+    /**
+     * Runs an action with a borrowed instance and releases it afterwards, even if the action
+     * throws.
+     *
+     * @param action The action to run with the instance
+     * @param <R> The type of the action's result
+     * @return The result of the action
+     * @throws InterruptedException if the thread is interrupted while waiting for an instance
+     */
+    public <R> R withInstance(Function<? super T, ? extends R> action) throws InterruptedException {
+        Objects.requireNonNull(action, "action");
+        T instance = borrow();
+        try {
+            return action.apply(instance);
+        } finally {
+            release(instance);
+        }
+    }
+
+    /**
+     * Discards the instances that have been idle for longer than the idle timeout. This runs
+     * on the expiry executor if one was configured.
+     *
+     * @return The number of instances discarded
+     */
+    public int expireIdle() {
+        if (idleTimeoutNanos <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        int expired = 0;
+        for (;;) {
+            Idle<T> oldest = idle.peekLast();
+            if (oldest == null || now - oldest.releasedAt < idleTimeoutNanos) {
+                return expired;
+            }
+            // A borrower may have taken it meanwhile
+            if (idle.removeLastOccurrence(oldest)) {
+                size.decrementAndGet();
+                expiredCount.increment();
+                dispose(oldest.instance);
+                expired++;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of instances that currently exist, borrowed or idle.
+     *
+     * @return The number of instances
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Gets the number of instances currently borrowed.
+     *
+     * @return The number of borrowed instances
+     */
+    public int getBorrowedCount() {
+        return borrowed.get();
+    }
+
+    /**
+     * Gets the number of instances currently idle in the pool.
+     *
+     * @return The number of idle instances
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Gets the maximum number of instances the pool creates.
+     *
+     * @return The maximum size
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Gets the fraction of the maximum size that is currently borrowed.
+     *
+     * @return The utilization, between 0 and 1
+     */
+    public double getUtilization() {
+        return (double) borrowed.get() / maximumSize;
+    }
+
+    /**
+     * Gets the number of instances created since the pool was built.
+     *
+     * @return The number of created instances
+     */
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * Gets the number of instances discarded for being idle since the pool was built.
+     *
+     * @return The number of expired instances
+     */
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    /**
+     * Gets the number of borrows that found the pool exhausted and had to wait.
+     *
+     * @return The number of waiting borrows
+     */
+    public long getWaitCount() {
+        return waitCount.sum();
+    }
+
+    /**
+     * Hands out an idle instance or creates one. Must be called with a permit held.
+     */
+    private T take() {
+        Idle<T> available = idle.pollFirst();
+        if (available != null) {
+            lent.add(new Lent(available.instance));
+            borrowed.incrementAndGet();
+            return available.instance;
+        }
+        T created;
+        try {
+            created = Objects.requireNonNull(factory.get(), "factory returned null");
+        } catch (RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+        size.incrementAndGet();
+        createdCount.increment();
+        lent.add(new Lent(created));
+        borrowed.incrementAndGet();
+        return created;
+    }
+
+    /**
+     * Stops tracking an instance as borrowed, so that each borrow is given back only once.
+     */
+    private void giveBack(T instance) {
+        Objects.requireNonNull(instance, "instance");
+        if (!lent.remove(new Lent(instance))) {
+            throw new IllegalArgumentException("Instance is not borrowed from this pool: " + instance);
+        }
+        borrowed.decrementAndGet();
+    }
+
+    private void dispose(T instance) {
+        if (disposer != null) {
+            disposer.accept(instance);
+        }
+    }
+
+    /**
+     * A borrowed instance, compared by identity so that instances that are equal to each
+     * other are still told apart.
+     */
+    private static final class Lent {
+        final Object instance;
+
+        Lent(Object instance) {
+            this.instance = instance;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Lent && ((Lent) other).instance == instance;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(instance);
+        }
+    }
+
+    private static final class Idle<T> {
+        final T instance;
+        final long releasedAt;
+
+        Idle(T instance, long releasedAt) {
+            this.instance = instance;
+            this.releasedAt = releasedAt;
+        }
+    }
+
+    /**
+     * Builder for {@link LazyPool} instances.
+     *
+     * @param <T> The type of pooled instances
+     */
+    public static final class Builder<T> {
+        private final Supplier<T> factory;
+        private int maximumSize = Runtime.getRuntime().availableProcessors();
+        private long idleTimeoutMillis;
+        private ScheduledExecutorService expiryExecutor;
+        private Consumer<? super T> disposer;
+
+        private Builder(Supplier<T> factory) {
+            this.factory = Objects.requireNonNull(factory, "factory");
+        }
+
+        /**
+         * Sets the maximum number of instances. By default this is the number of processors.
+         *
+         * @param maximumSize The maximum number of instances
+         * @return This builder
+         * @throws IllegalArgumentException if maximumSize is not positive
+         */
+        public Builder<T> maximumSize(int maximumSize) {
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Discards instances that have been idle for the given time, checking on the given
+         * executor.
+         *
+         * @param idleTimeoutMillis The time in milliseconds after which idle instances are discarded
+         * @param executor The executor to check for idle instances on
+         * @return This builder
+         * @throws IllegalArgumentException if idleTimeoutMillis is not positive
+         */
+        public Builder<T> expireIdleAfter(long idleTimeoutMillis, ScheduledExecutorService executor) {
+            if (idleTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("idleTimeoutMillis must be positive: " + idleTimeoutMillis);
+            }
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            this.expiryExecutor = Objects.requireNonNull(executor, "executor");
+            return this;
+        }
+
+        /**
+         * Sets an action that is called for every instance the pool discards, for example to
+         * close it.
+         *
+         * @param disposer The action to call with discarded instances
+         * @return This builder
+         */
+        public Builder<T> onDispose(Consumer<? super T> disposer) {
+            this.disposer = Objects.requireNonNull(disposer, "disposer");
+            return this;
+        }
+
+        /**
+         * Builds a new, empty LazyPool with the configured settings.
+         *
+         * @return A new pool
+         */
+        public LazyPool<T> build() {
+            return new LazyPool<>(this);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,328 @@
+package net.cvs0.jlazy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up registered lazy values in the background, so that the first requests after startup
+ * don't pay for their initialization.
+ * <p>
+ * Each registered {@link LazyInitializer} has a name, a priority and optionally the names of
+ * other registered values it depends on. {@link #warmUp(Executor, int, long)} returns right
+ * away and initializes the values on an executor: a value is only started once everything it
+ * depends on is initialized, values with a higher priority are started first, at most a given
+ * number of them run at the same time, and no new ones are started once the time budget is
+ * used up. Values the warm-up has not reached yet still initialize on demand as soon as they
+ * are first used, without waiting for the warm-up; it then simply skips them.
+ * <p>
+ * The future returned by {@link #warmUp(Executor, int, long)} and {@link #readiness()}
+ * completes once the warm-up is over, and at the latest when the time budget is used up. It
+ * completes normally if every value was initialized, and otherwise with an
+ * IllegalStateException naming the values that failed, were still initializing when the
+ * time budget ran out, or were not reached within it. Values that are still initializing keep
+ * doing so in the background.
+ */
+public final class LazyRegistry {
+    private final Map<String, Registration> registrations = new LinkedHashMap<>();
+    private final CompletableFuture<Void> readiness = new CompletableFuture<>();
+    private WarmUp warmUp;
+
+    /**
+     * Registers a lazy value with the default priority of 0 and no dependencies.
+     *
+     * @param name The unique name of the value
+     * @param initializer The lazy value to warm up
+     * @return This registry
+     * @throws IllegalArgumentException if the name is already registered
+     * @throws IllegalStateException if the warm-up has already started
+     */
+    public LazyRegistry register(String name, LazyInitializer<?> initializer) {
+        return register(name, initializer, 0);
+    }
+
+    /**
+     * Registers a lazy value.
+     *
+     * @param name The unique name of the value
+     * @param initializer The lazy value to warm up
+     * @param priority The priority of the value; values with higher priorities are started first
+     * @param dependencies The names of the registered values that must be initialized before this one
+     * @return This registry
+     * @throws IllegalArgumentException if the name is already registered
+     * @throws IllegalStateException if the warm-up has already started
+     */
+    public synchronized LazyRegistry register(String name, LazyInitializer<?> initializer, int priority,
+                                              String... dependencies) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(initializer, "initializer");
+        if (warmUp != null) {
+            throw new IllegalStateException("Cannot register " + name + " after the warm-up has started");
+        }
+        if (registrations.containsKey(name)) {
+            throw new IllegalArgumentException("A value named " + name + " is already registered");
+        }
+        registrations.put(name, new Registration(name, initializer, priority, registrations.size(),
+                Arrays.asList(dependencies.clone())));
+        return this;
+    }
+
+    /**
+     * Starts warming up all registered values in the background.
+     *
+     * @param executor The executor to initialize values on
+     * @param maxConcurrency The maximum number of values initialized at the same time
+     * @param timeBudgetMillis The time in milliseconds after which no further values are started
+     *                         and the warm-up is considered over
+     * @return A future that completes once the warm-up is over
+     * @throws IllegalArgumentException if maxConcurrency or timeBudgetMillis is not positive
+     * @throws IllegalStateException if the warm-up has already started, a dependency is not
+     *                               registered, or the dependencies form a cycle
+     */
+    public CompletableFuture<Void> warmUp(Executor executor, int maxConcurrency, long timeBudgetMillis) {
+        Objects.requireNonNull(executor, "executor");
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+        }
+        if (timeBudgetMillis <= 0) {
+            throw new IllegalArgumentException("timeBudgetMillis must be positive: " + timeBudgetMillis);
+        }
+        synchronized (this) {
+            if (warmUp != null) {
+                throw new IllegalStateException("The warm-up has already started");
+            }
+            checkDependencies();
+            warmUp = new WarmUp(executor, maxConcurrency,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis));
+            warmUp.start();
+        }
+        // Not run on the warm-up's executor, whose threads may all be stuck in values that overran
+        CompletableFuture.delayedExecutor(timeBudgetMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            synchronized (this) {
+                warmUp.complete();
+            }
+        });
+        return readiness();
+    }
+
+    /**
+     * Gets a future that completes once the warm-up is over.
+     *
+     * @return A future for the end of the warm-up
+     */
+    public CompletableFuture<Void> readiness() {
+        // A copy keeps callers from completing or cancelling the shared future
+        return readiness.copy();
+    }
+
+    /**
+     * Gets the lazy value registered under a name.
+     *
+     * @param name The name of the value
+     * @return The lazy value, or null if no value is registered under the name
+     */
+    public synchronized LazyInitializer<?> get(String name) {
+        Registration registration = registrations.get(name);
+        return registration == null ? null : registration.initializer;
+    }
+
+    private void checkDependencies() {
+        Map<String, Integer> remaining = new LinkedHashMap<>();
+        for (Registration registration : registrations.values()) {
+            for (String dependency : registration.dependencies) {
+                if (!registrations.containsKey(dependency)) {
+                    throw new IllegalStateException(registration.name + " depends on " + dependency
+                            + ", which is not registered");
+                }
+            }
+            remaining.put(registration.name, registration.dependencies.size());
+        }
+        // Kahn's algorithm: whatever cannot be ordered is on or behind a cycle
+        Deque<String> ready = new ArrayDeque<>();
+        remaining.forEach((name, count) -> {
+            if (count == 0) {
+                ready.add(name);
+            }
+        });
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            remaining.remove(name);
+            for (Registration registration : registrations.values()) {
+                if (registration.dependencies.contains(name)
+                        && remaining.merge(registration.name, -1, Integer::sum) == 0) {
+                    ready.add(registration.name);
+                }
+            }
+        }
+        if (!remaining.isEmpty()) {
+            throw new IllegalStateException("Dependency cycle among " + remaining.keySet());
+        }
+    }
+
+    private static final class Registration {
+        final String name;
+        final LazyInitializer<?> initializer;
+        final int priority;
+        final int order;
+        final List<String> dependencies;
+
+        Registration(String name, LazyInitializer<?> initializer, int priority, int order, List<String> dependencies) {
+            this.name = name;
+            this.initializer = initializer;
+            this.priority = priority;
+            this.order = order;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * The state of a running warm-up, guarded by the registry's lock.
+     */
+    private final class WarmUp {
+        private final Executor executor;
+        private final int maxConcurrency;
+        private final long deadline;
+        private final PriorityQueue<Registration> queue = new PriorityQueue<>(
+                Comparator.comparingInt((Registration registration) -> -registration.priority)
+                        .thenComparingInt(registration -> registration.order));
+        private final Map<String, Integer> pendingDependencies = new LinkedHashMap<>();
+        private final Map<String, List<Registration>> dependents = new LinkedHashMap<>();
+        private final Set<String> finished = new HashSet<>();
+        private final List<String> failed = new ArrayList<>();
+        private final List<Throwable> failures = new ArrayList<>();
+        private final Set<String> running = new LinkedHashSet<>();
+
+        WarmUp(Executor executor, int maxConcurrency, long deadline) {
+            this.executor = executor;
+            this.maxConcurrency = maxConcurrency;
+            this.deadline = deadline;
+        }
+
+        void start() {
+            for (Registration registration : registrations.values()) {
+                pendingDependencies.put(registration.name, registration.dependencies.size());
+                for (String dependency : registration.dependencies) {
+                    dependents.computeIfAbsent(dependency, name -> new ArrayList<>()).add(registration);
+                }
+                if (registration.dependencies.isEmpty()) {
+                    queue.add(registration);
+                }
+            }
+            dispatch();
+        }
+
+        private void dispatch() {
+            while (running.size() < maxConcurrency && !queue.isEmpty() && System.nanoTime() - deadline < 0) {
+                Registration registration = queue.poll();
+                running.add(registration.name);
+                try {
+                    executor.execute(() -> run(registration));
+                } catch (RejectedExecutionException e) {
+                    running.remove(registration.name);
+                    onFinished(registration, e);
+                }
+            }
+            if (running.isEmpty()) {
+                complete();
+            }
+        }
+
+        private void run(Registration registration) {
+            Throwable failure = null;
+            try {
+                // Values first used by a request are already initialized and cost nothing here
+                if (!registration.initializer.isInitialized()) {
+                    registration.initializer.initialize();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = e;
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            synchronized (LazyRegistry.this) {
+                running.remove(registration.name);
+                onFinished(registration, failure);
+                dispatch();
+            }
+        }
+
+        private void onFinished(Registration registration, Throwable failure) {
+            if (!finished.add(registration.name)) {
+                // Already skipped because another of its dependencies failed
+                return;
+            }
+            if (failure != null) {
+                failed.add(registration.name);
+                failures.add(failure);
+            }
+            for (Registration dependent : dependents.getOrDefault(registration.name, Collections.emptyList())) {
+                if (failure != null) {
+                    // Dependents of a failed value are never started
+                    onFinished(dependent, new IllegalStateException(
+                            dependent.name + " was skipped because " + registration.name + " failed"));
+                } else if (pendingDependencies.merge(dependent.name, -1, Integer::sum) == 0
+                        && !finished.contains(dependent.name)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+
+        /**
+         * Completes the readiness once nothing is running, or when the time budget runs out
+         * with values still initializing.
+         */
+        void complete() {
+            if (readiness.isDone()) {
+                return;
+            }
+            List<String> overran = new ArrayList<>();
+            List<String> notReached = new ArrayList<>();
+            for (Registration registration : registrations.values()) {
+                // Values the warm-up didn't reach may still have been initialized on demand
+                if (finished.contains(registration.name) || registration.initializer.isInitialized()) {
+                    continue;
+                }
+                if (running.contains(registration.name)) {
+                    overran.add(registration.name);
+                } else {
+                    notReached.add(registration.name);
+                }
+            }
+            if (failed.isEmpty() && overran.isEmpty() && notReached.isEmpty()) {
+                readiness.complete(null);
+                return;
+            }
+            StringBuilder message = new StringBuilder("Warm-up incomplete");
+            if (!failed.isEmpty()) {
+                message.append("; failed: ").append(failed);
+            }
+            if (!overran.isEmpty()) {
+                message.append("; still initializing when the time budget ran out: ").append(overran);
+            }
+            if (!notReached.isEmpty()) {
+                message.append("; not reached within the time budget: ").append(notReached);
+            }
+            IllegalStateException exception = new IllegalStateException(message.toString());
+            for (Throwable failure : failures) {
+                exception.addSuppressed(failure);
+            }
+            readiness.completeExceptionally(exception);
+        }
+    }
+}
\ No newline at end of file
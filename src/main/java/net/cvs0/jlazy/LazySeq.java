@@ -0,0 +1,379 @@
+package net.cvs0.jlazy;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A lazily produced sequence of elements, pulled from its source in chunks as consumers
+ * reach them and memoized, so that any number of consumers can iterate it without pulling
+ * an element twice.
+ * <p>
+ * The chunks form a singly linked list that is only extended forwards. Each consumer holds
+ * on to the chunk it is currently reading, and pulling the next chunk from the source is
+ * serialized, so concurrent consumers share every pull. {@link #map(Function)},
+ * {@link #filter(Predicate)} and {@link #take(long)} create new lazy sequences that pull
+ * from this one as they are consumed. {@link #spliterator()} splits off a chunk at a time,
+ * so a parallel stream processes chunks concurrently while the source is read in order.
+ * <p>
+ * With {@link Retention#ALL} the sequence keeps every chunk it pulled, and consumers can
+ * start iterating at any time. With {@link Retention#UNCONSUMED} it lets go of its first
+ * chunk once a consumer moves past it, so a chunk only stays in memory while some consumer
+ * has not passed it yet. That keeps heap usage flat however long the sequence is, but every
+ * consumer must start before the first one moves past the first chunk; consumers starting
+ * later, including derived sequences pulling for the first time, fail with an
+ * {@link IllegalStateException}.
+ *
+ * @param <T> The type of elements
+ */
+public final class LazySeq<T> implements Iterable<T> {
+    private static final int DEFAULT_CHUNK_SIZE = 256;
+    private static final Object[] END = new Object[0];
+
+    private final Supplier<Object[]> source;
+    private final int chunkSize;
+    private final Retention retention;
+    // Cleared by the first consumer to move past it when only unconsumed chunks are retained
+    private volatile Cell head;
+
+    private LazySeq(Supplier<Object[]> source, int chunkSize, Retention retention) {
+        this.source = source;
+        this.chunkSize = chunkSize;
+        this.retention = retention;
+        this.head = new Cell();
+    }
+
+    /**
+     * Creates a sequence of the elements of an iterator, pulled in chunks of the given size.
+     *
+     * @param source The iterator to pull elements from, which the sequence takes over
+     * @param chunkSize The number of elements pulled at a time
+     * @param retention Which chunks the sequence keeps
+     * @param <T> The type of elements
+     * @return A new sequence
+     * @throws IllegalArgumentException if chunkSize is not positive
+     */
+    public static <T> LazySeq<T> fromIterator(Iterator<? extends T> source, int chunkSize, Retention retention) {
+        Objects.requireNonNull(source, "source");
+        Objects.requireNonNull(retention, "retention");
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        return new LazySeq<>(() -> pull(source, chunkSize), chunkSize, retention);
+    }
+
+    /**
+     * Creates a sequence of the elements of the chunks a supplier returns, such as the pages
+     * of a paged query. The supplier is called for the next chunk whenever a consumer reaches
+     * the end of the previous one, and ends the sequence by returning null or an empty list.
+     *
+     * @param chunks The supplier of the next chunk
+     * @param retention Which chunks the sequence keeps
+     * @param <T> The type of elements
+     * @return A new sequence
+     */
+    public static <T> LazySeq<T> fromChunks(Supplier<? extends List<? extends T>> chunks, Retention retention) {
+        Objects.requireNonNull(chunks, "chunks");
+        Objects.requireNonNull(retention, "retention");
+        return new LazySeq<>(() -> {
+            List<? extends T> chunk = chunks.get();
+            return chunk == null ? null : chunk.toArray();
+        }, DEFAULT_CHUNK_SIZE, retention);
+    }
+
+    /**
+     * Creates a lazy sequence of the results of applying a function to the elements of this
+     * sequence. The function is applied once per element, as the new sequence is consumed.
+     *
+     * @param mapper The function to apply to each element
+     * @param <R> The type of the new elements
+     * @return A new sequence with the same retention
+     */
+    public <R> LazySeq<R> map(Function<? super T, ? extends R> mapper) {
+        Objects.requireNonNull(mapper, "mapper");
+        return derive(elements -> elements.map(mapper));
+    }
+
+    /**
+     * Creates a lazy sequence of the elements of this sequence that match a predicate.
+     *
+     * @param predicate The predicate elements must match
+     * @return A new sequence with the same retention
+     */
+    public LazySeq<T> filter(Predicate<? super T> predicate) {
+        Objects.requireNonNull(predicate, "predicate");
+        return derive(elements -> elements.filter(predicate));
+    }
+
+    /**
+     * Creates a lazy sequence of at most the given number of elements from the start of this
+     * sequence. Elements past that number are never pulled for it.
+     *
+     * @param count The maximum number of elements
+     * @return A new sequence with the same retention
+     * @throws IllegalArgumentException if count is negative
+     */
+    public LazySeq<T> take(long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
+        return derive(elements -> elements.limit(count));
+    }
+
+    /**
+     * Gets an iterator over the sequence, which pulls further chunks as it reaches them.
+     *
+     * @return A new iterator starting at the first element
+     * @throws IllegalStateException if only unconsumed chunks are retained and a consumer already moved past the first chunk
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Cursor cursor = new Cursor(start());
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!cursor.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return cursor.next();
+            }
+        };
+    }
+
+    /**
+     * Gets a spliterator over the sequence. Splitting it hands off the rest of the current
+     * chunk and moves on to the next one, so parallel consumers process whole chunks.
+     *
+     * @return A new ordered spliterator starting at the first element
+     * @throws IllegalStateException if only unconsumed chunks are retained and a consumer already moved past the first chunk
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new ChunkSpliterator(new Cursor(start()));
+    }
+
+    /**
+     * Gets a sequential stream of the elements.
+     *
+     * @return A new stream
+     * @throws IllegalStateException if only unconsumed chunks are retained and a consumer already moved past the first chunk
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Gets a parallel stream of the elements, which processes chunks concurrently.
+     *
+     * @return A new stream
+     * @throws IllegalStateException if only unconsumed chunks are retained and a consumer already moved past the first chunk
+     */
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Gets which chunks the sequence keeps.
+     *
+     * @return The retention
+     */
+    public Retention getRetention() {
+        return retention;
+    }
+
+    private <R> LazySeq<R> derive(Function<Stream<T>, Stream<? extends R>> operation) {
+        Supplier<Object[]> derived = new Supplier<Object[]>() {
+            // Only used under the derived sequence's lock
+            private Iterator<? extends R> elements;
+
+            @Override
+            public Object[] get() {
+                if (elements == null) {
+                    elements = operation.apply(stream()).iterator();
+                }
+                return pull(elements, chunkSize);
+            }
+        };
+        return new LazySeq<>(derived, chunkSize, retention);
+    }
+
+    private static Object[] pull(Iterator<?> source, int chunkSize) {
+        Object[] chunk = new Object[chunkSize];
+        int size = 0;
+        while (size < chunkSize && source.hasNext()) {
+            chunk[size++] = source.next();
+        }
+        if (size == chunkSize) {
+            return chunk;
+        }
+        Object[] trimmed = new Object[size];
+        System.arraycopy(chunk, 0, trimmed, 0, size);
+        return trimmed;
+    }
+
+    private Cell start() {
+        Cell first = head;
+        if (first == null) {
+            throw new IllegalStateException("A consumer already moved past the start of the sequence");
+        }
+        return first;
+    }
+
+    /**
+     * Gets the elements of a chunk, pulling them from the source if no consumer has yet.
+     */
+    private Object[] realize(Cell cell) {
+        Object[] elements = cell.elements;
+        if (elements != null) {
+            return elements;
+        }
+        synchronized (this) {
+            elements = cell.elements;
+            if (elements == null) {
+                Object[] pulled = source.get();
+                if (pulled == null || pulled.length == 0) {
+                    elements = END;
+                } else {
+                    cell.next = new Cell();
+                    elements = pulled;
+                }
+                // Publishes next along with the elements
+                cell.elements = elements;
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Which chunks a {@link LazySeq} keeps in memory.
+     */
+    public enum Retention {
+        /**
+         * Every chunk pulled is kept for as long as the sequence is, so consumers can start
+         * at any time.
+         */
+        ALL,
+        /**
+         * Chunks are only kept until every consumer has passed them.
+         */
+        UNCONSUMED
+    }
+
+    /**
+     * One chunk of the sequence; END marks the end of the sequence.
+     */
+    private static final class Cell {
+        // Null until pulled
+        volatile Object[] elements;
+        // Written before elements is published; null for the last cell
+        Cell next;
+    }
+
+    /**
+     * A position in the sequence. Only holds on to the current chunk, so chunks behind every
+     * cursor can be collected.
+     */
+    private final class Cursor {
+        private Cell cell;
+        private Object[] elements;
+        private int index;
+
+        Cursor(Cell cell) {
+            this.cell = cell;
+        }
+
+        boolean hasNext() {
+            for (;;) {
+                if (elements == null) {
+                    elements = realize(cell);
+                }
+                if (index < elements.length) {
+                    return true;
+                }
+                if (cell.next == null) {
+                    return false;
+                }
+                if (retention == Retention.UNCONSUMED && head == cell) {
+                    // From now on the first chunk lives only as long as a consumer still needs it
+                    head = null;
+                }
+                cell = cell.next;
+                elements = null;
+                index = 0;
+            }
+        }
+
+        /**
+         * Must only be called after {@link #hasNext()} returned true.
+         */
+        @SuppressWarnings("unchecked")
+        T next() {
+            return (T) elements[index++];
+        }
+
+        /**
+         * Hands off the rest of the current chunk. Must only be called after
+         * {@link #hasNext()} returned true.
+         */
+        @SuppressWarnings("unchecked")
+        Spliterator<T> splitChunk() {
+            Spliterator<T> rest = (Spliterator<T>) Spliterators.spliterator(elements, index, elements.length,
+                    Spliterator.ORDERED);
+            index = elements.length;
+            return rest;
+        }
+    }
+
+    private final class ChunkSpliterator implements Spliterator<T> {
+        private final Cursor cursor;
+
+        ChunkSpliterator(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (!cursor.hasNext()) {
+                return false;
+            }
+            action.accept(cursor.next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            while (cursor.hasNext()) {
+                action.accept(cursor.next());
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            return cursor.hasNext() ? cursor.splitChunk() : null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED;
+        }
+    }
+}
\ No newline at end of file
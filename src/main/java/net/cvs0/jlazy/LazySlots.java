@@ -0,0 +1,110 @@
+package net.cvs0.jlazy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * A fixed number of lazily computed slots in one flat array, shared by {@link LazyArray} and
+ * {@link LazyMap}.
+ * <p>
+ * An uninitialized slot is null, and a computed null value is stored as a sentinel. While a
+ * slot is being computed it holds a placeholder that other threads wait on, so each slot is
+ * computed at most once per successful computation without any per-slot object outliving
+ * the computation. If the computation throws, the slot is reset and the waiting threads get
+ * the same exception.
+ */
+final class LazySlots {
+    private static final Object NULL = new Object();
+
+    private final AtomicReferenceArray<Object> slots;
+
+    LazySlots(int length) {
+        this.slots = new AtomicReferenceArray<>(length);
+    }
+
+    int length() {
+        return slots.length();
+    }
+
+    /**
+     * Gets the value of a slot without computing it.
+     *
+     * @return The value, or null if the slot is not initialized
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(int index) {
+        Object current = slots.get(index);
+        return current == null || current == NULL || current instanceof Pending ? null : (T) current;
+    }
+
+    boolean isInitialized(int index) {
+        Object current = slots.get(index);
+        return current != null && !(current instanceof Pending);
+    }
+
+    /**
+     * Gets the value of a slot, computing it on the calling thread if it is not initialized
+     * and waiting if another thread is computing it.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws IllegalStateException if computing the slot requires its own value
+     */
+    @SuppressWarnings("unchecked")
+    <T> T initialize(int index, IntFunction<? extends T> initializer) throws InterruptedException {
+        for (;;) {
+            Object current = slots.get(index);
+            if (current == null) {
+                Pending pending = new Pending();
+                if (!slots.compareAndSet(index, null, pending)) {
+                    continue;
+                }
+                T value;
+                try {
+                    value = initializer.apply(index);
+                } catch (RuntimeException | Error e) {
+                    slots.set(index, null);
+                    pending.fail(e);
+                    throw e;
+                }
+                slots.set(index, value == null ? NULL : value);
+                pending.complete();
+                return value;
+            }
+            if (current instanceof Pending) {
+                ((Pending) current).await(index);
+                continue;
+            }
+            return current == NULL ? null : (T) current;
+        }
+    }
+
+    private static final class Pending {
+        final Thread owner = Thread.currentThread();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Throwable failure;
+
+        void complete() {
+            done.countDown();
+        }
+
+        void fail(Throwable failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        void await(int index) throws InterruptedException {
+            if (owner == Thread.currentThread()) {
+                throw new IllegalStateException("Slot " + index + " depends on its own value");
+            }
+            done.await();
+            Throwable current = failure;
+            if (current instanceof RuntimeException) {
+                throw (RuntimeException) current;
+            }
+            if (current instanceof Error) {
+                throw (Error) current;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -1,80 +1,433 @@
 package net.cvs0.jlazy;
 
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 /**
  * A lazy initialization implementation that retries on failure.
- * 
+ * <p>
+ * How often and after which delays a failed initialization is retried is described by a
+ * {@link RetryPolicy}. An optional {@link CircuitBreaker} makes initialization fail fast with
+ * a {@link CircuitBreakerOpenException} while the backend is known to be down. If every
+ * attempt fails the instance stays uninitialized, so a later call starts over. Optionally, the
+ * final failure is remembered for a limited time and rethrown without running another round
+ * of attempts, until a single caller probes again after that time.
+ * <p>
+ * {@link #initialize()} waits between attempts on the calling thread. {@link #initializeAsync(ScheduledExecutorService)}
+ * instead schedules attempts on an executor and never blocks the caller.
+ *
  * @param <T> The type of value to be lazily initialized
  */
 public class LazyWithRetry<T> implements LazyInitializer<T> {
+    private static final Object UNINITIALIZED = new Object();
+
     private final Supplier<T> supplier;
-    private final int maxRetries;
-    private final long retryDelay;
-    private T value;
-    private boolean initialized = false;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final FailureMemo failureMemo;
+    private final StatsCounter stats;
+    private volatile Object value = UNINITIALIZED;
+    private final AtomicReference<CompletableFuture<T>> pending = new AtomicReference<>();
 
     /**
      * Creates a new LazyWithRetry instance.
-     * 
+     *
      * @param supplier The supplier function that will initialize the value
      * @param maxRetries The maximum number of retry attempts
      * @param retryDelay The delay between retries in milliseconds
      */
     public LazyWithRetry(Supplier<T> supplier, int maxRetries, long retryDelay) {
-        this.supplier = supplier;
-        this.maxRetries = maxRetries;
-        this.retryDelay = retryDelay;
+        this(supplier, RetryPolicy.fixedDelay(maxRetries, retryDelay));
+    }
+
+    /**
+     * Creates a new LazyWithRetry instance.
+     *
+     * @param supplier The supplier function that will initialize the value
+     * @param retryPolicy The policy deciding when failed attempts are retried
+     */
+    public LazyWithRetry(Supplier<T> supplier, RetryPolicy retryPolicy) {
+        this(supplier, retryPolicy, null);
+    }
+
+    /**
+     * Creates a new LazyWithRetry instance.
+     *
+     * @param supplier The supplier function that will initialize the value
+     * @param retryPolicy The policy deciding when failed attempts are retried
+     * @param circuitBreaker The circuit breaker guarding the supplier, or null for none
+     */
+    public LazyWithRetry(Supplier<T> supplier, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+        this(supplier, retryPolicy, circuitBreaker, null, null);
+    }
+
+    /**
+     * Creates a new LazyWithRetry instance that remembers a failed initialization for the
+     * given time.
+     *
+     * @param supplier The supplier function that will initialize the value
+     * @param retryPolicy The policy deciding when failed attempts are retried
+     * @param circuitBreaker The circuit breaker guarding the supplier, or null for none
+     * @param failureTtlMillis How long in milliseconds a failure is rethrown before initialization is tried again
+     * @throws IllegalArgumentException if failureTtlMillis is not positive
+     */
+    public LazyWithRetry(Supplier<T> supplier, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker,
+                         long failureTtlMillis) {
+        this(supplier, retryPolicy, circuitBreaker, failureTtlMillis, Ticker.system());
+    }
+
+    /**
+     * Creates a new LazyWithRetry instance that remembers a failed initialization for the
+     * given time, as measured by the given ticker.
+     *
+     * @param supplier The supplier function that will initialize the value
+     * @param retryPolicy The policy deciding when failed attempts are retried
+     * @param circuitBreaker The circuit breaker guarding the supplier, or null for none
+     * @param failureTtlMillis How long in milliseconds a failure is rethrown before initialization is tried again
+     * @param ticker The ticker to read the time from
+     * @throws IllegalArgumentException if failureTtlMillis is not positive
+     */
+    public LazyWithRetry(Supplier<T> supplier, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker,
+                         long failureTtlMillis, Ticker ticker) {
+        this(supplier, retryPolicy, circuitBreaker, new FailureMemo(failureTtlMillis, ticker), null);
+    }
+
+    /**
+     * Creates a new LazyWithRetry instance that records its initializations and retries in
+     * the given statistics. An initialization counts as one load, taking as long as all of its
+     * attempts and the delays between them.
+     *
+     * @param supplier The supplier function that will initialize the value
+     * @param retryPolicy The policy deciding when failed attempts are retried
+     * @param circuitBreaker The circuit breaker guarding the supplier, or null for none
+     * @param stats The statistics to record initializations in
+     */
+    public LazyWithRetry(Supplier<T> supplier, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker,
+                         StatsCounter stats) {
+        this(supplier, retryPolicy, circuitBreaker, null, Objects.requireNonNull(stats, "stats"));
+    }
+
+    private LazyWithRetry(Supplier<T> supplier, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker,
+                          FailureMemo failureMemo, StatsCounter stats) {
+        this.supplier = Objects.requireNonNull(supplier, "supplier");
+        this.retryPolicy = Objects.requireNonNull(retryPolicy, "retryPolicy");
+        this.circuitBreaker = circuitBreaker;
+        this.failureMemo = failureMemo;
+        this.stats = stats;
     }
 
     /**
      * Gets the value if it's already initialized, otherwise returns null.
      * This method does not trigger initialization.
-     * 
+     *
      * @return The initialized value or null if not yet initialized
      */
     @Override
+    @SuppressWarnings("unchecked")
     public T get() {
-        if (!initialized) {
-            return null;
-        }
-        return value;
+        Object current = value;
+        return current == UNINITIALIZED ? null : (T) current;
     }
-    
+
     /**
      * Initializes the value with retry logic if not already initialized.
-     * 
+     * Concurrent callers wait for the same initialization, including one started by
+     * {@link #initializeAsync(ScheduledExecutorService)}.
+     *
      * @return The initialized value
      * @throws InterruptedException if the thread is interrupted during retry delay
+     * @throws CircuitBreakerOpenException if the circuit breaker rejected an attempt
      */
     @Override
+    @SuppressWarnings("unchecked")
     public T initialize() throws InterruptedException {
-        if (!initialized) {
-            initialized = true;
-            int attempt = 0;
-            while (attempt < maxRetries) {
+        Object current = value;
+        if (current != UNINITIALIZED) {
+            return (T) current;
+        }
+        FailureMemo memo = failureMemo;
+        if (memo != null) {
+            memo.throwIfCached();
+        }
+        for (;;) {
+            CompletableFuture<T> future = pending.get();
+            if (future != null) {
+                T result = await(future);
+                if (result != null || value != UNINITIALIZED) {
+                    return result;
+                }
+                // The caller running that initialization was interrupted; start over
+                continue;
+            }
+            CompletableFuture<T> created = new CompletableFuture<>();
+            if (pending.compareAndSet(null, created)) {
+                return initializeWithRetries(created, memo);
+            }
+        }
+    }
+
+    /**
+     * Waits for an initialization run by another caller.
+     *
+     * @return The value, or null if the other caller was interrupted
+     */
+    private T await(CompletableFuture<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InterruptedException) {
+                return null;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * Runs an initialization on the calling thread, which has registered it as the pending
+     * initialization.
+     */
+    @SuppressWarnings("unchecked")
+    private T initializeWithRetries(CompletableFuture<T> created, FailureMemo memo) throws InterruptedException {
+        Object current = value;
+        if (current != UNINITIALIZED) {
+            pending.compareAndSet(created, null);
+            created.complete((T) current);
+            return (T) current;
+        }
+        if (memo != null) {
+            try {
+                memo.beforeAttempt();
+            } catch (RuntimeException e) {
+                pending.compareAndSet(created, null);
+                created.completeExceptionally(e);
+                throw e;
+            }
+        }
+        T result;
+        try {
+            result = initializeWithRetries();
+        } catch (InterruptedException e) {
+            if (memo != null) {
+                // Being interrupted says nothing about the backend, so let the next caller probe
+                memo.onSuccess();
+            }
+            pending.compareAndSet(created, null);
+            created.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            // Record the outcome before clearing, so no caller starts a new round in between
+            if (memo != null) {
+                memo.onFailure(e);
+            }
+            pending.compareAndSet(created, null);
+            created.completeExceptionally(e);
+            throw e;
+        }
+        if (memo != null) {
+            memo.onSuccess();
+        }
+        pending.compareAndSet(created, null);
+        created.complete(result);
+        return result;
+    }
+
+    private T initializeWithRetries() throws InterruptedException {
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = attempt();
+                value = result;
+                recordOutcome(start, true);
+                return result;
+            } catch (CircuitBreakerOpenException e) {
+                recordOutcome(start, false);
+                throw e;
+            } catch (RuntimeException e) {
+                long delay = retryPolicy.nextDelayMillis(attempt, e, elapsedMillis(start));
+                if (delay < 0) {
+                    recordOutcome(start, false);
+                    throw e;
+                }
+                if (stats != null) {
+                    stats.recordRetry();
+                }
+                Thread.sleep(delay);
+            } catch (Error e) {
+                recordOutcome(start, false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Initializes the value with retry logic without blocking the caller. Attempts run on
+     * the given scheduler, and retries are scheduled after their delay instead of sleeping.
+     * Concurrent callers share a single initialization; if it fails, a later call starts over.
+     *
+     * @param scheduler The scheduler to run attempts on
+     * @return A future that completes with the value, or with the last attempt's failure
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<T> initializeAsync(ScheduledExecutorService scheduler) {
+        Objects.requireNonNull(scheduler, "scheduler");
+        Object current = value;
+        if (current != UNINITIALIZED) {
+            return CompletableFuture.completedFuture((T) current);
+        }
+        CompletableFuture<T> future = pending.get();
+        if (future == null) {
+            FailureMemo memo = failureMemo;
+            if (memo != null) {
                 try {
-                    value = supplier.get();
-                    return value;
+                    memo.throwIfCached();
                 } catch (RuntimeException e) {
-                    attempt++;
-                    if (attempt >= maxRetries) {
-                        throw e;
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+            CompletableFuture<T> created = new CompletableFuture<>();
+            if (pending.compareAndSet(null, created)) {
+                if (memo != null) {
+                    try {
+                        memo.beforeAttempt();
+                    } catch (RuntimeException e) {
+                        pending.compareAndSet(created, null);
+                        created.completeExceptionally(e);
+                        return created;
                     }
-                    Thread.sleep(retryDelay);
+                }
+                created.whenComplete((result, error) -> {
+                    // Record the outcome before clearing, so no caller starts a new round in between
+                    if (memo != null) {
+                        if (error == null) {
+                            memo.onSuccess();
+                        } else {
+                            memo.onFailure(error);
+                        }
+                    }
+                    pending.compareAndSet(created, null);
+                });
+                long start = System.nanoTime();
+                submit(scheduler, () -> attemptAsync(created, 1, start, scheduler), 0, created);
+                future = created;
+            } else {
+                future = pending.get();
+                if (future == null) {
+                    return initializeAsync(scheduler);
                 }
             }
         }
-        return value;
+        return future.isDone() ? future : future.copy();
     }
-    
+
     /**
      * Checks if the value has been initialized.
-     * 
+     *
      * @return true if the value has been initialized, false otherwise
      */
     @Override
     public boolean isInitialized() {
-        return initialized;
+        return value != UNINITIALIZED;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void attemptAsync(CompletableFuture<T> future, int attempt, long start, ScheduledExecutorService scheduler) {
+        Object current = value;
+        if (current != UNINITIALIZED) {
+            future.complete((T) current);
+            return;
+        }
+        T result;
+        try {
+            result = attempt();
+        } catch (CircuitBreakerOpenException e) {
+            recordOutcome(start, false);
+            future.completeExceptionally(e);
+            return;
+        } catch (RuntimeException e) {
+            long delay = retryPolicy.nextDelayMillis(attempt, e, elapsedMillis(start));
+            if (delay < 0) {
+                recordOutcome(start, false);
+                future.completeExceptionally(e);
+            } else {
+                if (stats != null) {
+                    stats.recordRetry();
+                }
+                submit(scheduler, () -> attemptAsync(future, attempt + 1, start, scheduler), delay, future);
+            }
+            return;
+        } catch (Error e) {
+            recordOutcome(start, false);
+            future.completeExceptionally(e);
+            throw e;
+        }
+        recordOutcome(start, true);
+        synchronized (this) {
+            current = value;
+            if (current == UNINITIALIZED) {
+                value = result;
+                current = result;
+            }
+        }
+        future.complete((T) current);
+    }
+
+    private T attempt() {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            throw new CircuitBreakerOpenException("Circuit breaker is open, not attempting initialization");
+        }
+        T result;
+        try {
+            result = supplier.get();
+        } catch (RuntimeException | Error e) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onFailure();
+            }
+            throw e;
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess();
+        }
+        return result;
+    }
+
+    private void recordOutcome(long startNanos, boolean success) {
+        if (stats != null) {
+            if (success) {
+                stats.recordLoadSuccess(System.nanoTime() - startNanos);
+            } else {
+                stats.recordLoadFailure(System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    private static void submit(ScheduledExecutorService scheduler, Runnable task, long delayMillis,
+                               CompletableFuture<?> future) {
+        try {
+            if (delayMillis == 0) {
+                scheduler.execute(task);
+            } else {
+                scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
     }
 }
\ No newline at end of file
@@ -0,0 +1,337 @@
+package net.cvs0.jlazy;
+
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+/**
+ * A cache for lazy-initialized values, indexed by primitive {@code long} keys.
+ * <p>
+ * Unlike a {@link LazyCache} with {@code Long} keys, keys are never boxed and finished values
+ * are stored directly in an open-addressing hash table, without a node or {@link Lazy}
+ * wrapper per entry. Looking up an existing entry therefore allocates nothing, and is
+ * normally a lock-free optimistic read.
+ * <p>
+ * The cache is safe for concurrent use. Keys are spread over independently locked stripes,
+ * and each entry's value is initialized once no matter how many threads request it at the
+ * same time. While a value is loading its slot holds a placeholder that concurrent callers
+ * wait on; once loaded, the placeholder is replaced by the value itself. If the loader
+ * throws, the entry is removed so that a later call can try again. The cache is unbounded.
+ *
+ * @param <V> The type of values stored in the cache
+ */
+public class LongLazyCache<V> {
+    private static final int MAXIMUM_STRIPES = 1 << 16;
+    private static final Object NULL = new Object();
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    /**
+     * Creates a new LongLazyCache with a stripe count suited to the number of processors.
+     */
+    public LongLazyCache() {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new LongLazyCache.
+     *
+     * @param concurrencyLevel The estimated number of threads updating the cache at the same time
+     * @throws IllegalArgumentException if concurrencyLevel is not positive
+     */
+    public LongLazyCache(int concurrencyLevel) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+        }
+        int stripeCount = 1;
+        int bits = 0;
+        while (stripeCount < concurrencyLevel && stripeCount < MAXIMUM_STRIPES) {
+            stripeCount <<= 1;
+            bits++;
+        }
+        this.stripes = new Stripe[stripeCount];
+        // The stripe is chosen by the top bits of the hash and the slot by the low bits
+        this.stripeShift = 64 - bits;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Gets a value from the cache or loads it if not present.
+     * Concurrent calls for a missing key share a single invocation of the loader.
+     *
+     * @param key The key to look up in the cache
+     * @param loader The function that loads the value for the key if not in cache
+     * @return The value for the key
+     * @throws InterruptedException if the initialization process is interrupted
+     */
+    @SuppressWarnings("unchecked")
+    public V getOrCreate(long key, LongFunction<? extends V> loader) throws InterruptedException {
+        long hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        Object current = stripe.get(key, hash);
+        if (current == null) {
+            Objects.requireNonNull(loader, "loader");
+            Loading<V> created = new Loading<>(new Lazy<>(() -> loader.apply(key)));
+            current = stripe.putIfAbsent(key, hash, created);
+            if (current == null) {
+                current = created;
+            }
+        }
+        if (!(current instanceof Loading)) {
+            return current == NULL ? null : (V) current;
+        }
+
+        Loading<V> loading = (Loading<V>) current;
+        V value;
+        try {
+            value = loading.lazy.initialize();
+        } catch (RuntimeException | Error e) {
+            stripe.replace(key, hash, loading, null);
+            throw e;
+        }
+        stripe.replace(key, hash, loading, value == null ? NULL : value);
+        return value;
+    }
+
+    /**
+     * Gets the value for a key if it is present and loaded.
+     * This method does not trigger loading.
+     *
+     * @param key The key to look up in the cache
+     * @return The value, or null if the key is absent or still loading
+     */
+    @SuppressWarnings("unchecked")
+    public V getIfPresent(long key) {
+        long hash = hash(key);
+        Object current = stripeFor(hash).get(key, hash);
+        return current == null || current == NULL || current instanceof Loading ? null : (V) current;
+    }
+
+    /**
+     * Removes a value from the cache.
+     *
+     * @param key The key to remove
+     * @return true if a value was removed, false otherwise
+     */
+    public boolean remove(long key) {
+        long hash = hash(key);
+        return stripeFor(hash).replace(key, hash, null, null);
+    }
+
+    /**
+     * Clears all values from the cache.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * Checks if a key exists in the cache.
+     *
+     * @param key The key to check
+     * @return true if the key exists, false otherwise
+     */
+    public boolean containsKey(long key) {
+        long hash = hash(key);
+        return stripeFor(hash).get(key, hash) != null;
+    }
+
+    /**
+     * Gets the number of entries in the cache, including those still loading.
+     *
+     * @return The number of entries in the cache
+     */
+    public int size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private Stripe stripeFor(long hash) {
+        // Shifting by 64 is a no-op in Java, so a single stripe needs its own case
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+    private static long hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Marks a slot whose value is still being loaded.
+     */
+    private static final class Loading<V> {
+        final Lazy<V> lazy;
+
+        Loading(Lazy<V> lazy) {
+            this.lazy = lazy;
+        }
+    }
+
+    /**
+     * A linear-probing hash table guarded by a StampedLock. Empty slots have a null value;
+     * removals shift later entries of the probe sequence back instead of leaving tombstones.
+     */
+    private static final class Stripe {
+        private static final int INITIAL_CAPACITY = 8;
+
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int size;
+
+        Object get(long key, long hash) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Object result = find(keys, values, key, hash);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return find(keys, values, key, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        Object putIfAbsent(long key, long hash, Object value) {
+            long stamp = lock.writeLock();
+            try {
+                int mask = values.length - 1;
+                int index = (int) hash & mask;
+                while (values[index] != null) {
+                    if (keys[index] == key) {
+                        return values[index];
+                    }
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = value;
+                if (++size > values.length * 3 / 4) {
+                    resize();
+                }
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Replaces the value of a key, or removes the key if the replacement is null.
+         *
+         * @param expected The value the key must currently have, or null to accept any value
+         * @return true if the key was present with the expected value
+         */
+        boolean replace(long key, long hash, Object expected, Object replacement) {
+            long stamp = lock.writeLock();
+            try {
+                int mask = values.length - 1;
+                int index = (int) hash & mask;
+                while (values[index] != null) {
+                    if (keys[index] == key) {
+                        if (expected != null && values[index] != expected) {
+                            return false;
+                        }
+                        if (replacement != null) {
+                            values[index] = replacement;
+                        } else {
+                            delete(index);
+                        }
+                        return true;
+                    }
+                    index = (index + 1) & mask;
+                }
+                return false;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                keys = new long[INITIAL_CAPACITY];
+                values = new Object[INITIAL_CAPACITY];
+                size = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private static Object find(long[] keys, Object[] values, long key, long hash) {
+            // Under an optimistic read the arrays may be mid-resize, so stay within both and
+            // never probe more slots than exist; validation discards any inconsistent result
+            int length = Math.min(keys.length, values.length);
+            int mask = length - 1;
+            int index = (int) hash & mask;
+            for (int probes = 0; probes < length; probes++) {
+                Object value = values[index];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[index] == key) {
+                    return value;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private void delete(int index) {
+            int mask = values.length - 1;
+            int hole = index;
+            int next = (hole + 1) & mask;
+            while (values[next] != null) {
+                int home = (int) hash(keys[next]) & mask;
+                // Move the entry back if the hole lies on its probe path from its home slot
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = 0;
+            values[hole] = null;
+            size--;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            long[] newKeys = new long[oldKeys.length * 2];
+            Object[] newValues = new Object[oldValues.length * 2];
+            int mask = newValues.length - 1;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    int index = (int) hash(oldKeys[i]) & mask;
+                    while (newValues[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    newKeys[index] = oldKeys[i];
+                    newValues[index] = oldValues[i];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+    }
+}
\ No newline at end of file
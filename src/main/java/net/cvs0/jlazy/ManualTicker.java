@@ -0,0 +1,31 @@
+package net.cvs0.jlazy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ticker that only moves when it is advanced, for testing expiration without waiting.
+ */
+public final class ManualTicker implements Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+        return nanos.get();
+    }
+
+    /**
+     * Moves the time forward.
+     *
+     * @param millis The time in milliseconds to advance by
+     * @return This ticker
+     * @throws IllegalArgumentException if millis is negative
+     */
+    public ManualTicker advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative: " + millis);
+        }
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        return this;
+    }
+}
\ No newline at end of file
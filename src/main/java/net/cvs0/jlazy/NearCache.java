@@ -0,0 +1,139 @@
+package net.cvs0.jlazy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small per-thread table in front of a {@link LazyCache} that serves repeated lookups of the
+ * same keys without touching the shared segments.
+ * <p>
+ * Each thread has its own 2-way set-associative table: a key hashes to a set of two slots,
+ * the most recently used of which comes first, and storing a key into a full set displaces
+ * the other slot. Invalidation works through an epoch: removing keys from the cache bumps a
+ * shared counter, and a thread whose table was filled in an older epoch empties it before
+ * its next lookup. A removal is therefore seen by every thread's table on its very next
+ * lookup, at the cost of one volatile read per lookup.
+ *
+ * @param <K> The type of keys
+ * @param <E> The type of the cached entries
+ */
+final class NearCache<K, E> {
+    private final int capacity;
+    private final AtomicLong epoch = new AtomicLong();
+    private final ThreadLocal<Table> tables;
+
+    /**
+     * Creates a near cache.
+     *
+     * @param entriesPerThread The number of entries every thread's table holds, rounded up to a
+     *                         power of two of at least 2
+     */
+    NearCache(int entriesPerThread) {
+        this.capacity = Math.max(2, Integer.highestOneBit(entriesPerThread - 1) << 1);
+        this.tables = ThreadLocal.withInitial(() -> new Table(capacity));
+    }
+
+    /**
+     * Gets the calling thread's table, emptied first if anything was invalidated since it was
+     * last used.
+     */
+    Table table() {
+        Table table = tables.get();
+        long current = epoch.get();
+        if (table.epoch != current) {
+            table.clear();
+            table.epoch = current;
+        }
+        return table;
+    }
+
+    /**
+     * Makes every thread's table forget its entries before its next lookup. Callers remove
+     * the entries from the cache first, so a lookup that raced with the removal either sees
+     * the new epoch or has its table emptied on its next lookup.
+     */
+    void invalidateAll() {
+        epoch.incrementAndGet();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * One thread's table. Only ever used by its own thread, so nothing in it is synchronized.
+     */
+    final class Table {
+        private final Object[] keys;
+        private final Object[] entries;
+        private final int setMask;
+        private long epoch;
+        private int hits;
+
+        Table(int capacity) {
+            this.keys = new Object[capacity];
+            this.entries = new Object[capacity];
+            this.setMask = capacity / 2 - 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        E get(K key) {
+            int first = setOf(key);
+            if (key.equals(keys[first])) {
+                return (E) entries[first];
+            }
+            int second = first + 1;
+            if (key.equals(keys[second])) {
+                // Promote to the most recently used slot of the set
+                Object entry = entries[second];
+                keys[second] = keys[first];
+                entries[second] = entries[first];
+                keys[first] = key;
+                entries[first] = entry;
+                return (E) entry;
+            }
+            return null;
+        }
+
+        void put(K key, E entry) {
+            int first = setOf(key);
+            if (!key.equals(keys[first])) {
+                keys[first + 1] = keys[first];
+                entries[first + 1] = entries[first];
+                keys[first] = key;
+            }
+            entries[first] = entry;
+        }
+
+        void remove(K key) {
+            int first = setOf(key);
+            if (key.equals(keys[first])) {
+                keys[first] = keys[first + 1];
+                entries[first] = entries[first + 1];
+                keys[first + 1] = null;
+                entries[first + 1] = null;
+            } else if (key.equals(keys[first + 1])) {
+                keys[first + 1] = null;
+                entries[first + 1] = null;
+            }
+        }
+
+        /**
+         * Counts a hit and tells whether it is one of the sampled hits that should also be
+         * reported to the shared cache.
+         */
+        boolean sampleHit(int sampleMask) {
+            return (++hits & sampleMask) == 0;
+        }
+
+        private int setOf(K key) {
+            int hash = key.hashCode();
+            return ((hash ^ (hash >>> 16)) & setMask) << 1;
+        }
+
+        private void clear() {
+            Arrays.fill(keys, null);
+            Arrays.fill(entries, null);
+        }
+    }
+}
\ No newline at end of file
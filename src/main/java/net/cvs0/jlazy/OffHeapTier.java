@@ -0,0 +1,384 @@
+package net.cvs0.jlazy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * A second cache tier that keeps encoded values outside the Java heap, in direct buffers or a
+ * memory-mapped file.
+ * <p>
+ * The store is log-structured: its capacity is divided into fixed-size regions, and values
+ * are appended to the active region until it is full. Removing or replacing a value only
+ * marks its bytes dead. {@link #compact(long)} copies the live values out of regions that
+ * are mostly dead and reuses those regions; when no region is free for a write, the oldest
+ * region is dropped with all its values. Only the keys and the locations of their values
+ * stay on the heap.
+ * <p>
+ * Reads decode straight from the stored bytes. They only share a lock with the reuse of
+ * regions, so reads never wait for writes, and writes never wait for reads except while a
+ * region is being reused.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ */
+final class OffHeapTier<K, V> {
+    static final long NEVER = Long.MAX_VALUE;
+
+    private static final int TARGET_REGIONS = 16;
+    private static final int MINIMUM_REGION_SIZE = 4096;
+    // Enough for an active region and one to compact into
+    static final long MINIMUM_CAPACITY = 2L * MINIMUM_REGION_SIZE;
+    private static final int MAXIMUM_REGION_SIZE = 64 << 20;
+
+    private final Codec<V> codec;
+    private final ConcurrentHashMap<K, Location> index = new ConcurrentHashMap<>();
+    private final int regionSize;
+    // Guards appending, compacting and the region queues
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Readers hold the read lock while decoding; reusing a region takes the write lock
+    private final ReentrantReadWriteLock reuseLock = new ReentrantReadWriteLock();
+    private final ArrayDeque<Region<K>> free = new ArrayDeque<>();
+    private final ArrayDeque<Region<K>> sealed = new ArrayDeque<>();
+    private Region<K> active;
+
+    /**
+     * Creates a tier backed by direct buffers, which are allocated as regions are first used.
+     *
+     * @param codec The codec for values
+     * @param capacityBytes The number of bytes to store values in, at least {@link #MINIMUM_CAPACITY}
+     */
+    OffHeapTier(Codec<V> codec, long capacityBytes) {
+        this(codec, capacityBytes, null);
+    }
+
+    /**
+     * Creates a tier backed by a memory-mapped file. Any previous contents of the file are
+     * ignored and overwritten.
+     *
+     * @param codec The codec for values
+     * @param capacityBytes The number of bytes to store values in, at least {@link #MINIMUM_CAPACITY}
+     * @param file The file to map, which is created if it doesn't exist
+     * @throws IllegalArgumentException if capacityBytes is less than {@link #MINIMUM_CAPACITY}
+     * @throws UncheckedIOException if the file cannot be mapped
+     */
+    OffHeapTier(Codec<V> codec, long capacityBytes, Path file) {
+        if (capacityBytes < MINIMUM_CAPACITY) {
+            throw new IllegalArgumentException("capacityBytes must be at least " + MINIMUM_CAPACITY + ": " + capacityBytes);
+        }
+        this.codec = codec;
+        this.regionSize = regionSize(capacityBytes);
+        // Never more than the capacity, since regions are at most half of it
+        int regionCount = (int) (capacityBytes / regionSize);
+        if (file == null) {
+            for (int i = 0; i < regionCount; i++) {
+                free.add(new Region<>(null));
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Mappings stay valid after the channel is closed
+            for (int i = 0; i < regionCount; i++) {
+                free.add(new Region<>(channel.map(FileChannel.MapMode.READ_WRITE, (long) i * regionSize, regionSize)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map " + file, e);
+        }
+    }
+
+    private static int regionSize(long capacityBytes) {
+        long size = Math.max(MINIMUM_REGION_SIZE, Math.min(MAXIMUM_REGION_SIZE, capacityBytes / TARGET_REGIONS));
+        return (int) size;
+    }
+
+    /**
+     * Stores a value, replacing any value stored for the key. Values that cannot be encoded
+     * or are larger than a region are not stored.
+     *
+     * @param key The key
+     * @param value The value, never null
+     * @param writeTime When the value was written to the cache, in {@link LazyCache#now()} time
+     * @param expiresAt When the value expires, in {@link LazyCache#now()} time, or {@link #NEVER}
+     */
+    void put(K key, V value, long writeTime, long expiresAt) {
+        byte[] bytes;
+        try {
+            bytes = codec.encode(value);
+        } catch (RuntimeException e) {
+            // The value only stays out of this tier; the cache itself is unaffected
+            remove(key);
+            return;
+        }
+        if (bytes == null || bytes.length > regionSize) {
+            remove(key);
+            return;
+        }
+        writeLock.lock();
+        try {
+            Location location = append(key, ByteBuffer.wrap(bytes), writeTime, expiresAt);
+            Location previous = index.put(key, location);
+            if (previous != null) {
+                // Regions are only reused under the write lock, so the location is current
+                release(previous);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes and decodes the value stored for a key.
+     *
+     * @param key The key
+     * @param now The current {@link LazyCache#now()} time
+     * @return The value and when it was written, or null if none is stored, it expired or it could not be decoded
+     */
+    LazyCache.Stored<V> take(K key, long now) {
+        for (;;) {
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            reuseLock.readLock().lock();
+            try {
+                if (location.region.generation != location.generation) {
+                    // Moved by compaction or dropped since the lookup
+                    continue;
+                }
+                if (!index.remove(key, location)) {
+                    continue;
+                }
+                release(location);
+                if (location.isExpired(now)) {
+                    return null;
+                }
+                try {
+                    return new LazyCache.Stored<>(codec.decode(location.bytes()), location.writeTime);
+                } catch (RuntimeException e) {
+                    return null;
+                }
+            } finally {
+                reuseLock.readLock().unlock();
+            }
+        }
+    }
+
+    boolean contains(K key, long now) {
+        Location location = index.get(key);
+        return location != null && !location.isExpired(now);
+    }
+
+    boolean remove(K key) {
+        reuseLock.readLock().lock();
+        try {
+            Location location = index.remove(key);
+            if (location == null) {
+                return false;
+            }
+            release(location);
+            return true;
+        } finally {
+            reuseLock.readLock().unlock();
+        }
+    }
+
+    void removeIf(Predicate<? super K> filter) {
+        for (K key : index.keySet()) {
+            if (filter.test(key)) {
+                remove(key);
+            }
+        }
+    }
+
+    void clear() {
+        writeLock.lock();
+        try {
+            index.clear();
+            if (active != null) {
+                sealed.add(active);
+                active = null;
+            }
+            while (!sealed.isEmpty()) {
+                Region<K> region = sealed.poll();
+                reuse(region);
+                free.add(region);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    /**
+     * Copies the live values out of regions that are at least half dead, dropping expired
+     * values, and makes those regions available for new writes.
+     *
+     * @param now The current {@link LazyCache#now()} time
+     */
+    void compact(long now) {
+        writeLock.lock();
+        try {
+            // Appending may seal the active region, so don't iterate sealed while copying
+            List<Region<K>> candidates = new ArrayList<>();
+            for (Region<K> region : sealed) {
+                if (region.liveBytes.get() <= regionSize / 2) {
+                    candidates.add(region);
+                }
+            }
+            for (Region<K> region : candidates) {
+                int live = region.liveBytes.get();
+                // Copying must never have to drop a region to make room
+                if (free.isEmpty() && (active == null || regionSize - active.used < live)) {
+                    return;
+                }
+                sealed.remove(region);
+                for (K key : region.keys) {
+                    Location location = index.get(key);
+                    if (location == null || location.region != region || location.generation != region.generation) {
+                        continue;
+                    }
+                    if (location.isExpired(now)) {
+                        index.remove(key, location);
+                        continue;
+                    }
+                    Location moved = append(key, location.bytes(), location.writeTime, location.expiresAt);
+                    if (index.replace(key, location, moved)) {
+                        release(location);
+                    } else {
+                        release(moved);
+                    }
+                }
+                reuse(region);
+                free.add(region);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Appends bytes to the active region, moving to a new region if they don't fit.
+     * Must be called with the write lock held.
+     */
+    private Location append(K key, ByteBuffer bytes, long writeTime, long expiresAt) {
+        int length = bytes.remaining();
+        if (active == null || regionSize - active.used < length) {
+            if (active != null) {
+                sealed.add(active);
+            }
+            active = free.poll();
+            if (active == null) {
+                active = sealed.poll();
+                drop(active);
+            }
+            active.allocate(regionSize);
+        }
+        Region<K> region = active;
+        ByteBuffer target = region.buffer.duplicate();
+        target.position(region.used);
+        target.put(bytes);
+        Location location = new Location(region, region.generation, region.used, length, writeTime, expiresAt);
+        region.used += length;
+        region.liveBytes.addAndGet(length);
+        region.keys.add(key);
+        return location;
+    }
+
+    /**
+     * Removes every value still stored in a region and prepares it for reuse.
+     */
+    private void drop(Region<K> region) {
+        for (K key : region.keys) {
+            Location location = index.get(key);
+            if (location != null && location.region == region) {
+                index.remove(key, location);
+            }
+        }
+        reuse(region);
+    }
+
+    private void reuse(Region<K> region) {
+        reuseLock.writeLock().lock();
+        try {
+            region.generation++;
+            region.used = 0;
+            region.liveBytes.set(0);
+            region.keys.clear();
+        } finally {
+            reuseLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marks a location's bytes as dead. Callers make sure the region is not reused meanwhile.
+     */
+    private static void release(Location location) {
+        if (location.region.generation == location.generation) {
+            location.region.liveBytes.addAndGet(-location.length);
+        }
+    }
+
+    private static final class Region<K> {
+        volatile ByteBuffer buffer;
+        // Incremented whenever the region is reused, invalidating locations pointing into it
+        volatile int generation;
+        final AtomicInteger liveBytes = new AtomicInteger();
+        // The rest is guarded by the write lock
+        int used;
+        final List<K> keys = new ArrayList<>();
+
+        Region(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void allocate(int size) {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(size);
+            }
+        }
+    }
+
+    private static final class Location {
+        final Region<?> region;
+        final int generation;
+        final int offset;
+        final int length;
+        final long writeTime;
+        final long expiresAt;
+
+        Location(Region<?> region, int generation, int offset, int length, long writeTime, long expiresAt) {
+            this.region = region;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+            this.writeTime = writeTime;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != NEVER && expiresAt - now <= 0;
+        }
+
+        ByteBuffer bytes() {
+            ByteBuffer view = region.buffer.asReadOnlyBuffer();
+            view.position(offset);
+            view.limit(offset + length);
+            return view.slice();
+        }
+    }
+}
\ No newline at end of file
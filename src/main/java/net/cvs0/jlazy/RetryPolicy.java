@@ -0,0 +1,215 @@
+package net.cvs0.jlazy;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Describes when and how often a failed initialization is retried.
+ * <p>
+ * Delays grow exponentially from an initial delay up to a maximum delay. With full jitter
+ * enabled, each delay is drawn uniformly between zero and its exponential value, which keeps
+ * many clients that failed at the same time from retrying in lockstep. Retrying stops once
+ * the maximum number of attempts is reached, once the next retry would start after the
+ * maximum elapsed time, or as soon as a failure does not match the retry predicate.
+ * Instances are immutable and can be shared.
+ */
+public final class RetryPolicy {
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final boolean fullJitter;
+    private final long maxElapsedTimeMillis;
+    private final Predicate<? super Throwable> retryOn;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialDelayMillis = builder.initialDelayMillis;
+        this.maxDelayMillis = Math.max(builder.maxDelayMillis, builder.initialDelayMillis);
+        this.multiplier = builder.multiplier;
+        this.fullJitter = builder.fullJitter;
+        this.maxElapsedTimeMillis = builder.maxElapsedTimeMillis;
+        this.retryOn = builder.retryOn;
+    }
+
+    /**
+     * Creates a policy that retries any failure after the same fixed delay.
+     *
+     * @param maxAttempts The maximum number of attempts, including the first one
+     * @param delayMillis The delay between attempts in milliseconds
+     * @return A new policy
+     * @throws IllegalArgumentException if maxAttempts is not positive or delayMillis is negative
+     */
+    public static RetryPolicy fixedDelay(int maxAttempts, long delayMillis) {
+        return builder()
+                .maxAttempts(maxAttempts)
+                .initialDelay(delayMillis)
+                .multiplier(1.0)
+                .build();
+    }
+
+    /**
+     * Creates a builder for a new RetryPolicy.
+     *
+     * @return A new builder with default settings
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the maximum number of attempts, including the first one.
+     *
+     * @return The maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Decides whether to retry after a failed attempt and how long to wait first.
+     *
+     * @param failedAttempts The number of attempts made so far, all of which failed
+     * @param failure The failure of the latest attempt
+     * @param elapsedMillis The time in milliseconds since the first attempt started
+     * @return The delay in milliseconds before the next attempt, or -1 to stop retrying
+     */
+    long nextDelayMillis(int failedAttempts, Throwable failure, long elapsedMillis) {
+        if (failedAttempts >= maxAttempts || !retryOn.test(failure)) {
+            return -1;
+        }
+        double exponential = initialDelayMillis * Math.pow(multiplier, failedAttempts - 1);
+        long delay = (long) Math.min(exponential, maxDelayMillis);
+        if (fullJitter && delay > 0) {
+            delay = ThreadLocalRandom.current().nextLong(delay + 1);
+        }
+        if (elapsedMillis + delay > maxElapsedTimeMillis) {
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+     * Builder for {@link RetryPolicy} instances.
+     */
+    public static final class Builder {
+        private int maxAttempts = 3;
+        private long initialDelayMillis = 100;
+        private long maxDelayMillis = 10_000;
+        private double multiplier = 2.0;
+        private boolean fullJitter;
+        private long maxElapsedTimeMillis = Long.MAX_VALUE;
+        private Predicate<? super Throwable> retryOn = failure -> true;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the maximum number of attempts, including the first one.
+         *
+         * @param maxAttempts The maximum number of attempts
+         * @return This builder
+         * @throws IllegalArgumentException if maxAttempts is not positive
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts <= 0) {
+                throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the delay before the first retry.
+         *
+         * @param initialDelayMillis The delay in milliseconds
+         * @return This builder
+         * @throws IllegalArgumentException if initialDelayMillis is negative
+         */
+        public Builder initialDelay(long initialDelayMillis) {
+            if (initialDelayMillis < 0) {
+                throw new IllegalArgumentException("initialDelayMillis must not be negative: " + initialDelayMillis);
+            }
+            this.initialDelayMillis = initialDelayMillis;
+            return this;
+        }
+
+        /**
+         * Sets the upper bound for the delay between attempts.
+         *
+         * @param maxDelayMillis The maximum delay in milliseconds
+         * @return This builder
+         * @throws IllegalArgumentException if maxDelayMillis is negative
+         */
+        public Builder maxDelay(long maxDelayMillis) {
+            if (maxDelayMillis < 0) {
+                throw new IllegalArgumentException("maxDelayMillis must not be negative: " + maxDelayMillis);
+            }
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Sets the factor each delay is multiplied by for the next retry.
+         *
+         * @param multiplier The backoff multiplier
+         * @return This builder
+         * @throws IllegalArgumentException if multiplier is less than 1
+         */
+        public Builder multiplier(double multiplier) {
+            if (!(multiplier >= 1.0)) {
+                throw new IllegalArgumentException("multiplier must be at least 1: " + multiplier);
+            }
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Draws each delay uniformly between zero and its exponential value.
+         *
+         * @return This builder
+         */
+        public Builder fullJitter() {
+            this.fullJitter = true;
+            return this;
+        }
+
+        /**
+         * Sets the time after which no further retries are started, measured from the start
+         * of the first attempt.
+         *
+         * @param maxElapsedTimeMillis The maximum elapsed time in milliseconds
+         * @return This builder
+         * @throws IllegalArgumentException if maxElapsedTimeMillis is negative
+         */
+        public Builder maxElapsedTime(long maxElapsedTimeMillis) {
+            if (maxElapsedTimeMillis < 0) {
+                throw new IllegalArgumentException("maxElapsedTimeMillis must not be negative: " + maxElapsedTimeMillis);
+            }
+            this.maxElapsedTimeMillis = maxElapsedTimeMillis;
+            return this;
+        }
+
+        /**
+         * Only retries failures matching the given predicate; other failures are rethrown
+         * immediately.
+         *
+         * @param retryOn The predicate deciding which failures are retried
+         * @return This builder
+         */
+        public Builder retryOn(Predicate<? super Throwable> retryOn) {
+            this.retryOn = Objects.requireNonNull(retryOn, "retryOn");
+            return this;
+        }
+
+        /**
+         * Builds a new policy with the configured settings.
+         *
+         * @return A new policy
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
\ No newline at end of file
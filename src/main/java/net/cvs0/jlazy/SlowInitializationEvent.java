@@ -0,0 +1,35 @@
+package net.cvs0.jlazy;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JDK Flight Recorder event for an initialization that took longer than the slow load
+ * threshold of its {@link StatsCounter}.
+ * <p>
+ * The event is committed once the load has finished, which for asynchronous loads may be on
+ * a different thread than the one that started it, so the load's duration is recorded as a
+ * field rather than as the event's own duration.
+ */
+@Name("net.cvs0.jlazy.SlowInitialization")
+@Label("Slow Initialization")
+@Category("Lazy")
+@Description("An initialization that took longer than the configured threshold")
+@StackTrace(false)
+final class SlowInitializationEvent extends Event {
+    @Label("Source")
+    @Description("Name of the statistics counter the initialization was recorded in")
+    String source;
+
+    @Label("Load Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long loadDuration;
+
+    @Label("Failed")
+    boolean failed;
+}
\ No newline at end of file
@@ -0,0 +1,257 @@
+package net.cvs0.jlazy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A snapshot of cache entries on local disk, restored by memory-mapping the file.
+ * <p>
+ * The file starts with a header holding a magic number, the format version, the number of
+ * entries, the length of the body and a CRC32 checksum of the body. Each entry in the body
+ * is the time it was written in milliseconds since the epoch, followed by the length and
+ * bytes of its encoded key and the length and bytes of its encoded value. All numbers are
+ * big-endian.
+ * <p>
+ * Restoring a snapshot verifies the checksum and decodes the keys, but leaves the values
+ * encoded in the mapped file until {@link #take(Object)} asks for one. A file with a
+ * different magic number or version, a wrong length or checksum, or keys that don't decode
+ * is ignored as a whole.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ */
+final class Snapshot<K, V> {
+    static final int MAGIC = 0x4a4c5a53;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+
+    private final ByteBuffer body;
+    private final Codec<V> valueCodec;
+    private final ConcurrentHashMap<K, Entry> index;
+
+    private Snapshot(ByteBuffer body, Codec<V> valueCodec, ConcurrentHashMap<K, Entry> index) {
+        this.body = body;
+        this.valueCodec = valueCodec;
+        this.index = index;
+    }
+
+    /**
+     * Restores a snapshot.
+     *
+     * @param file The snapshot file
+     * @param keyCodec The codec for keys
+     * @param valueCodec The codec for values
+     * @param maximumAgeMillis Entries written longer ago than this are left out; 0 keeps all
+     * @return The snapshot, or null if the file doesn't exist or is not a valid snapshot
+     * @throws UncheckedIOException if the file exists but cannot be read
+     */
+    static <K, V> Snapshot<K, V> restore(Path file, Codec<K> keyCodec, Codec<V> valueCodec, long maximumAgeMillis) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read snapshot " + file, e);
+        }
+        if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+            return null;
+        }
+        int count = mapped.getInt();
+        long bodyLength = mapped.getLong();
+        long checksum = mapped.getLong();
+        if (count < 0 || bodyLength != mapped.remaining()) {
+            return null;
+        }
+        ByteBuffer body = mapped.slice();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if (crc.getValue() != checksum) {
+            return null;
+        }
+
+        long oldest = maximumAgeMillis > 0 ? System.currentTimeMillis() - maximumAgeMillis : Long.MIN_VALUE;
+        ConcurrentHashMap<K, Entry> index = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3));
+        int position = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                long writtenAt = body.getLong(position);
+                int keyLength = body.getInt(position + 8);
+                int keyOffset = position + 12;
+                int valueLength = body.getInt(keyOffset + keyLength);
+                int valueOffset = keyOffset + keyLength + 4;
+                if (keyLength < 0 || valueLength < 0 || valueOffset + valueLength > body.limit()) {
+                    return null;
+                }
+                if (writtenAt >= oldest) {
+                    K key = keyCodec.decode(slice(body, keyOffset, keyLength));
+                    index.put(key, new Entry(writtenAt, valueOffset, valueLength));
+                }
+                position = valueOffset + valueLength;
+            }
+        } catch (RuntimeException e) {
+            // Lengths pointing outside the body, or keys the codec rejects
+            return null;
+        }
+        return position == body.limit() ? new Snapshot<>(body, valueCodec, index) : null;
+    }
+
+    /**
+     * Writes a snapshot, replacing the file atomically so that a crash never leaves a
+     * partially written snapshot behind.
+     *
+     * @param file The snapshot file
+     * @param writer Writes the entries of the snapshot
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path file, EntrySource writer) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.position(HEADER_SIZE);
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+                EntryWriter entries = new EntryWriter(out);
+                writer.writeTo(entries);
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(entries.count).putLong(out.size()).putLong(crc.getValue());
+                header.flip();
+                channel.write(header, 0);
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Removes and decodes the value restored for a key.
+     *
+     * @param key The key
+     * @param now The current {@link LazyCache#now()} time, which the write time is converted to
+     * @return The value and when it was written, or null if none was restored or it could not be decoded
+     */
+    LazyCache.Stored<V> take(K key, long now) {
+        Entry entry = index.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        V value;
+        try {
+            value = valueCodec.decode(slice(body, entry.offset, entry.length));
+        } catch (RuntimeException e) {
+            return null;
+        }
+        // Entries written by a clock that was ahead count as written now
+        long ageMillis = Math.max(0, System.currentTimeMillis() - entry.writtenAt);
+        return new LazyCache.Stored<>(value, now - TimeUnit.MILLISECONDS.toNanos(ageMillis));
+    }
+
+    boolean contains(K key) {
+        return index.containsKey(key);
+    }
+
+    boolean remove(K key) {
+        return index.remove(key) != null;
+    }
+
+    void removeIf(Predicate<? super K> filter) {
+        index.keySet().removeIf(filter);
+    }
+
+    void clear() {
+        index.clear();
+    }
+
+    /**
+     * Calls the action for every restored entry that hasn't been taken yet, with the encoded
+     * value and the time the entry was written.
+     */
+    void forEachRemaining(EntryConsumer<K> action) throws IOException {
+        for (Map.Entry<K, Entry> entry : index.entrySet()) {
+            Entry value = entry.getValue();
+            action.accept(entry.getKey(), slice(body, value.offset, value.length), value.writtenAt);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    @FunctionalInterface
+    interface EntrySource {
+        void writeTo(EntryWriter writer) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer<K> {
+        void accept(K key, ByteBuffer encodedValue, long writtenAt) throws IOException;
+    }
+
+    /**
+     * Appends entries to the body of a snapshot being written.
+     */
+    static final class EntryWriter {
+        private final DataOutputStream out;
+        private int count;
+
+        EntryWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(byte[] key, ByteBuffer value, long writtenAt) throws IOException {
+            out.writeLong(writtenAt);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(value.remaining());
+            if (value.hasArray()) {
+                out.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+            } else {
+                byte[] bytes = new byte[value.remaining()];
+                value.duplicate().get(bytes);
+                out.write(bytes);
+            }
+            count++;
+        }
+    }
+
+    private static final class Entry {
+        final long writtenAt;
+        final int offset;
+        final int length;
+
+        Entry(long writtenAt, int offset, int length) {
+            this.writtenAt = writtenAt;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
\ No newline at end of file
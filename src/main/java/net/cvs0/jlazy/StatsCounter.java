@@ -0,0 +1,154 @@
+package net.cvs0.jlazy;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collects statistics about lookups and initializations.
+ * <p>
+ * Statistics are opt-in: a cache or lazy value only records them when it is given a
+ * StatsCounter, and otherwise pays nothing more than a null check. Several instances can share
+ * one counter to aggregate their statistics. Counters are {@link LongAdder}s and load
+ * latencies go into a histogram with fixed buckets, so recording never takes a lock and does
+ * not allocate. Use {@link #snapshot()} to read the statistics, for example to export them to a
+ * metrics system.
+ * <p>
+ * Loads that take at least the slow load threshold are also reported as
+ * {@code net.cvs0.jlazy.SlowInitialization} events to the JDK Flight Recorder, if a recording
+ * has that event enabled.
+ */
+public final class StatsCounter {
+    private static final long DEFAULT_SLOW_LOAD_THRESHOLD_MILLIS = 100;
+
+    private final String name;
+    private final long slowLoadThresholdNanos;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder nearHitCount = new LongAdder();
+    private final LongAdder offHeapHitCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder retryCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+    /**
+     * Creates a new StatsCounter named "default" that reports loads taking at least 100
+     * milliseconds as slow.
+     */
+    public StatsCounter() {
+        this("default", DEFAULT_SLOW_LOAD_THRESHOLD_MILLIS);
+    }
+
+    /**
+     * Creates a new StatsCounter.
+     *
+     * @param name The name that identifies this counter in Flight Recorder events
+     * @param slowLoadThresholdMillis The load time in milliseconds from which loads are reported as slow
+     * @throws IllegalArgumentException if slowLoadThresholdMillis is negative
+     */
+    public StatsCounter(String name, long slowLoadThresholdMillis) {
+        if (slowLoadThresholdMillis < 0) {
+            throw new IllegalArgumentException("slowLoadThresholdMillis must not be negative: " + slowLoadThresholdMillis);
+        }
+        this.name = Objects.requireNonNull(name, "name");
+        this.slowLoadThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowLoadThresholdMillis);
+    }
+
+    /**
+     * Gets the name of this counter.
+     *
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Takes a snapshot of the statistics recorded so far. Counters are read one after
+     * another while recording may continue, so the snapshot is not an atomic view.
+     *
+     * @return A new snapshot
+     */
+    public StatsSnapshot snapshot() {
+        return new StatsSnapshot(hitCount.sum(), missCount.sum(), nearHitCount.sum(), offHeapHitCount.sum(),
+                evictionCount.sum(), loadSuccessCount.sum(), loadFailureCount.sum(), retryCount.sum(),
+                totalLoadTime.sum(), loadLatency.counts());
+    }
+
+    void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    void recordNearHit() {
+        hitCount.increment();
+        nearHitCount.increment();
+    }
+
+    void recordOffHeapHit() {
+        offHeapHitCount.increment();
+    }
+
+    void recordEviction() {
+        evictionCount.increment();
+    }
+
+    void recordRetry() {
+        retryCount.increment();
+    }
+
+    void recordLoadSuccess(long loadNanos) {
+        loadSuccessCount.increment();
+        recordLoadTime(loadNanos, false);
+    }
+
+    void recordLoadFailure(long loadNanos) {
+        loadFailureCount.increment();
+        recordLoadTime(loadNanos, true);
+    }
+
+    /**
+     * Runs a load, recording its outcome and how long it took.
+     */
+    <T> T load(Supplier<T> loader) {
+        long start = System.nanoTime();
+        T value;
+        try {
+            value = loader.get();
+        } catch (RuntimeException | Error e) {
+            recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+        recordLoadSuccess(System.nanoTime() - start);
+        return value;
+    }
+
+    /**
+     * Wraps a loader so that every load through it is recorded.
+     */
+    <T> Supplier<T> timed(Supplier<T> loader) {
+        Objects.requireNonNull(loader, "loader");
+        return () -> load(loader);
+    }
+
+    private void recordLoadTime(long loadNanos, boolean failed) {
+        totalLoadTime.add(loadNanos);
+        loadLatency.record(loadNanos);
+        if (loadNanos >= slowLoadThresholdNanos) {
+            SlowInitializationEvent event = new SlowInitializationEvent();
+            if (event.isEnabled()) {
+                event.source = name;
+                event.loadDuration = loadNanos;
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,196 @@
+package net.cvs0.jlazy;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the statistics collected by a {@link StatsCounter}.
+ * <p>
+ * Hits and misses count lookups; loads count initializer invocations, each of which either
+ * succeeds or fails. For a {@link LazyCache}, hits are further broken down by tier: hits served
+ * by a thread's near cache are counted in the near hit count as well, and misses whose value
+ * was found in the off-heap tier instead of being loaded are counted in the off-heap hit
+ * count. Load latencies are counted in fixed buckets: bucket 0 holds loads
+ * shorter than 1024 ns, and each further bucket doubles the upper bound of the previous one.
+ */
+public final class StatsSnapshot {
+    private final long hitCount;
+    private final long missCount;
+    private final long nearHitCount;
+    private final long offHeapHitCount;
+    private final long evictionCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long retryCount;
+    private final long totalLoadTimeNanos;
+    private final long[] loadLatencyCounts;
+
+    StatsSnapshot(long hitCount, long missCount, long nearHitCount, long offHeapHitCount, long evictionCount,
+                  long loadSuccessCount, long loadFailureCount, long retryCount, long totalLoadTimeNanos,
+                  long[] loadLatencyCounts) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.nearHitCount = nearHitCount;
+        this.offHeapHitCount = offHeapHitCount;
+        this.evictionCount = evictionCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.retryCount = retryCount;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.loadLatencyCounts = loadLatencyCounts;
+    }
+
+    static StatsSnapshot empty() {
+        return new StatsSnapshot(0, 0, 0, 0, 0, 0, 0, 0, 0, new long[LatencyHistogram.BUCKET_COUNT]);
+    }
+
+    /**
+     * Gets the number of lookups that found a value or a load already in progress.
+     *
+     * @return The hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of lookups that had to start a load.
+     *
+     * @return The miss count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the fraction of lookups that were hits.
+     *
+     * @return The hit rate, or 1.0 if there were no lookups
+     */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * Gets the number of hits served by a thread's near cache without touching the shared
+     * cache.
+     *
+     * @return The near hit count
+     */
+    public long getNearHitCount() {
+        return nearHitCount;
+    }
+
+    /**
+     * Gets the fraction of lookups that were served by a thread's near cache.
+     *
+     * @return The near hit rate, or 0.0 if there were no lookups
+     */
+    public double getNearHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0.0 : (double) nearHitCount / requests;
+    }
+
+    /**
+     * Gets the number of misses whose value was found in the off-heap tier instead of being
+     * loaded.
+     *
+     * @return The off-heap hit count
+     */
+    public long getOffHeapHitCount() {
+        return offHeapHitCount;
+    }
+
+    /**
+     * Gets the number of entries evicted because of the size limit or expiration.
+     *
+     * @return The eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Gets the number of loads that produced a value.
+     *
+     * @return The load success count
+     */
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /**
+     * Gets the number of loads that failed.
+     *
+     * @return The load failure count
+     */
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * Gets the number of attempts that were retried after a failure.
+     *
+     * @return The retry count
+     */
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Gets the total time spent loading, in nanoseconds.
+     *
+     * @return The total load time
+     */
+    public long getTotalLoadTimeNanos() {
+        return totalLoadTimeNanos;
+    }
+
+    /**
+     * Gets the average time a load took, in nanoseconds.
+     *
+     * @return The average load time, or 0 if there were no loads
+     */
+    public double getAverageLoadTimeNanos() {
+        long loads = loadSuccessCount + loadFailureCount;
+        return loads == 0 ? 0.0 : (double) totalLoadTimeNanos / loads;
+    }
+
+    /**
+     * Gets the number of loads in each latency bucket.
+     *
+     * @return A new array with the count of each bucket
+     */
+    public long[] getLoadLatencyCounts() {
+        return loadLatencyCounts.clone();
+    }
+
+    /**
+     * Gets the exclusive upper bound of a latency bucket.
+     *
+     * @param bucket The bucket index
+     * @return The upper bound in nanoseconds, or Long.MAX_VALUE for the last bucket
+     * @throws IllegalArgumentException if the bucket index is out of range
+     */
+    public static long getLoadLatencyUpperBoundNanos(int bucket) {
+        if (bucket < 0 || bucket >= LatencyHistogram.BUCKET_COUNT) {
+            throw new IllegalArgumentException("bucket must be between 0 and "
+                    + (LatencyHistogram.BUCKET_COUNT - 1) + ": " + bucket);
+        }
+        return LatencyHistogram.upperBoundNanos(bucket);
+    }
+
+    @Override
+    public String toString() {
+        return "StatsSnapshot{hitCount=" + hitCount
+                + ", missCount=" + missCount
+                + ", nearHitCount=" + nearHitCount
+                + ", offHeapHitCount=" + offHeapHitCount
+                + ", evictionCount=" + evictionCount
+                + ", loadSuccessCount=" + loadSuccessCount
+                + ", loadFailureCount=" + loadFailureCount
+                + ", retryCount=" + retryCount
+                + ", totalLoadTimeNanos=" + totalLoadTimeNanos
+                + ", loadLatencyCounts=" + Arrays.toString(loadLatencyCounts) + "}";
+    }
+}
\ No newline at end of file
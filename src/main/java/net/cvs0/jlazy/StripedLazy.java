@@ -0,0 +1,161 @@
+package net.cvs0.jlazy;
+
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A lazy value with a bounded number of instances shared by all threads, one per stripe.
+ * <p>
+ * Like {@link ThreadLocalLazy}, this spreads threads over separate instances of an expensive
+ * resource, such as a parser or a buffer, but it never creates more instances than it has
+ * stripes, no matter how many threads use it. By default there is one stripe per processor.
+ * Each thread is mapped to a stripe by its identity, and each stripe's instance is created
+ * the first time a thread mapped to it needs it.
+ * <p>
+ * Threads that map to the same stripe share its instance. {@link #get()} and
+ * {@link #initialize()} simply return it, which suits values that are safe for concurrent
+ * use. For values that are not, {@link #withValue(Function)} gives the caller exclusive use
+ * of an instance for the duration of a call: it takes the first free stripe starting from
+ * the caller's own, and only waits if every stripe is busy. Stripes are guarded by their own
+ * locks, so threads on different stripes never contend.
+ *
+ * @param <T> The type of value to be lazily initialized
+ */
+public class StripedLazy<T> implements LazyInitializer<T> {
+    private final Stripe<T>[] stripes;
+    private final int mask;
+
+    /**
+     * Creates a new StripedLazy with one stripe per processor.
+     *
+     * @param initializer The supplier function that creates an instance for a stripe
+     */
+    public StripedLazy(Supplier<T> initializer) {
+        this(initializer, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new StripedLazy.
+     *
+     * @param initializer The supplier function that creates an instance for a stripe
+     * @param stripes The maximum number of instances, rounded up to a power of two
+     * @throws IllegalArgumentException if stripes is not positive
+     */
+    @SuppressWarnings("unchecked")
+    public StripedLazy(Supplier<T> initializer, int stripes) {
+        Objects.requireNonNull(initializer, "initializer");
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive: " + stripes);
+        }
+        int count = FrequencySketch.ceilingPowerOfTwo(Math.min(stripes, 1 << 16));
+        this.stripes = new Stripe[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe<>(new Lazy<>(initializer));
+        }
+    }
+
+    /**
+     * Gets the current thread's stripe's value if it's already initialized, otherwise
+     * returns null. This method does not trigger initialization.
+     *
+     * @return The initialized value or null if not yet initialized
+     */
+    @Override
+    public T get() {
+        return stripe().lazy.get();
+    }
+
+    /**
+     * Initializes the current thread's stripe's value if not already initialized and
+     * returns it. The value may be in use by other threads on the same stripe.
+     *
+     * @return The initialized value
+     * @throws InterruptedException if the initialization process is interrupted
+     */
+    @Override
+    public T initialize() throws InterruptedException {
+        return stripe().lazy.initialize();
+    }
+
+    /**
+     * Checks if the current thread's stripe's value has been initialized.
+     *
+     * @return true if the value has been initialized, false otherwise
+     */
+    @Override
+    public boolean isInitialized() {
+        return stripe().lazy.isInitialized();
+    }
+
+    /**
+     * Runs an action with exclusive use of one of the instances, initializing it if needed.
+     * No other call to this method uses the same instance until the action returns.
+     *
+     * @param action The action to run with the instance
+     * @param <R> The type of the action's result
+     * @return The result of the action
+     * @throws InterruptedException if the thread is interrupted while waiting for an instance
+     */
+    public <R> R withValue(Function<? super T, ? extends R> action) throws InterruptedException {
+        Objects.requireNonNull(action, "action");
+        int home = index();
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe<T> stripe = stripes[(home + i) & mask];
+            if (stripe.lock.tryLock()) {
+                return apply(stripe, action);
+            }
+        }
+        // Every stripe is busy, so wait for the caller's own
+        Stripe<T> stripe = stripes[home];
+        stripe.lock.lockInterruptibly();
+        return apply(stripe, action);
+    }
+
+    /**
+     * Gets the number of instances that have been created so far.
+     *
+     * @return The number of initialized stripes
+     */
+    public int initializedCount() {
+        int count = 0;
+        for (Stripe<T> stripe : stripes) {
+            if (stripe.lazy.isInitialized()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Must be called with the stripe's lock held; releases it.
+     */
+    private static <T, R> R apply(Stripe<T> stripe, Function<? super T, ? extends R> action) throws InterruptedException {
+        try {
+            return action.apply(stripe.lazy.initialize());
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private Stripe<T> stripe() {
+        return stripes[index()];
+    }
+
+    private int index() {
+        long id = Thread.currentThread().getId();
+        long h = id * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static final class Stripe<T> {
+        final Lazy<T> lazy;
+        final ReentrantLock lock = new ReentrantLock();
+
+        Stripe(Lazy<T> lazy) {
+            this.lazy = lazy;
+        }
+    }
+}
\ No newline at end of file
@@ -4,13 +4,25 @@ import java.util.function.Supplier;
 
 /**
  * A lazy initialization implementation that provides thread-local values.
+ * <p>
+ * Each thread gets its own value, created by the initializer the first time that thread
+ * calls {@link #initialize()}. Every call is a single thread-local lookup, and since no
+ * value is ever shared, initialization takes no lock: threads initializing their values at
+ * the same time never wait for each other. If the initializer throws, the calling thread's
+ * value stays uninitialized.
+ * <p>
+ * Every thread that initializes the value keeps its own instance until {@link #remove()} is
+ * called on it or the thread ends. For expensive resources used by many threads,
+ * {@link StripedLazy} bounds the number of instances instead.
  * 
  * @param <T> The type of value to be lazily initialized
  */
 public class ThreadLocalLazy<T> implements LazyInitializer<T> {
+    // Stands in for a null value, since an absent thread-local value reads as null
+    private static final Object NULL = new Object();
+
     private final Supplier<T> initializer;
-    private final ThreadLocal<T> value = new ThreadLocal<>();
-    private final ThreadLocal<Boolean> initialized = ThreadLocal.withInitial(() -> false);
+    private final ThreadLocal<Object> value = new ThreadLocal<>();
 
     /**
      * Creates a new ThreadLocalLazy instance.
@@ -28,11 +40,10 @@ public class ThreadLocalLazy<T> implements LazyInitializer<T> {
      * @return The initialized thread-local value or null if not yet initialized
      */
     @Override
+    @SuppressWarnings("unchecked")
     public T get() {
-        if (!initialized.get()) {
-            return null;
-        }
-        return value.get();
+        Object current = value.get();
+        return current == NULL ? null : (T) current;
     }
     
     /**
@@ -42,16 +53,15 @@ public class ThreadLocalLazy<T> implements LazyInitializer<T> {
      * @throws InterruptedException if the initialization process is interrupted
      */
     @Override
+    @SuppressWarnings("unchecked")
     public T initialize() throws InterruptedException {
-        if (!initialized.get()) {
-            synchronized (this) {
-                if (!initialized.get()) {
-                    value.set(initializer.get());
-                    initialized.set(true);
-                }
-            }
+        Object current = value.get();
+        if (current == null) {
+            T created = initializer.get();
+            value.set(created == null ? NULL : created);
+            return created;
         }
-        return value.get();
+        return current == NULL ? null : (T) current;
     }
     
     /**
@@ -61,7 +71,7 @@ public class ThreadLocalLazy<T> implements LazyInitializer<T> {
      */
     @Override
     public boolean isInitialized() {
-        return initialized.get();
+        return value.get() != null;
     }
     
     /**
@@ -69,6 +79,5 @@ public class ThreadLocalLazy<T> implements LazyInitializer<T> {
      */
     public void remove() {
         value.remove();
-        initialized.remove();
     }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package net.cvs0.jlazy;
+
+/**
+ * A source of monotonic time in nanoseconds, used to measure expiration.
+ * <p>
+ * Only the difference between two readings is meaningful, as with {@link System#nanoTime()}.
+ * Besides the {@link #system() system ticker}, a {@link #coarse(long) coarse ticker} trades
+ * resolution for a cheaper read on hot paths, and a {@link ManualTicker} lets tests control
+ * time.
+ */
+@FunctionalInterface
+public interface Ticker {
+
+    /**
+     * Reads the current time.
+     *
+     * @return The current time in nanoseconds, relative to an arbitrary origin
+     */
+    long read();
+
+    /**
+     * Gets a ticker that reads {@link System#nanoTime()}.
+     *
+     * @return The system ticker
+     */
+    static Ticker system() {
+        return System::nanoTime;
+    }
+
+    /**
+     * Gets a shared ticker that a background thread updates at the given resolution, so that
+     * reading it is a single volatile read. All callers asking for the same resolution share
+     * one ticker and thread, which is a daemon thread and never stops.
+     *
+     * @param resolutionMillis The time in milliseconds between updates
+     * @return The coarse ticker for the resolution
+     * @throws IllegalArgumentException if resolutionMillis is not positive
+     */
+    static Ticker coarse(long resolutionMillis) {
+        if (resolutionMillis <= 0) {
+            throw new IllegalArgumentException("resolutionMillis must be positive: " + resolutionMillis);
+        }
+        return CoarseTicker.shared(resolutionMillis);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,158 @@
+package net.cvs0.jlazy;
+
+import java.util.function.Predicate;
+
+/**
+ * A hierarchical timing wheel that tracks when {@link LazyCache} entries expire.
+ * <p>
+ * Entries are hashed into buckets by their expiration time, with coarser levels for times
+ * further in the future. Scheduling, rescheduling and descheduling an entry are O(1).
+ * Advancing the wheel only visits the buckets whose time span has passed since the previous
+ * advance, cascading entries from coarser levels into finer ones as their time approaches,
+ * so expired entries are found without scanning the whole cache.
+ * <p>
+ * Instances are not thread-safe; callers must guard them with their own lock.
+ *
+ * @param <K> The type of keys of the tracked entries
+ * @param <V> The type of values of the tracked entries
+ */
+final class TimerWheel<K, V> {
+    private static final int[] BUCKETS = {64, 64, 64, 64, 1};
+    // Roughly 16.8 ms, 1.07 s, 1.15 min, 1.22 h and 3.26 days per bucket
+    private static final int[] SHIFTS = {24, 30, 36, 42, 48};
+
+    private final LazyCache.Node<K, V>[][] wheel;
+    private final Predicate<LazyCache.Node<K, V>> expirer;
+    private long nanos;
+
+    /**
+     * Creates a new timer wheel.
+     *
+     * @param expirer Called for each entry whose scheduled time has passed. It returns true if
+     *                the entry was removed, or updates the entry's expiration time and returns
+     *                false to have it rescheduled.
+     * @param nanos The current time in nanoseconds
+     */
+    @SuppressWarnings("unchecked")
+    TimerWheel(Predicate<LazyCache.Node<K, V>> expirer, long nanos) {
+        this.expirer = expirer;
+        this.nanos = nanos;
+        this.wheel = new LazyCache.Node[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            wheel[i] = new LazyCache.Node[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                wheel[i][j] = LazyCache.Node.sentinel();
+                wheel[i][j].timerPrev = wheel[i][j];
+                wheel[i][j].timerNext = wheel[i][j];
+            }
+        }
+    }
+
+    /**
+     * Schedules an entry at its current expiration time.
+     *
+     * @param node The entry to schedule
+     */
+    void schedule(LazyCache.Node<K, V> node) {
+        LazyCache.Node<K, V> sentinel = findBucket(node.expirationTime);
+        LazyCache.Node<K, V> last = sentinel.timerPrev;
+        node.timerPrev = last;
+        node.timerNext = sentinel;
+        last.timerNext = node;
+        sentinel.timerPrev = node;
+    }
+
+    /**
+     * Moves an entry to the bucket for its current expiration time.
+     *
+     * @param node The entry to reschedule
+     */
+    void reschedule(LazyCache.Node<K, V> node) {
+        deschedule(node);
+        schedule(node);
+    }
+
+    /**
+     * Removes an entry from the wheel if it is scheduled.
+     *
+     * @param node The entry to remove
+     */
+    void deschedule(LazyCache.Node<K, V> node) {
+        if (node.timerNext != null) {
+            node.timerPrev.timerNext = node.timerNext;
+            node.timerNext.timerPrev = node.timerPrev;
+            node.timerPrev = null;
+            node.timerNext = null;
+        }
+    }
+
+    /**
+     * Removes every entry from the wheel.
+     */
+    void clear() {
+        for (LazyCache.Node<K, V>[] buckets : wheel) {
+            for (LazyCache.Node<K, V> sentinel : buckets) {
+                sentinel.timerPrev = sentinel;
+                sentinel.timerNext = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Advances the wheel to the given time, passing every entry whose bucket has expired to
+     * the expirer.
+     *
+     * @param currentNanos The current time in nanoseconds
+     */
+    void advance(long currentNanos) {
+        long previousNanos = nanos;
+        if (currentNanos <= previousNanos) {
+            return;
+        }
+        nanos = currentNanos;
+        for (int i = 0; i < SHIFTS.length; i++) {
+            long previousTicks = previousNanos >>> SHIFTS[i];
+            long currentTicks = currentNanos >>> SHIFTS[i];
+            if (currentTicks == previousTicks) {
+                break;
+            }
+            expire(i, previousTicks, currentTicks);
+        }
+    }
+
+    private void expire(int level, long previousTicks, long currentTicks) {
+        LazyCache.Node<K, V>[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(1 + currentTicks - previousTicks, buckets.length);
+        int start = (int) (previousTicks & mask);
+        for (int i = start; i < start + steps; i++) {
+            LazyCache.Node<K, V> sentinel = buckets[i & mask];
+            LazyCache.Node<K, V> node = sentinel.timerNext;
+            sentinel.timerPrev = sentinel;
+            sentinel.timerNext = sentinel;
+            while (node != sentinel) {
+                LazyCache.Node<K, V> next = node.timerNext;
+                node.timerPrev = null;
+                node.timerNext = null;
+                if (!expirer.test(node)) {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    private LazyCache.Node<K, V> findBucket(long time) {
+        // An entry that is already due goes into the bucket the next advance visits first
+        time = Math.max(time, nanos);
+        long duration = time - nanos;
+        int last = wheel.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < (1L << SHIFTS[i + 1])) {
+                long ticks = time >>> SHIFTS[i];
+                return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+            }
+        }
+        return wheel[last][0];
+    }
+}
\ No newline at end of file
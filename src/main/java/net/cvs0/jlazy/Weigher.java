@@ -0,0 +1,24 @@
+package net.cvs0.jlazy;
+
+/**
+ * Calculates the weight of a cache entry, such as an estimate of its size in bytes, for
+ * {@link LazyCache.Builder#maximumWeight(long)}.
+ * <p>
+ * An entry is weighed once, when its value has been initialized, and keeps that weight until
+ * it leaves the cache. Weighers are called concurrently and should be fast.
+ *
+ * @param <K> The type of keys being weighed
+ * @param <V> The type of values being weighed
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    /**
+     * Calculates the weight of an entry.
+     *
+     * @param key The key of the entry
+     * @param value The initialized value of the entry, which may be null
+     * @return The weight of the entry; must not be negative
+     */
+    int weigh(K key, V value);
+}
\ No newline at end of file
@@ -0,0 +1,138 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncLazyTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneInitialization() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> {
+            calls.incrementAndGet();
+            awaitUninterruptibly(release);
+            return "value";
+        }, executor);
+        
+        CompletableFuture<String> first = lazy.initializeAsync();
+        CompletableFuture<String> second = lazy.initializeAsync();
+        assertNotSame(first, second, "Every caller should get a future of its own");
+        assertFalse(first.isDone(), "initializeAsync should not wait for the initializer");
+        assertTrue(lazy.isInitializing());
+        assertNull(lazy.get(), "get should not wait for the initializer");
+        
+        release.countDown();
+        assertEquals("value", first.get(5, TimeUnit.SECONDS));
+        assertEquals("value", second.get(5, TimeUnit.SECONDS));
+        assertTrue(lazy.isInitialized());
+        assertFalse(lazy.isInitializing());
+        assertEquals("value", lazy.initialize());
+        assertEquals("value", lazy.initializeAsync().getNow(null), "An initialized value should complete immediately");
+        assertEquals(1, calls.get(), "The initializer should run once");
+    }
+    
+    @Test
+    public void testTimeoutDoesNotCancelTheLoadForOthers() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> {
+            calls.incrementAndGet();
+            awaitUninterruptibly(release);
+            return "value";
+        }, executor);
+        
+        CompletableFuture<String> impatient = lazy.initializeAsync(50);
+        CompletableFuture<String> patient = lazy.initializeAsync();
+        ExecutionException timedOut = assertThrows(ExecutionException.class, () -> impatient.get(5, TimeUnit.SECONDS));
+        assertTrue(timedOut.getCause() instanceof TimeoutException);
+        assertFalse(patient.isDone(), "Other callers should keep waiting");
+        
+        release.countDown();
+        assertEquals("value", patient.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get(), "The timeout should not restart the initializer");
+        assertThrows(IllegalArgumentException.class, () -> lazy.initializeAsync(0));
+    }
+    
+    @Test
+    public void testLoadIsCancelledOnceAllCallersGiveUp() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> {
+            if (calls.incrementAndGet() > 1) {
+                return "second";
+            }
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "first";
+        }, executor);
+        
+        CompletableFuture<String> first = lazy.initializeAsync();
+        CompletableFuture<String> second = lazy.initializeAsync();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        
+        first.cancel(false);
+        assertFalse(interrupted.await(50, TimeUnit.MILLISECONDS), "The load should continue while a caller waits");
+        second.cancel(false);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "The initializer should be interrupted once nobody waits");
+        assertThrows(CancellationException.class, second::join);
+        
+        assertEquals("second", lazy.initializeAsync().get(5, TimeUnit.SECONDS), "A later call should start over");
+        assertEquals("second", lazy.get(), "The result of a cancelled load should be discarded");
+        assertEquals(2, calls.get());
+    }
+    
+    @Test
+    public void testFailureResetsForTheNextCaller() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("first attempt fails");
+            }
+            return "value";
+        }, executor);
+        
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> lazy.initializeAsync().get(5, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof IllegalStateException);
+        assertFalse(lazy.isInitialized(), "A failed initialization should leave the value uninitialized");
+        assertEquals("value", lazy.initialize(), "The next caller should retry");
+        assertEquals(2, calls.get());
+        
+        executor.shutdown();
+        AsyncLazy<String> rejected = new AsyncLazy<>(() -> "unused", executor);
+        assertThrows(RejectedExecutionException.class, rejected::initialize);
+        assertFalse(rejected.isInitializing(), "A rejected initialization should be cleared");
+    }
+    
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class BatchLoaderTest {
+
+    private static Map<Integer, String> loadAll(Set<Integer> keys) {
+        Map<Integer, String> values = new HashMap<>();
+        for (Integer key : keys) {
+            values.put(key, "value-" + key);
+        }
+        return values;
+    }
+
+    @Test
+    public void testRequestsAreCoalescedBySize() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            List<Set<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+            BatchLoader<Integer, String> loader = new BatchLoader<>(keys -> {
+                batches.add(keys);
+                return loadAll(keys);
+            }, 3, TimeUnit.MINUTES.toMillis(1), scheduler);
+            
+            CompletableFuture<String> first = loader.load(1);
+            CompletableFuture<String> duplicate = loader.load(1);
+            CompletableFuture<String> second = loader.load(2);
+            assertEquals(2, loader.pendingCount(), "Duplicate keys should share a pending request");
+            CompletableFuture<String> third = loader.load(3);
+            
+            assertEquals("value-1", first.get(1, TimeUnit.SECONDS));
+            assertEquals("value-1", duplicate.get(1, TimeUnit.SECONDS), "Duplicate keys should share a load");
+            assertEquals("value-2", second.get(1, TimeUnit.SECONDS));
+            assertEquals("value-3", third.get(1, TimeUnit.SECONDS));
+            assertEquals(1, batches.size(), "A full batch should be loaded in one call");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testPartialBatchIsDispatchedAfterDelay() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            BatchLoader<Integer, String> loader = new BatchLoader<>(BatchLoaderTest::loadAll, 100, 10, scheduler);
+            
+            CompletableFuture<String> future = loader.load(7);
+            
+            assertEquals("value-7", future.get(1, TimeUnit.SECONDS), "A partial batch should load after the delay");
+            assertEquals(0, loader.pendingCount(), "No keys should be left pending");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testMissingKeysFail() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            BatchLoader<Integer, String> loader = new BatchLoader<>(keys -> Collections.emptyMap(), 10, 1000, scheduler);
+            
+            CompletableFuture<String> future = loader.load(1);
+            loader.dispatch();
+            
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+            assertTrue(exception.getCause() instanceof NoSuchElementException, "Missing keys should fail");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testCacheMissesShareBatches() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            List<Set<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+            BatchLoader<Integer, String> loader = new BatchLoader<>(keys -> {
+                batches.add(keys);
+                return loadAll(keys);
+            }, 2, TimeUnit.MINUTES.toMillis(1), scheduler);
+            LazyCache<Integer, String> cache = new LazyCache<>();
+            
+            CompletableFuture<String> first = cache.getOrCreateAsync(1, loader);
+            CompletableFuture<String> second = cache.getOrCreateAsync(2, loader);
+            
+            assertEquals("value-1", first.get(1, TimeUnit.SECONDS));
+            assertEquals("value-2", second.get(1, TimeUnit.SECONDS));
+            assertEquals(1, batches.size(), "Cache misses should be loaded in one batch");
+            assertEquals("value-1", cache.getOrCreate(1, () -> "other").get(), "Batched values should be cached");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testCancellingOneRequestLeavesOthersPending() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            BatchLoader<Integer, String> loader = new BatchLoader<>(BatchLoaderTest::loadAll, 10, TimeUnit.MINUTES.toMillis(1), scheduler);
+            
+            CompletableFuture<String> cancelled = loader.load(1);
+            CompletableFuture<String> other = loader.load(1);
+            cancelled.cancel(false);
+            loader.dispatch();
+            
+            assertThrows(CancellationException.class, () -> cancelled.get(1, TimeUnit.SECONDS));
+            assertEquals("value-1", other.get(1, TimeUnit.SECONDS), "Cancelling one request should not cancel the shared load");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testRejectedBatchesFail() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.shutdown();
+        BatchLoader<Integer, String> delayed = new BatchLoader<>(BatchLoaderTest::loadAll, 10, 1000, scheduler);
+        BatchLoader<Integer, String> full = new BatchLoader<>(BatchLoaderTest::loadAll, 1, 1000, scheduler);
+        
+        CompletableFuture<String> waiting = delayed.load(1);
+        CompletableFuture<String> dispatched = full.load(1);
+        
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> waiting.get(1, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof RejectedExecutionException, "A batch that cannot be scheduled should fail");
+        assertEquals(0, delayed.pendingCount(), "A rejected batch should not be left pending");
+        exception = assertThrows(ExecutionException.class, () -> dispatched.get(1, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof RejectedExecutionException, "A batch that cannot be executed should fail");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,51 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, TimeUnit.MINUTES.toMillis(1));
+        
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(), "A success should reset the failure count");
+        
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(), "Breaker should open at the threshold");
+        assertFalse(circuitBreaker.tryAcquire(), "Open breaker should reject calls");
+    }
+    
+    @Test
+    public void testHalfOpenProbe() {
+        ManualTicker ticker = new ManualTicker();
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 50, ticker);
+        circuitBreaker.onFailure();
+        assertFalse(circuitBreaker.tryAcquire(), "Open breaker should reject calls");
+        
+        ticker.advance(49);
+        assertFalse(circuitBreaker.tryAcquire(), "Breaker should stay open for the full duration");
+        ticker.advance(1);
+        
+        assertTrue(circuitBreaker.tryAcquire(), "A probe should be allowed after the open duration");
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire(), "Only one probe should be allowed at a time");
+        
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(), "A failed probe should reopen the breaker");
+        
+        ticker.advance(50);
+        
+        assertTrue(circuitBreaker.tryAcquire(), "A new probe should be allowed after the open duration");
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(), "A successful probe should close the breaker");
+        assertTrue(circuitBreaker.tryAcquire(), "Closed breaker should allow calls");
+    }
+}
\ No newline at end of file
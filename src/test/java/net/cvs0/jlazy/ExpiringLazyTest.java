@@ -1,9 +1,14 @@
 package net.cvs0.jlazy;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ExpiringLazyTest {
 
@@ -42,4 +47,225 @@ public class ExpiringLazyTest {
         assertTrue(expiringLazy.getTimeSinceLastAccess() < 1000, 
                 "Time since last access should be less than 1 second after initialization");
     }
+    
+    @Test
+    public void testExpireAfterWriteIgnoresAccess() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        AtomicInteger loads = new AtomicInteger();
+        ExpiringLazy<Integer> expiringLazy = ExpiringLazy.builder(loads::incrementAndGet)
+                .expireAfterWrite(300)
+                .ticker(ticker)
+                .build();
+        
+        assertEquals(1, expiringLazy.initialize(), "First load should return 1");
+        for (int i = 0; i < 4; i++) {
+            ticker.advance(100);
+            expiringLazy.get();
+        }
+        
+        assertFalse(expiringLazy.isInitialized(), "Value should expire after write even if accessed");
+        assertEquals(2, expiringLazy.initialize(), "Expired value should be reloaded");
+        assertEquals(ExpiringLazy.ExpiryMode.AFTER_WRITE, expiringLazy.getExpiryMode());
+    }
+    
+    @Test
+    public void testRefreshAheadServesCurrentValueWhileReloading() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        ManualTicker ticker = new ManualTicker();
+        ExpiringLazy<Integer> expiringLazy = ExpiringLazy.builder(loads::incrementAndGet)
+                .expireAfterWrite(1000)
+                .refreshAhead(0.2, Runnable::run)
+                .ticker(ticker)
+                .build();
+        
+        assertEquals(1, expiringLazy.initialize(), "First load should return 1");
+        assertEquals(1, expiringLazy.initialize(), "Fresh value should not be refreshed");
+        
+        ticker.advance(300);
+        
+        assertEquals(1, expiringLazy.initialize(), "Caller triggering the refresh should get the current value");
+        assertEquals(2, expiringLazy.get(), "Later callers should get the refreshed value");
+        assertEquals(2, loads.get(), "Value should have been loaded twice");
+    }
+    
+    @Test
+    public void testStaleValueIsServedDuringGracePeriod() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        AtomicInteger loads = new AtomicInteger();
+        ExpiringLazy<String> expiringLazy = ExpiringLazy.<String>builder(() -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new IllegalStateException("Backend down");
+            }
+            return "Original";
+        }).expireAfterWrite(100).staleGracePeriod(400).ticker(ticker).build();
+        
+        expiringLazy.initialize();
+        ticker.advance(150);
+        
+        assertEquals("Original", expiringLazy.initialize(), "Stale value should be served when reloading fails");
+        assertEquals("Original", expiringLazy.get(), "Stale value should stay available during the grace period");
+        
+        ticker.advance(500);
+        
+        assertThrows(IllegalStateException.class, expiringLazy::initialize, "Failure should surface after the grace period");
+    }
+    
+    @Test
+    public void testReadingStaleValueDoesNotExtendGracePeriod() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        AtomicInteger loads = new AtomicInteger();
+        ExpiringLazy<String> expiringLazy = ExpiringLazy.<String>builder(() -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new IllegalStateException("Backend down");
+            }
+            return "Original";
+        }).expireAfterAccess(100).staleGracePeriod(200).ticker(ticker).build();
+        
+        expiringLazy.initialize();
+        ticker.advance(150);
+        assertEquals("Original", expiringLazy.initialize(), "Stale value should be served when reloading fails");
+        for (int i = 0; i < 3; i++) {
+            ticker.advance(40);
+            assertEquals("Original", expiringLazy.get(), "Stale value should stay available during the grace period");
+        }
+        
+        ticker.advance(40);
+        
+        assertNull(expiringLazy.get(), "Reads should not extend the grace period past its end");
+        assertThrows(IllegalStateException.class, expiringLazy::initialize, "Failure should surface after the grace period");
+        assertEquals(3, loads.get(), "The value should be loaded again once the grace period has ended");
+    }
+    
+    @Test
+    public void testFailedRefreshIsNotRetriedOnEveryRead() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        AtomicInteger loads = new AtomicInteger();
+        ExpiringLazy<String> expiringLazy = ExpiringLazy.<String>builder(() -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new IllegalStateException("Backend down");
+            }
+            return "Original";
+        }).expireAfterWrite(1000).refreshAhead(0.2, Runnable::run).ticker(ticker).build();
+        
+        expiringLazy.initialize();
+        ticker.advance(300);
+        assertEquals("Original", expiringLazy.get(), "Current value should be served while refreshing");
+        assertEquals(2, loads.get(), "A refresh should have been attempted");
+        
+        for (int i = 0; i < 3; i++) {
+            ticker.advance(50);
+            assertEquals("Original", expiringLazy.get());
+        }
+        assertEquals(2, loads.get(), "A failed refresh should not be retried before the refresh time has passed again");
+        
+        ticker.advance(50);
+        expiringLazy.get();
+        assertEquals(3, loads.get(), "A failed refresh should be retried after the refresh time");
+    }
+    
+    @Test
+    public void testAccessWithinAMillisecondDoesNotExtendExpiry() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        ExpiringLazy<String> expiringLazy = ExpiringLazy.builder(() -> "Value")
+                .expireAfterAccess(100)
+                .ticker(ticker)
+                .build();
+        
+        expiringLazy.initialize();
+        ticker.advance(60);
+        assertEquals("Value", expiringLazy.get(), "Access should extend the expiry");
+        ticker.advance(60);
+        assertTrue(expiringLazy.isInitialized(), "Value should not expire after the last access was recorded");
+        assertEquals(60, expiringLazy.getTimeSinceLastAccess());
+        
+        ticker.advance(41);
+        assertFalse(expiringLazy.isInitialized(), "Value should expire once idle for the expiration time");
+    }
+    
+    @Test
+    public void testLoadedValueIsNeverSeenWithStaleAccessTime() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        AtomicReference<ExpiringLazy<Integer>> self = new AtomicReference<>();
+        AtomicBoolean reading = new AtomicBoolean();
+        // Checks the value on every clock read, like a concurrent reader would
+        Ticker observing = () -> {
+            ExpiringLazy<Integer> lazy = self.get();
+            if (lazy != null && reading.compareAndSet(false, true)) {
+                try {
+                    lazy.isInitialized();
+                } finally {
+                    reading.set(false);
+                }
+            }
+            return ticker.read();
+        };
+        AtomicInteger loads = new AtomicInteger();
+        ExpiringLazy<Integer> expiringLazy = ExpiringLazy.builder(loads::incrementAndGet)
+                .expireAfterAccess(100)
+                .ticker(observing)
+                .build();
+        
+        ticker.advance(200);
+        self.set(expiringLazy);
+        assertEquals(1, expiringLazy.initialize());
+        assertTrue(expiringLazy.isInitialized(), "A fresh value should not be discarded as expired");
+        assertEquals(1, expiringLazy.initialize());
+        assertEquals(1, loads.get(), "A fresh value should not be loaded again");
+    }
+    
+    @Test
+    public void testBuilderRequiresExpiration() {
+        assertThrows(IllegalStateException.class, () -> ExpiringLazy.builder(() -> "Value").build());
+        assertThrows(IllegalArgumentException.class, () -> ExpiringLazy.builder(() -> "Value").refreshAhead(1.5, Runnable::run));
+    }
+    
+    @Test
+    public void testInvalidationFromAnotherProcess(@TempDir Path directory) throws InterruptedException {
+        Path file = directory.resolve("invalidations");
+        InvalidationChannel channel = new InvalidationChannel(file, 16);
+        AtomicInteger loads = new AtomicInteger();
+        ExpiringLazy<Integer> expiringLazy = ExpiringLazy.builder(loads::incrementAndGet)
+                .expireAfterWrite(60000)
+                .invalidatedBy(channel, "config")
+                .build();
+        InvalidationChannel otherProcess = new InvalidationChannel(file, 16);
+        
+        assertEquals(1, expiringLazy.initialize());
+        otherProcess.invalidate("other");
+        channel.poll();
+        assertTrue(expiringLazy.isInitialized(), "Invalidating another key should keep the value");
+        
+        otherProcess.invalidate("config");
+        channel.poll();
+        assertFalse(expiringLazy.isInitialized(), "Invalidating the value's key should discard it");
+        assertEquals(2, expiringLazy.initialize());
+        
+        expiringLazy.invalidate();
+        assertFalse(expiringLazy.isInitialized());
+    }
+    
+    @Test
+    public void testInvalidationDuringLoadDiscardsTheResult(@TempDir Path directory) throws InterruptedException {
+        Path file = directory.resolve("invalidations");
+        InvalidationChannel channel = new InvalidationChannel(file, 16);
+        InvalidationChannel otherProcess = new InvalidationChannel(file, 16);
+        AtomicInteger loads = new AtomicInteger();
+        ExpiringLazy<Integer> expiringLazy = ExpiringLazy.builder(() -> {
+                    int load = loads.incrementAndGet();
+                    if (load == 1) {
+                        // The value was read before this invalidation arrives
+                        otherProcess.invalidate("config");
+                        channel.poll();
+                    }
+                    return load;
+                })
+                .expireAfterWrite(60000)
+                .invalidatedBy(channel, "config")
+                .build();
+        
+        assertEquals(1, expiringLazy.initialize(), "The caller should still get the value it waited for");
+        assertFalse(expiringLazy.isInitialized(), "A value loaded across an invalidation should not be kept");
+        assertEquals(2, expiringLazy.initialize());
+        assertTrue(expiringLazy.isInitialized());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class InvalidationChannelTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testInvalidationsReachOtherChannels() {
+        Path file = directory.resolve("invalidations");
+        // Two channels on one file stand in for two processes
+        InvalidationChannel first = new InvalidationChannel(file, 16);
+        InvalidationChannel second = new InvalidationChannel(file, 16);
+        RecordingListener received = new RecordingListener();
+        RecordingListener own = new RecordingListener();
+        second.subscribe(received);
+        first.subscribe(own);
+        
+        assertEquals(0, second.poll(), "Nothing should be delivered before anything is published");
+        first.invalidate("config");
+        first.invalidateAll();
+        assertEquals(List.of("config".hashCode() + "", "all"), own.events, "Local subscribers should be notified right away");
+        assertTrue(received.events.isEmpty(), "Other channels should only be notified when polling");
+        
+        assertEquals(2, second.poll());
+        assertEquals(List.of("config".hashCode() + "", "all"), received.events);
+        assertEquals(0, first.poll(), "A channel should not receive its own invalidations");
+        assertEquals(0, second.poll(), "Invalidations should be delivered once");
+    }
+    
+    @Test
+    public void testOverflowFallsBackToFullClear() {
+        Path file = directory.resolve("invalidations");
+        InvalidationChannel first = new InvalidationChannel(file, 4);
+        InvalidationChannel second = new InvalidationChannel(file, 1000);
+        RecordingListener received = new RecordingListener();
+        second.subscribe(received);
+        
+        assertEquals(4, second.getCapacity(), "The capacity of an existing file should be kept");
+        for (int i = 0; i < 5; i++) {
+            first.invalidate(i);
+        }
+        
+        assertEquals(1, second.poll());
+        assertEquals(List.of("all"), received.events, "Missed invalidations should clear everything");
+        first.invalidate(42);
+        assertEquals(1, second.poll());
+        assertEquals(List.of("all", "42"), received.events, "The channel should resume after an overflow");
+    }
+    
+    @Test
+    public void testStalledPublisherFallsBackToFullClear() throws IOException {
+        Path file = directory.resolve("invalidations");
+        ManualTicker ticker = new ManualTicker();
+        InvalidationChannel first = new InvalidationChannel(file, 16);
+        InvalidationChannel second = new InvalidationChannel(file, 16, ticker);
+        RecordingListener received = new RecordingListener();
+        second.subscribe(received);
+        
+        // A publisher that claimed a record and died before writing it
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer sequence = ByteBuffer.allocate(8);
+            sequence.putLong(0, 1).clear();
+            channel.write(sequence, 16);
+        }
+        first.invalidate("config");
+        
+        assertEquals(0, second.poll(), "A record that is being written should be waited for");
+        ticker.advance(500);
+        assertEquals(0, second.poll());
+        assertTrue(received.events.isEmpty());
+        
+        ticker.advance(600);
+        assertEquals(2, second.poll());
+        assertEquals(List.of("all", "config".hashCode() + ""), received.events,
+                "A record that stays unwritten should clear everything and let later records through");
+        assertEquals(0, second.poll());
+    }
+    
+    @Test
+    public void testRejectsOtherFiles() throws IOException {
+        Path file = directory.resolve("other");
+        Files.write(file, new byte[128]);
+        
+        assertThrows(IllegalStateException.class, () -> new InvalidationChannel(file, 16));
+        assertThrows(IllegalArgumentException.class, () -> new InvalidationChannel(directory.resolve("new"), 0));
+    }
+    
+    private static final class RecordingListener implements InvalidationChannel.Listener {
+        final List<String> events = new ArrayList<>();
+        
+        @Override
+        public void invalidate(int hash) {
+            events.add(Integer.toString(hash));
+        }
+        
+        @Override
+        public void invalidateAll() {
+            events.add("all");
+        }
+    }
+}
\ No newline at end of file
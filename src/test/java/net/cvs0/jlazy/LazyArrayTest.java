@@ -0,0 +1,110 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LazyArrayTest {
+
+    @Test
+    public void testElementsAreInitializedIndependently() throws InterruptedException {
+        AtomicInteger calls = new AtomicInteger();
+        LazyArray<String> array = new LazyArray<>(3, index -> {
+            calls.incrementAndGet();
+            return "element" + index;
+        });
+        
+        assertEquals(3, array.length());
+        assertFalse(array.isInitialized(1), "No element should be initialized before first access");
+        assertNull(array.get(1), "get should not trigger initialization");
+        
+        assertEquals("element1", array.initialize(1));
+        assertEquals("element1", array.initialize(1));
+        assertEquals("element1", array.get(1));
+        assertTrue(array.isInitialized(1));
+        assertFalse(array.isInitialized(0), "Other elements should stay uninitialized");
+        assertEquals(1, calls.get(), "The initializer should run once per element");
+    }
+    
+    @Test
+    public void testNullElementsAndFailures() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        LazyArray<String> array = new LazyArray<>(2, index -> {
+            if (index == 1 && attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("first attempt fails");
+            }
+            return index == 0 ? null : "ok";
+        });
+        
+        assertNull(array.initialize(0));
+        assertTrue(array.isInitialized(0), "A null element should count as initialized");
+        
+        assertThrows(IllegalStateException.class, () -> array.initialize(1));
+        assertFalse(array.isInitialized(1), "A failed element should stay uninitialized");
+        assertEquals("ok", array.initialize(1), "A failed element should be computed again");
+        
+        assertThrows(IndexOutOfBoundsException.class, () -> array.initialize(2));
+        assertThrows(IllegalArgumentException.class, () -> new LazyArray<>(-1, index -> index));
+    }
+    
+    @Test
+    public void testConcurrentInitializationRunsOnce() throws InterruptedException {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        LazyArray<Object> array = new LazyArray<>(4, index -> {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Object();
+        });
+        
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<Object> first = new AtomicReference<>();
+        AtomicInteger mismatches = new AtomicInteger();
+        for (int i = 0; i < 16; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    Object value = array.initialize(2);
+                    if (!first.compareAndSet(null, value) && first.get() != value) {
+                        mismatches.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        assertEquals(1, calls.get(), "The element should be computed exactly once");
+        assertEquals(0, mismatches.get(), "All threads should see the same element");
+    }
+    
+    @Test
+    public void testRecursiveInitializationFails() {
+        AtomicReference<LazyArray<Integer>> self = new AtomicReference<>();
+        self.set(new LazyArray<>(1, index -> {
+            try {
+                return self.get().initialize(index);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        
+        assertThrows(IllegalStateException.class, () -> self.get().initialize(0));
+        assertFalse(self.get().isInitialized(0));
+    }
+}
\ No newline at end of file
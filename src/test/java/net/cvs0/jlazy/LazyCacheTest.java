@@ -1,8 +1,28 @@
 package net.cvs0.jlazy;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class LazyCacheTest {
 
     @Test
@@ -39,4 +59,817 @@ public class LazyCacheTest {
         cache.clear();
         assertEquals(0, cache.size(), "Cache should be empty after clear");
     }
+    
+    @Test
+    public void testConcurrentGetOrCreateInitializesOnce() throws Exception {
+        LazyCache<Integer, Object> cache = new LazyCache<>();
+        AtomicInteger counter = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Lazy<Object>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.getOrCreate(42, () -> {
+                        counter.incrementAndGet();
+                        return new Object();
+                    });
+                }));
+            }
+            start.countDown();
+            
+            Object first = results.get(0).get().get();
+            for (Future<Lazy<Object>> result : results) {
+                assertSame(first, result.get().get(), "All threads should observe the same value");
+            }
+            assertEquals(1, counter.get(), "Initializer should run exactly once");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testFailedInitializationIsNotCached() {
+        LazyCache<String, String> cache = new LazyCache<>();
+        
+        assertThrows(IllegalStateException.class, () -> cache.getOrCreate("key", () -> {
+            throw new IllegalStateException("Failure");
+        }), "Initializer failure should propagate");
+        assertFalse(cache.containsKey("key"), "Failed entries should be removed");
+    }
+    
+    @Test
+    public void testMaximumSizeIsEnforced() throws InterruptedException {
+        LazyCache<Integer, Integer> cache = new LazyCache<>(50);
+        
+        for (int i = 0; i < 1000; i++) {
+            int value = i;
+            assertEquals(value, cache.getOrCreate(i, () -> value).get(), "Value should be returned even if evicted");
+        }
+        
+        assertTrue(cache.size() <= 50, "Cache should not grow past its maximum size");
+    }
+    
+    @Test
+    public void testScanDoesNotFlushHotKeys() throws InterruptedException {
+        LazyCache<Integer, Integer> cache = LazyCache.builder()
+                .maximumSize(100)
+                .concurrencyLevel(1)
+                .build();
+        
+        for (int round = 0; round < 10; round++) {
+            for (int key = 0; key < 50; key++) {
+                int value = key;
+                cache.getOrCreate(key, () -> value);
+            }
+        }
+        
+        for (int key = 1000; key < 1500; key++) {
+            int value = key;
+            cache.getOrCreate(key, () -> value);
+        }
+        
+        for (int key = 0; key < 50; key++) {
+            assertTrue(cache.containsKey(key), "Hot key " + key + " should survive a scan");
+        }
+        assertEquals(100, cache.size(), "Cache should be full after the scan");
+    }
+    
+    @Test
+    public void testBuilderRejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> LazyCache.builder().maximumSize(-1));
+        assertThrows(IllegalArgumentException.class, () -> LazyCache.builder().concurrencyLevel(0));
+        assertThrows(IllegalArgumentException.class, () -> LazyCache.builder().maximumWeight(-1));
+        assertThrows(IllegalStateException.class, () -> LazyCache.builder().maximumWeight(10).build());
+        assertThrows(IllegalStateException.class, () -> LazyCache.builder()
+                .weigher((key, value) -> 1)
+                .build());
+        assertThrows(IllegalStateException.class, () -> LazyCache.builder()
+                .maximumSize(10)
+                .maximumWeight(10)
+                .weigher((key, value) -> 1)
+                .build());
+    }
+    
+    @Test
+    public void testMaximumWeightIsEnforced() throws Exception {
+        LazyCache<Integer, String> cache = LazyCache.builder()
+                .maximumWeight(100)
+                .weigher((Integer key, String value) -> value.length())
+                .build();
+        
+        for (int i = 0; i < 50; i++) {
+            int length = 1 + i % 20;
+            cache.getOrCreate(i, () -> "x".repeat(length));
+            assertTrue(cache.weightedSize() <= 100, "Cache should not grow past its maximum weight");
+        }
+        cache.getOrCreateAsync(100, key -> CompletableFuture.completedFuture("x".repeat(30))).get();
+        assertTrue(cache.weightedSize() <= 100, "Async loads should be weighed too");
+        
+        assertEquals(150, cache.getOrCreate(200, () -> "x".repeat(150)).get().length(),
+                "An entry heavier than the cache should still be returned");
+        assertFalse(cache.containsKey(200), "An entry heavier than the cache should be evicted");
+        assertTrue(cache.weightedSize() <= 100);
+    }
+    
+    @Test
+    public void testWeightIsAccountedOnRemovalAndReload() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<String, String> cache = LazyCache.builder()
+                .maximumWeight(1000)
+                .weigher((String key, String value) -> value.length())
+                .expireAfterWrite(50)
+                .ticker(ticker)
+                .build();
+        
+        cache.getOrCreate("a", () -> "12345");
+        cache.getOrCreate("b", () -> "123");
+        assertEquals(8, cache.weightedSize(), "Both entries should be weighed");
+        
+        cache.remove("b");
+        assertEquals(5, cache.weightedSize(), "A removed entry should no longer count");
+        
+        ticker.advance(50);
+        cache.getOrCreate("a", () -> "1234567890");
+        assertEquals(10, cache.weightedSize(), "A reinitialized entry should count with its new weight");
+        
+        cache.clear();
+        assertEquals(0, cache.weightedSize());
+        assertEquals(0, new LazyCache<String, String>().weightedSize(), "An empty unweighted cache weighs nothing");
+    }
+    
+    @Test
+    public void testAsyncLoadsAreShared() throws Exception {
+        LazyCache<String, String> cache = new LazyCache<>();
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> backend = new CompletableFuture<>();
+        
+        CompletableFuture<String> first = cache.getOrCreateAsync("key", k -> {
+            loads.incrementAndGet();
+            return backend;
+        });
+        CompletableFuture<String> second = cache.getOrCreateAsync("key", k -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("Other");
+        });
+        
+        assertFalse(first.isDone(), "Load should still be in flight");
+        assertEquals(1, loads.get(), "Concurrent misses should share a single load");
+        
+        backend.complete("Loaded");
+        
+        assertEquals("Loaded", first.get(1, TimeUnit.SECONDS), "First caller should receive the loaded value");
+        assertEquals("Loaded", second.get(1, TimeUnit.SECONDS), "Second caller should receive the loaded value");
+        assertEquals("Loaded", cache.getOrCreate("key", () -> "Sync").get(),
+                "Synchronous lookups should see the asynchronously loaded value");
+    }
+    
+    @Test
+    public void testCancellingOneCallerDoesNotCancelTheLoad() throws Exception {
+        LazyCache<String, String> cache = new LazyCache<>();
+        CompletableFuture<String> backend = new CompletableFuture<>();
+        
+        CompletableFuture<String> first = cache.getOrCreateAsync("key", k -> backend);
+        CompletableFuture<String> second = cache.getOrCreateAsync("key", k -> backend);
+        first.cancel(true);
+        backend.complete("Loaded");
+        
+        assertEquals("Loaded", second.get(1, TimeUnit.SECONDS), "Other callers should still receive the value");
+    }
+    
+    @Test
+    public void testFailedAsyncLoadIsEvicted() throws Exception {
+        LazyCache<String, String> cache = new LazyCache<>();
+        
+        CompletableFuture<String> failed = cache.getOrCreateAsync("key", k -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("Backend down"));
+            return future;
+        });
+        
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> failed.get(1, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IllegalStateException, "Cause should be the loader failure");
+        assertFalse(cache.containsKey("key"), "Failed loads should not stay cached");
+        
+        CompletableFuture<String> retried = cache.getOrCreateAsync("key", k -> CompletableFuture.completedFuture("Recovered"));
+        assertEquals("Recovered", retried.get(1, TimeUnit.SECONDS), "A later call should load again");
+    }
+    
+    @Test
+    public void testAsyncLoadOnExecutor() throws Exception {
+        LazyCache<Integer, String> cache = new LazyCache<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<String> future = cache.getOrCreateAsync(1, () -> Thread.currentThread().getName(), executor);
+            
+            assertNotEquals(Thread.currentThread().getName(), future.get(1, TimeUnit.SECONDS),
+                    "Initializer should run on the executor");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testAsyncCallerWaitsForSyncLoadWithoutBlocking() throws Exception {
+        LazyCache<Integer, String> cache = new LazyCache<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor(task -> new Thread(task, "sync-loader"));
+        try {
+            Future<Lazy<String>> sync = executor.submit(() -> cache.getOrCreate(1, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "Loaded";
+            }));
+            assertTrue(started.await(1, TimeUnit.SECONDS), "The synchronous load should start");
+            
+            CompletableFuture<String> async = cache.getOrCreateAsync(1, key -> CompletableFuture.completedFuture("Other"));
+            CompletableFuture<String> completedBy = async.thenApply(value -> value + " on " + Thread.currentThread().getName());
+            assertFalse(async.isDone(), "The async caller should wait for the synchronous load");
+            release.countDown();
+            
+            assertEquals("Loaded on sync-loader", completedBy.get(1, TimeUnit.SECONDS),
+                    "The loading thread should complete the async caller's future");
+            assertEquals("Loaded", sync.get(1, TimeUnit.SECONDS).get());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testAsyncCallerWaitsForASyncLoadThatHasNotStarted() throws Exception {
+        CountDownLatch demoting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Codec<String> codec = new Codec<String>() {
+            @Override
+            public byte[] encode(String value) {
+                // Runs while the new entry is inserted but before its initializer is called
+                demoting.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+            
+            @Override
+            public String decode(ByteBuffer buffer) {
+                return StandardCharsets.UTF_8.decode(buffer).toString();
+            }
+        };
+        LazyCache<Integer, String> cache = LazyCache.builder()
+                .maximumSize(1)
+                .concurrencyLevel(1)
+                .offHeap(codec, 1 << 16)
+                .build();
+        cache.getOrCreate(1, () -> "Evicted");
+        ExecutorService executor = Executors.newSingleThreadExecutor(task -> new Thread(task, "sync-loader"));
+        try {
+            Future<Lazy<String>> sync = executor.submit(() -> cache.getOrCreate(2, () -> Thread.currentThread().getName()));
+            assertTrue(demoting.await(1, TimeUnit.SECONDS), "Inserting the second entry should evict the first");
+            
+            CompletableFuture<String> async = cache.getOrCreateAsync(2, key -> CompletableFuture.completedFuture("Other"));
+            assertFalse(async.isDone(), "The async caller should wait instead of running the initializer itself");
+            release.countDown();
+            
+            assertEquals("sync-loader", async.get(1, TimeUnit.SECONDS),
+                    "The initializer should run on the thread that created the entry");
+            assertEquals("sync-loader", sync.get(1, TimeUnit.SECONDS).get());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testGetAllLoadsMissesInOneBatch() throws InterruptedException {
+        LazyCache<Integer, String> cache = new LazyCache<>();
+        cache.getOrCreate(1, () -> "cached-1");
+        List<Set<Integer>> batches = new ArrayList<>();
+        
+        Map<Integer, String> result = cache.getAll(Arrays.asList(3, 1, 2, 4), missing -> {
+            batches.add(missing);
+            Map<Integer, String> loaded = new HashMap<>();
+            for (Integer key : missing) {
+                if (key != 4) {
+                    loaded.put(key, "loaded-" + key);
+                }
+            }
+            return loaded;
+        });
+        
+        assertEquals(1, batches.size(), "Misses should be loaded in a single batch");
+        assertEquals(Set.of(2, 3, 4), batches.get(0), "Only missing keys should be passed to the loader");
+        assertEquals(Arrays.asList(3, 1, 2), new ArrayList<>(result.keySet()), "Result should follow the requested order");
+        assertEquals("cached-1", result.get(1), "Cached values should be served from the cache");
+        assertEquals("loaded-2", result.get(2), "Missing values should come from the batch loader");
+        assertTrue(cache.containsKey(3), "Loaded values should be cached");
+        assertFalse(cache.containsKey(4), "Keys the loader did not return should not be cached");
+    }
+    
+    @Test
+    public void testGetAllFailureIsNotCached() {
+        LazyCache<Integer, String> cache = new LazyCache<>();
+        
+        assertThrows(IllegalStateException.class, () -> cache.getAll(Arrays.asList(1, 2), missing -> {
+            throw new IllegalStateException("Backend down");
+        }), "Batch loader failure should propagate");
+        assertEquals(0, cache.size(), "Failed keys should not stay cached");
+    }
+    
+    @Test
+    public void testExpireAfterWrite() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<String, Integer> cache = LazyCache.builder()
+                .expireAfterWrite(100)
+                .ticker(ticker)
+                .build();
+        AtomicInteger loads = new AtomicInteger();
+        
+        assertEquals(1, cache.getOrCreate("key", loads::incrementAndGet).get(), "First load should return 1");
+        ticker.advance(99);
+        assertTrue(cache.containsKey("key"), "Entry should be present before it expires");
+        
+        ticker.advance(1);
+        
+        assertFalse(cache.containsKey("key"), "Entry should be expired");
+        assertEquals(2, cache.getOrCreate("key", loads::incrementAndGet).get(), "Expired entry should be reloaded");
+    }
+    
+    @Test
+    public void testExpireAfterWriteCountsFromTheEndOfTheLoad() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<String, String> cache = LazyCache.<String, String>builder()
+                .expireAfterWrite(100)
+                .ticker(ticker)
+                .build();
+        
+        cache.getOrCreate("key", () -> {
+            ticker.advance(60);
+            return "Slow";
+        });
+        ticker.advance(50);
+        
+        assertTrue(cache.containsKey("key"), "The time spent loading should not count towards expiration");
+        ticker.advance(50);
+        assertFalse(cache.containsKey("key"), "Entry should expire once loaded for the full duration");
+    }
+    
+    @Test
+    public void testExpireAfterAccess() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<String, Integer> cache = LazyCache.builder()
+                .expireAfterAccess(200)
+                .ticker(ticker)
+                .build();
+        AtomicInteger loads = new AtomicInteger();
+        
+        cache.getOrCreate("key", loads::incrementAndGet);
+        for (int i = 0; i < 6; i++) {
+            ticker.advance(150);
+            cache.getOrCreate("key", loads::incrementAndGet);
+        }
+        assertEquals(1, loads.get(), "Accessed entries should not expire");
+        
+        ticker.advance(200);
+        
+        assertFalse(cache.containsKey("key"), "Idle entries should expire");
+    }
+    
+    @Test
+    public void testExpiredEntriesAreReclaimed() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<Integer, Integer> cache = LazyCache.builder()
+                .expireAfterWrite(50)
+                .ticker(ticker)
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            int value = i;
+            cache.getOrCreate(i, () -> value);
+        }
+        assertEquals(1000, cache.size(), "All entries should be present before they expire");
+        
+        ticker.advance(200);
+        cache.cleanUp();
+        
+        assertEquals(0, cache.size(), "Expired entries should be reclaimed by cleanUp");
+    }
+    
+    @Test
+    public void testMaintenanceExecutorReclaimsExpiredEntries() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            LazyCache<Integer, Integer> cache = LazyCache.builder()
+                    .expireAfterWrite(50)
+                    .maintenanceExecutor(scheduler, 20)
+                    .build();
+            for (int i = 0; i < 100; i++) {
+                int value = i;
+                cache.getOrCreate(i, () -> value);
+            }
+            
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cache.size() > 0 && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(20);
+            }
+            
+            assertEquals(0, cache.size(), "Maintenance should reclaim expired entries without cache activity");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testCachedFailureIsRethrownUntilTtl() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<String, String> cache = LazyCache.<String, String>builder()
+                .cacheFailuresFor(50)
+                .ticker(ticker)
+                .build();
+        AtomicInteger counter = new AtomicInteger();
+        
+        assertThrows(IllegalStateException.class, () -> cache.getOrCreate("key", () -> {
+            if (counter.incrementAndGet() == 1) {
+                throw new IllegalStateException("Backend down");
+            }
+            return "Recovered";
+        }));
+        assertThrows(IllegalStateException.class, () -> cache.getOrCreate("key", () -> "Unused"),
+                "Failure should be rethrown while cached");
+        assertEquals(1, counter.get(), "Initializer should not run while the failure is cached");
+        
+        ticker.advance(50);
+        Lazy<String> lazy = cache.getOrCreate("key", () -> "Unused");
+        assertEquals(2, counter.get(), "Original initializer should be probed after the TTL");
+        assertEquals("Recovered", lazy.get(), "Value should come from the probe");
+    }
+    
+    @Test
+    public void testCachedAsyncFailureIsReloadedAfterTtl() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<String, String> cache = LazyCache.<String, String>builder()
+                .cacheFailuresFor(50)
+                .ticker(ticker)
+                .build();
+        AtomicInteger counter = new AtomicInteger();
+        
+        CompletableFuture<String> failed = cache.getOrCreateAsync("key", k -> {
+            counter.incrementAndGet();
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("Backend down"));
+            return future;
+        });
+        assertThrows(ExecutionException.class, () -> failed.get(1, TimeUnit.SECONDS));
+        assertTrue(cache.containsKey("key"), "Failed load should stay cached");
+        
+        CompletableFuture<String> cached = cache.getOrCreateAsync("key", k -> {
+            counter.incrementAndGet();
+            return CompletableFuture.completedFuture("Too early");
+        });
+        assertThrows(ExecutionException.class, () -> cached.get(1, TimeUnit.SECONDS));
+        assertEquals(1, counter.get(), "Loader should not run while the failure is cached");
+        
+        ticker.advance(50);
+        assertFalse(cache.containsKey("key"), "Cached failure should be gone after the TTL");
+        CompletableFuture<String> retried = cache.getOrCreateAsync("key", k -> {
+            counter.incrementAndGet();
+            return CompletableFuture.completedFuture("Recovered");
+        });
+        assertEquals("Recovered", retried.get(1, TimeUnit.SECONDS), "A call after the TTL should load again");
+        assertEquals(2, counter.get());
+    }
+    
+    @Test
+    public void testRecordsStats() throws InterruptedException {
+        LazyCache<Integer, String> cache = LazyCache.<Integer, String>builder()
+                .maximumSize(2)
+                .concurrencyLevel(1)
+                .recordStats()
+                .build();
+        
+        cache.getOrCreate(1, () -> "One");
+        cache.getOrCreate(1, () -> "Unused");
+        assertThrows(IllegalStateException.class, () -> cache.getOrCreate(2, () -> {
+            throw new IllegalStateException("Backend down");
+        }));
+        cache.getAll(Arrays.asList(1, 3, 4), missing -> {
+            Map<Integer, String> loaded = new HashMap<>();
+            for (Integer key : missing) {
+                loaded.put(key, "Value " + key);
+            }
+            return loaded;
+        });
+        
+        StatsSnapshot stats = cache.stats();
+        assertEquals(2, stats.getHitCount(), "Repeated lookups should be hits");
+        assertEquals(4, stats.getMissCount(), "First lookups should be misses");
+        assertEquals(3, stats.getLoadSuccessCount());
+        assertEquals(1, stats.getLoadFailureCount());
+        assertEquals(1, stats.getEvictionCount(), "Exceeding the maximum size should evict");
+        assertEquals(4, Arrays.stream(stats.getLoadLatencyCounts()).sum(), "Every load should have a latency");
+        
+        assertEquals(0, new LazyCache<Integer, String>().stats().getMissCount(), "Caches without stats report zero");
+    }
+    
+    @Test
+    public void testWeakValuesAreReclaimedOnceUnused() throws InterruptedException {
+        LazyCache<Integer, Object> cache = LazyCache.<Integer, Object>builder()
+                .weakValues()
+                .recordStats()
+                .build();
+        AtomicInteger loads = new AtomicInteger();
+        
+        Lazy<Object> held = cache.getOrCreate(1, () -> new Object[loads.incrementAndGet()]);
+        cache.getOrCreate(2, () -> new Object[loads.incrementAndGet()]);
+        
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        // The reference may be cleared a little before it is enqueued for cleanUp to find
+        while ((cache.containsKey(2) || cache.size() > 1) && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            cache.cleanUp();
+        }
+        
+        assertFalse(cache.containsKey(2), "An unused value should be reclaimed");
+        assertTrue(cache.containsKey(1), "A value the caller still holds should stay cached");
+        assertSame(held, cache.getOrCreate(1, Object::new), "A held value should be a hit");
+        assertEquals(1, cache.size(), "The reclaimed entry should be removed");
+        assertEquals(1, cache.stats().getEvictionCount(), "Reclaiming an entry should count as an eviction");
+        
+        cache.getOrCreate(2, () -> new Object[loads.incrementAndGet()]);
+        assertEquals(3, loads.get(), "A reclaimed value should be initialized again");
+    }
+    
+    @Test
+    public void testSoftValuesBehaveLikeStrongValues() throws Exception {
+        LazyCache<Integer, String> cache = LazyCache.<Integer, String>builder()
+                .softValues()
+                .maximumSize(10)
+                .build();
+        
+        Lazy<String> first = cache.getOrCreate(1, () -> "One");
+        assertEquals("One", cache.getOrCreate(1, () -> "Unused").get(), "A softly held value should be a hit");
+        assertEquals("Two", cache.getOrCreateAsync(2, key -> CompletableFuture.completedFuture("Two")).get());
+        assertEquals("Two", cache.getOrCreateAsync(2, key -> CompletableFuture.completedFuture("Unused")).get());
+        assertEquals("Two", cache.getOrCreate(2, () -> "Unused").get());
+        assertEquals("One", first.get());
+    }
+    
+    @Test
+    public void testEvictedValuesMoveOffHeap() throws Exception {
+        Codec<Integer> codec = new Codec<Integer>() {
+            @Override
+            public byte[] encode(Integer value) {
+                return ByteBuffer.allocate(4).putInt(value).array();
+            }
+            
+            @Override
+            public Integer decode(ByteBuffer buffer) {
+                return buffer.getInt();
+            }
+        };
+        LazyCache<Integer, Integer> cache = LazyCache.builder()
+                .maximumSize(16)
+                .concurrencyLevel(1)
+                .offHeap(codec, 1 << 16)
+                .build();
+        AtomicInteger loads = new AtomicInteger();
+        
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            cache.getOrCreate(i, () -> {
+                loads.incrementAndGet();
+                return value;
+            });
+        }
+        assertEquals(16, cache.size(), "Only the maximum size should stay on the heap");
+        assertTrue(cache.containsKey(0), "Evicted values should be kept off-heap");
+        
+        assertEquals(0, cache.getOrCreate(0, () -> -1).get(), "A miss should be served from the off-heap tier");
+        assertEquals(1, cache.getOrCreateAsync(1, key -> CompletableFuture.completedFuture(-1)).get());
+        assertEquals(Map.of(2, 2, 1000, -1), cache.getAll(Arrays.asList(2, 1000), missing -> Map.of(1000, -1)));
+        assertEquals(100, loads.get(), "Values served off-heap should not be loaded again");
+        
+        assertTrue(cache.remove(50));
+        assertFalse(cache.containsKey(50), "Removing a key should remove it off-heap too");
+        cache.clear();
+        assertFalse(cache.containsKey(60), "Clearing should clear the off-heap tier too");
+        
+        assertThrows(IllegalStateException.class, () -> LazyCache.builder().offHeap(codec, 1 << 16).build(),
+                "An off-heap tier needs a bounded heap tier");
+        assertThrows(IllegalArgumentException.class, () -> LazyCache.builder().maximumSize(16).offHeap(codec, 1000),
+                "An off-heap tier smaller than two regions should be rejected rather than exceed its capacity");
+    }
+    
+    @Test
+    public void testOffHeapValuesKeepTheirWriteTime() throws Exception {
+        Codec<Integer> codec = new Codec<Integer>() {
+            @Override
+            public byte[] encode(Integer value) {
+                return ByteBuffer.allocate(4).putInt(value).array();
+            }
+            
+            @Override
+            public Integer decode(ByteBuffer buffer) {
+                return buffer.getInt();
+            }
+        };
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<Integer, Integer> cache = LazyCache.builder()
+                .maximumSize(16)
+                .concurrencyLevel(1)
+                .offHeap(codec, 1 << 16)
+                .expireAfterWrite(1000)
+                .ticker(ticker)
+                .build();
+        AtomicInteger loads = new AtomicInteger();
+        
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            cache.getOrCreate(i, () -> {
+                loads.incrementAndGet();
+                return value;
+            });
+        }
+        ticker.advance(600);
+        assertEquals(0, cache.getOrCreate(0, () -> -1).get(), "A miss should be served from the off-heap tier");
+        assertEquals(1, cache.getOrCreateAsync(1, key -> CompletableFuture.completedFuture(-1)).get());
+        assertEquals(100, loads.get());
+        
+        ticker.advance(500);
+        assertFalse(cache.containsKey(0), "Moving off-heap and back should not extend the expire-after-write time");
+        assertFalse(cache.containsKey(1));
+        assertEquals(-1, cache.getOrCreate(0, () -> -1).get());
+    }
+    
+    @Test
+    public void testSnapshotIsRestoredLazily(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("cache.snapshot");
+        AtomicInteger decodes = new AtomicInteger();
+        Codec<Integer> codec = new Codec<Integer>() {
+            @Override
+            public byte[] encode(Integer value) {
+                return ByteBuffer.allocate(4).putInt(value).array();
+            }
+            
+            @Override
+            public Integer decode(ByteBuffer buffer) {
+                decodes.incrementAndGet();
+                return buffer.getInt();
+            }
+        };
+        LazyCache<Integer, Integer> cache = LazyCache.builder()
+                .snapshot(file, codec, codec)
+                .build();
+        for (int i = 0; i < 10; i++) {
+            int value = i * i;
+            cache.getOrCreate(i, () -> value);
+        }
+        cache.saveSnapshot();
+        
+        LazyCache<Integer, Integer> restarted = LazyCache.builder()
+                .snapshot(file, codec, codec)
+                .build();
+        int keysDecoded = decodes.get();
+        assertEquals(10, keysDecoded, "Only keys should be decoded on restore");
+        assertTrue(restarted.containsKey(3));
+        assertEquals(9, restarted.getOrCreate(3, () -> -1).get(), "A restored value should be served from the snapshot");
+        assertEquals(keysDecoded + 1, decodes.get(), "A value should be decoded on first access");
+        
+        restarted.saveSnapshot();
+        LazyCache<Integer, Integer> again = LazyCache.builder()
+                .snapshot(file, codec, codec)
+                .build();
+        assertEquals(81, again.getOrCreate(9, () -> -1).get(), "Untouched restored entries should be carried over");
+        assertEquals(9, again.getOrCreate(3, () -> -1).get());
+        
+        assertThrows(IllegalStateException.class, () -> new LazyCache<Integer, Integer>().saveSnapshot());
+    }
+    
+    @Test
+    public void testRestoredValuesKeepTheirWriteTime(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("cache.snapshot");
+        Codec<Integer> codec = new Codec<Integer>() {
+            @Override
+            public byte[] encode(Integer value) {
+                return ByteBuffer.allocate(4).putInt(value).array();
+            }
+            
+            @Override
+            public Integer decode(ByteBuffer buffer) {
+                return buffer.getInt();
+            }
+        };
+        // Written 50 seconds into a 60 second expire-after-write time
+        Snapshot.write(file, writer -> writer.write(codec.encode(1), ByteBuffer.wrap(codec.encode(10)),
+                System.currentTimeMillis() - 50_000));
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<Integer, Integer> cache = LazyCache.builder()
+                .snapshot(file, codec, codec)
+                .expireAfterWrite(60_000)
+                .ticker(ticker)
+                .build();
+        
+        assertEquals(10, cache.getOrCreate(1, () -> -1).get(), "A restored value should be served from the snapshot");
+        ticker.advance(15_000);
+        assertFalse(cache.containsKey(1), "A restored value should expire when it would have before the restart");
+        assertEquals(-1, cache.getOrCreate(1, () -> -1).get());
+    }
+    
+    @Test
+    public void testNearCacheServesRepeatedHits() throws InterruptedException {
+        LazyCache<String, Integer> cache = LazyCache.builder()
+                .nearCache(16)
+                .recordStats()
+                .build();
+        AtomicInteger loads = new AtomicInteger();
+        
+        Lazy<Integer> first = cache.getOrCreate("key", loads::incrementAndGet);
+        for (int i = 0; i < 9; i++) {
+            assertSame(first, cache.getOrCreate("key", loads::incrementAndGet), "Hits should return the cached Lazy");
+        }
+        
+        StatsSnapshot stats = cache.stats();
+        assertEquals(1, loads.get());
+        assertEquals(9, stats.getHitCount());
+        assertEquals(9, stats.getNearHitCount(), "Repeated hits should be served by the near cache");
+        assertEquals(0.9, stats.getNearHitRate(), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> LazyCache.builder().nearCache(0));
+    }
+    
+    @Test
+    public void testRemovalInvalidatesNearCachesOfAllThreads() throws Exception {
+        LazyCache<String, Integer> cache = LazyCache.builder()
+                .nearCache(16)
+                .build();
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals(1, executor.submit(() -> cache.getOrCreate("key", loads::incrementAndGet).get()).get());
+            assertEquals(1, executor.submit(() -> cache.getOrCreate("key", loads::incrementAndGet).get()).get());
+            
+            cache.remove("key");
+            assertEquals(2, executor.submit(() -> cache.getOrCreate("key", loads::incrementAndGet).get()).get(),
+                    "Another thread's near cache should observe the removal");
+            
+            cache.clear();
+            assertEquals(3, executor.submit(() -> cache.getOrCreate("key", loads::incrementAndGet).get()).get(),
+                    "Another thread's near cache should observe the clear");
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testNearCacheNeverServesExpiredEntries() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        LazyCache<String, Integer> cache = LazyCache.builder()
+                .nearCache(16)
+                .expireAfterWrite(100)
+                .ticker(ticker)
+                .build();
+        AtomicInteger loads = new AtomicInteger();
+        
+        cache.getOrCreate("key", loads::incrementAndGet);
+        ticker.advance(50);
+        assertEquals(1, cache.getOrCreate("key", loads::incrementAndGet).get());
+        ticker.advance(50);
+        assertEquals(2, cache.getOrCreate("key", loads::incrementAndGet).get(), "Expired entries should be reloaded");
+    }
+    
+    @Test
+    public void testInvalidationChannelPropagatesRemovals(@TempDir Path directory) throws InterruptedException {
+        Path file = directory.resolve("invalidations");
+        LazyCache<String, Integer> first = LazyCache.builder()
+                .invalidationChannel(new InvalidationChannel(file, 64))
+                .build();
+        InvalidationChannel secondChannel = new InvalidationChannel(file, 64);
+        LazyCache<String, Integer> second = LazyCache.builder()
+                .invalidationChannel(secondChannel)
+                .nearCache(16)
+                .build();
+        first.getOrCreate("a", () -> 1);
+        second.getOrCreate("a", () -> 1);
+        second.getOrCreate("b", () -> 2);
+        
+        first.remove("a");
+        assertTrue(second.containsKey("a"), "Invalidations should only arrive when polling");
+        secondChannel.poll();
+        assertFalse(second.containsKey("a"), "A removal should propagate to the other cache");
+        assertTrue(second.containsKey("b"), "Other keys should stay cached");
+        assertEquals(3, second.getOrCreate("a", () -> 3).get(), "The near cache should not serve the removed key");
+        
+        first.clear();
+        secondChannel.poll();
+        assertEquals(0, second.size(), "A clear should propagate to the other cache");
+    }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LazyDoubleTest {
+
+    @Test
+    public void testLazyDoubleInitialization() {
+        LazyDouble lazy = new LazyDouble(() -> Math.PI);
+        
+        assertFalse(lazy.isInitialized(), "Should not be initialized yet");
+        assertEquals(0.0, lazy.get(), "get() should return 0.0 before initialization");
+        
+        assertEquals(Math.PI, lazy.initialize(), "Lazy initialization failed");
+        assertTrue(lazy.isInitialized(), "Should be initialized now");
+        assertEquals(Math.PI, lazy.get(), "get() should return the initialized value");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LazyIntTest {
+
+    @Test
+    public void testLazyIntInitialization() {
+        AtomicInteger counter = new AtomicInteger();
+        LazyInt lazy = new LazyInt(() -> {
+            counter.incrementAndGet();
+            return 42;
+        });
+        
+        assertFalse(lazy.isInitialized(), "Should not be initialized yet");
+        assertEquals(0, lazy.get(), "get() should return 0 before initialization");
+        
+        assertEquals(42, lazy.initialize(), "Lazy initialization failed");
+        assertEquals(42, lazy.initialize(), "Second initialization should return the same value");
+        assertTrue(lazy.isInitialized(), "Should be initialized now");
+        assertEquals(42, lazy.get(), "get() should return the initialized value");
+        assertEquals(1, counter.get(), "Initializer should be called exactly once");
+    }
+    
+    @Test
+    public void testFailedInitializationCanBeRetried() {
+        AtomicInteger counter = new AtomicInteger();
+        LazyInt lazy = new LazyInt(() -> {
+            if (counter.incrementAndGet() == 1) {
+                throw new IllegalStateException("First attempt fails");
+            }
+            return 7;
+        });
+        
+        assertThrows(IllegalStateException.class, lazy::initialize, "First initialization should fail");
+        assertFalse(lazy.isInitialized(), "Failed initialization should leave the value uninitialized");
+        assertEquals(7, lazy.initialize(), "Second initialization should succeed");
+    }
+}
\ No newline at end of file
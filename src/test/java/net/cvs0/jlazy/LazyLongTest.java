@@ -0,0 +1,19 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LazyLongTest {
+
+    @Test
+    public void testLazyLongInitialization() {
+        LazyLong lazy = new LazyLong(() -> Long.MAX_VALUE);
+        
+        assertFalse(lazy.isInitialized(), "Should not be initialized yet");
+        assertEquals(0L, lazy.get(), "get() should return 0 before initialization");
+        
+        assertEquals(Long.MAX_VALUE, lazy.initialize(), "Lazy initialization failed");
+        assertTrue(lazy.isInitialized(), "Should be initialized now");
+        assertEquals(Long.MAX_VALUE, lazy.get(), "get() should return the initialized value");
+    }
+}
\ No newline at end of file
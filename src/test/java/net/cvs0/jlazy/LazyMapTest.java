@@ -0,0 +1,77 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LazyMapTest {
+
+    @Test
+    public void testValuesAreComputedOnFirstAccess() throws InterruptedException {
+        AtomicInteger calls = new AtomicInteger();
+        LazyMap<String, Integer> map = new LazyMap<>(Arrays.asList("a", "bb", "ccc", "a"), key -> {
+            calls.incrementAndGet();
+            return key.length();
+        });
+        
+        assertEquals(3, map.size(), "Duplicate keys should be ignored");
+        assertEquals(Arrays.asList("a", "bb", "ccc"), new ArrayList<>(map.keySet()));
+        assertTrue(map.containsKey("bb"));
+        assertFalse(map.containsKey("d"));
+        assertNull(map.get("bb"), "get should not trigger initialization");
+        
+        assertEquals(2, map.initialize("bb"));
+        assertEquals(2, map.initialize("bb"));
+        assertEquals(2, map.get("bb"));
+        assertTrue(map.isInitialized("bb"));
+        assertFalse(map.isInitialized("a"));
+        assertEquals(1, calls.get(), "The initializer should run once per key");
+    }
+    
+    @Test
+    public void testUnknownKeysAreRejected() {
+        LazyMap<String, String> map = new LazyMap<>(Arrays.asList("a", "b"), key -> key);
+        
+        assertThrows(IllegalArgumentException.class, () -> map.initialize("c"));
+        assertThrows(IllegalArgumentException.class, () -> map.get("c"));
+        assertThrows(NullPointerException.class, () -> map.initialize(null));
+        assertThrows(NullPointerException.class, () -> new LazyMap<>(Arrays.asList("a", null), key -> key));
+    }
+    
+    @Test
+    public void testCollidingKeys() throws InterruptedException {
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(new Key(i));
+        }
+        LazyMap<Key, Integer> map = new LazyMap<>(keys, key -> key.id * 2);
+        
+        for (Key key : keys) {
+            assertEquals(key.id * 2, map.initialize(new Key(key.id)));
+        }
+        assertTrue(map.isInitialized(keys.get(99)));
+    }
+    
+    private static final class Key {
+        final int id;
+        
+        Key(int id) {
+            this.id = id;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).id == id;
+        }
+        
+        @Override
+        public int hashCode() {
+            // Few distinct hashes force long probe sequences
+            return id % 3;
+        }
+    }
+}
\ No newline at end of file
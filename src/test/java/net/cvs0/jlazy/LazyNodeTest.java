@@ -0,0 +1,161 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class LazyNodeTest {
+
+    @Test
+    public void testCombinators() throws InterruptedException {
+        Lazy<Integer> base = new Lazy<>(() -> 20);
+        LazyNode<Integer> doubled = base.map(value -> value * 2);
+        LazyNode<String> zipped = doubled.zip(new Lazy<>(() -> "!"), (number, suffix) -> number + suffix);
+        LazyNode<Integer> flat = base.flatMap(value -> new Lazy<>(() -> value + 1));
+        LazyNode<List<Object>> all = LazyInitializer.allOf(Arrays.asList(doubled, zipped, flat));
+        
+        assertFalse(all.isInitialized(), "Should not be initialized yet");
+        assertNull(all.get(), "get() should not trigger initialization");
+        
+        assertEquals(Arrays.asList(40, "40!", 21), all.initialize());
+        assertTrue(doubled.isInitialized(), "Dependencies should be initialized along the way");
+        assertEquals(40, doubled.get());
+    }
+    
+    @Test
+    public void testIndependentBranchesRunConcurrently() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        Lazy<String> left = new Lazy<>(() -> awaitOther(bothStarted, "left"));
+        Lazy<String> right = new Lazy<>(() -> awaitOther(bothStarted, "right"));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            String result = left.zip(right, (a, b) -> a + "+" + b).initializeAsync(executor).get(5, TimeUnit.SECONDS);
+            assertEquals("left+right", result, "Both branches should have run at the same time");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testSharedDependencyIsComputedOnce() throws InterruptedException {
+        AtomicInteger counter = new AtomicInteger();
+        LazyNode<Integer> shared = new Lazy<>(() -> 1).map(value -> {
+            counter.incrementAndGet();
+            return value;
+        });
+        LazyNode<Integer> diamond = shared.map(value -> value + 1).zip(shared.map(value -> value + 2), Integer::sum);
+        
+        assertEquals(5, diamond.initialize());
+        assertEquals(5, diamond.initialize());
+        assertEquals(1, counter.get(), "The shared node should be computed exactly once");
+    }
+    
+    @Test
+    public void testFailedNodeCanBeRetried() throws InterruptedException {
+        AtomicInteger counter = new AtomicInteger();
+        LazyNode<Integer> node = new Lazy<>(() -> 1).map(value -> {
+            if (counter.incrementAndGet() == 1) {
+                throw new IllegalStateException("First attempt fails");
+            }
+            return value;
+        });
+        
+        assertThrows(IllegalStateException.class, node::initialize, "Failure should propagate");
+        assertFalse(node.isInitialized(), "Failed node should stay uninitialized");
+        assertEquals(1, node.initialize(), "Second initialization should succeed");
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCycleIsDetected() {
+        LazyNode<Integer>[] self = new LazyNode[1];
+        self[0] = new Lazy<>(() -> 1).flatMap(value -> self[0].map(other -> other + value));
+        
+        IllegalStateException exception = assertThrows(IllegalStateException.class, self[0]::initialize);
+        assertTrue(exception.getMessage().startsWith("Dependency cycle detected"), exception.getMessage());
+    }
+    
+    @Test
+    public void testCancellingOneCallerLeavesTheSharedInitialization() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LazyNode<Integer> node = new Lazy<>(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return 20;
+        }).map(value -> value * 2);
+        LazyNode<Integer> dependent = node.map(value -> value + 1);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<Integer> cancelled = node.initializeAsync(executor);
+            CompletableFuture<Integer> other = node.initializeAsync(executor);
+            CompletableFuture<Integer> dependentFuture = dependent.initializeAsync(executor);
+            cancelled.cancel(false);
+            release.countDown();
+            
+            assertTrue(cancelled.isCancelled());
+            assertEquals(40, other.get(5, TimeUnit.SECONDS), "Other callers should still get the value");
+            assertEquals(41, dependentFuture.get(5, TimeUnit.SECONDS), "Dependent nodes should still get the value");
+            assertEquals(40, node.get());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testCycleAcrossThreadsIsDetected() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch bothStarted = new CountDownLatch(2);
+            AtomicReferenceArray<LazyNode<String>> nodes = new AtomicReferenceArray<>(2);
+            nodes.set(0, new Lazy<>(() -> "a").flatMap(value -> {
+                awaitOther(bothStarted, value);
+                return nodes.get(1);
+            }));
+            nodes.set(1, new Lazy<>(() -> "b").flatMap(value -> {
+                awaitOther(bothStarted, value);
+                return nodes.get(0);
+            }));
+            
+            CompletableFuture<String> first = nodes.get(0).initializeAsync(executor);
+            CompletableFuture<String> second = nodes.get(1).initializeAsync(executor);
+            
+            for (CompletableFuture<String> future : Arrays.asList(first, second)) {
+                ExecutionException exception = assertThrows(ExecutionException.class,
+                        () -> future.get(5, TimeUnit.SECONDS), "Forcing a cycle from two threads should fail, not hang");
+                assertTrue(exception.getCause() instanceof IllegalStateException, exception.getCause().toString());
+                assertTrue(exception.getCause().getMessage().startsWith("Dependency cycle detected"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private static String awaitOther(CountDownLatch latch, String value) {
+        latch.countDown();
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Other branch did not start");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return value;
+    }
+}
\ No newline at end of file
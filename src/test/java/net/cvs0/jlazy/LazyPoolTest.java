@@ -0,0 +1,142 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LazyPoolTest {
+
+    @Test
+    public void testInstancesAreCreatedLazilyAndReused() throws InterruptedException {
+        AtomicInteger created = new AtomicInteger();
+        LazyPool<StringBuilder> pool = LazyPool.builder(() -> {
+            created.incrementAndGet();
+            return new StringBuilder();
+        }).maximumSize(2).build();
+        
+        assertEquals(0, pool.getSize(), "No instance should exist before the first borrow");
+        
+        StringBuilder first = pool.borrow();
+        pool.release(first);
+        assertSame(first, pool.borrow(), "A released instance should be reused");
+        assertEquals(1, created.get());
+        assertEquals(1, pool.getBorrowedCount());
+        assertEquals(0.5, pool.getUtilization(), 0.0001);
+        
+        StringBuilder second = pool.borrow();
+        assertNotSame(first, second);
+        assertNull(pool.borrow(10), "A full pool should time out instead of creating more");
+        assertEquals(2, pool.getSize());
+        assertEquals(1, pool.getWaitCount());
+        
+        pool.invalidate(second);
+        assertEquals(1, pool.getSize(), "An invalidated instance should be discarded");
+        assertNotNull(pool.borrow(10), "Invalidating should make room for a new instance");
+        assertEquals(3, pool.getCreatedCount());
+    }
+    
+    @Test
+    public void testOnlyBorrowedInstancesCanBeGivenBack() throws InterruptedException {
+        LazyPool<List<String>> pool = LazyPool.<List<String>>builder(ArrayList::new).maximumSize(2).build();
+        
+        List<String> first = pool.borrow();
+        assertThrows(IllegalArgumentException.class, () -> pool.release(new ArrayList<>()),
+                "An equal instance that was not borrowed should be rejected");
+        pool.release(first);
+        assertThrows(IllegalArgumentException.class, () -> pool.release(first), "A second release should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> pool.invalidate(first),
+                "Invalidating a released instance should be rejected");
+        
+        assertEquals(0, pool.getBorrowedCount(), "Rejected releases should not change the borrowed count");
+        assertEquals(1, pool.getSize(), "Rejected releases should not change the size");
+        assertEquals(1, pool.getIdleCount(), "Rejected releases should not add idle instances");
+        assertSame(first, pool.borrow());
+        assertNotSame(first, pool.borrow(10), "Rejected releases should not hand out extra permits");
+        assertNull(pool.borrow(10), "The pool should still be limited to its maximum size");
+    }
+    
+    @Test
+    public void testConcurrentBorrowersNeverShareOrExceedMaximum() throws Exception {
+        LazyPool<AtomicBoolean> pool = LazyPool.builder(AtomicBoolean::new).maximumSize(3).build();
+        AtomicInteger overlaps = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        pool.withInstance(inUse -> {
+                            if (!inUse.compareAndSet(false, true)) {
+                                overlaps.incrementAndGet();
+                            }
+                            Thread.yield();
+                            inUse.set(false);
+                            return null;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(0, overlaps.get(), "No instance should be borrowed twice at once");
+        assertTrue(pool.getCreatedCount() <= 3, "No more instances than the maximum should be created");
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(pool.getSize(), pool.getIdleCount());
+    }
+    
+    @Test
+    public void testIdleInstancesExpire() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        List<Object> disposed = new ArrayList<>();
+        try {
+            LazyPool<Object> pool = LazyPool.builder(Object::new)
+                    .maximumSize(4)
+                    .expireIdleAfter(50, scheduler)
+                    .onDispose(instance -> {
+                        synchronized (disposed) {
+                            disposed.add(instance);
+                        }
+                    })
+                    .build();
+            Object first = pool.borrow();
+            Object second = pool.borrow();
+            pool.release(first);
+            pool.release(second);
+            
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getSize() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            
+            assertEquals(0, pool.getSize(), "Idle instances should expire");
+            assertEquals(2, pool.getExpiredCount());
+            synchronized (disposed) {
+                assertEquals(2, disposed.size(), "Expired instances should be disposed");
+            }
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testBuilderRejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> LazyPool.builder(Object::new).maximumSize(0));
+        assertThrows(IllegalArgumentException.class, () -> LazyPool.builder(Object::new)
+                .expireIdleAfter(0, Executors.newSingleThreadScheduledExecutor()));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,142 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class LazyRegistryTest {
+
+    @Test
+    public void testWarmUpRespectsDependenciesAndPriorities() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        LazyRegistry registry = new LazyRegistry()
+                .register("service", recording("service", order), 10, "config", "database")
+                .register("config", recording("config", order), 1)
+                .register("metrics", recording("metrics", order), 0)
+                .register("database", recording("database", order), 5, "config");
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            registry.warmUp(executor, 1, 5_000).get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(Arrays.asList("config", "database", "service", "metrics"), order,
+                "Dependencies should come first, then higher priorities");
+        assertTrue(registry.get("service").isInitialized(), "Every value should be warmed up");
+    }
+    
+    @Test
+    public void testConcurrencyIsBounded() throws Exception {
+        int[] running = {0};
+        int[] maxRunning = {0};
+        LazyRegistry registry = new LazyRegistry();
+        for (int i = 0; i < 8; i++) {
+            registry.register("value" + i, new Lazy<>(() -> {
+                synchronized (running) {
+                    maxRunning[0] = Math.max(maxRunning[0], ++running[0]);
+                }
+                sleep(20);
+                synchronized (running) {
+                    running[0]--;
+                }
+                return new Object();
+            }));
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            registry.warmUp(executor, 2, 5_000).get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, maxRunning[0], "At most two values should initialize at once");
+    }
+    
+    @Test
+    public void testFailuresAndTimeBudgetAreReported() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LazyRegistry registry = new LazyRegistry()
+                .register("broken", new Lazy<>(() -> {
+                    throw new IllegalStateException("Backend down");
+                }), 10)
+                .register("slow", new Lazy<>(() -> {
+                    awaitQuietly(release);
+                    return "slow";
+                }), 9)
+                .register("slower", new Lazy<>(() -> {
+                    awaitQuietly(release);
+                    return "slower";
+                }), 8)
+                .register("dependent", new Lazy<>(() -> "dependent"), 20, "broken")
+                .register("late", new Lazy<>(() -> "late"), 0);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<Void> readiness = registry.warmUp(executor, 2, 50);
+            
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> readiness.get(5, TimeUnit.SECONDS),
+                    "Readiness should not wait for values that overrun the time budget");
+            String message = exception.getCause().getMessage();
+            assertTrue(message.contains("failed: [broken, dependent]"), message);
+            assertTrue(message.contains("still initializing when the time budget ran out: [slow, slower]"), message);
+            assertTrue(message.contains("not reached within the time budget: [late]"), message);
+            assertFalse(registry.get("dependent").isInitialized(), "Dependents of failed values should be skipped");
+            
+            release.countDown();
+            assertEquals("slow", registry.get("slow").initialize(), "Overrunning values should keep initializing");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testInvalidDependenciesAreRejected() {
+        LazyRegistry missing = new LazyRegistry().register("a", new Lazy<>(() -> 1), 0, "b");
+        assertThrows(IllegalStateException.class, () -> missing.warmUp(Runnable::run, 1, 1_000));
+        
+        LazyRegistry cyclic = new LazyRegistry()
+                .register("a", new Lazy<>(() -> 1), 0, "b")
+                .register("b", new Lazy<>(() -> 2), 0, "a");
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> cyclic.warmUp(Runnable::run, 1, 1_000));
+        assertTrue(exception.getMessage().contains("cycle"), exception.getMessage());
+        
+        assertThrows(IllegalArgumentException.class, () -> new LazyRegistry()
+                .register("a", new Lazy<>(() -> 1))
+                .register("a", new Lazy<>(() -> 2)), "Duplicate names should be rejected");
+    }
+    
+    private static Lazy<String> recording(String name, List<String> order) {
+        return new Lazy<>(() -> {
+            order.add(name);
+            return name;
+        });
+    }
+    
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
\ No newline at end of file
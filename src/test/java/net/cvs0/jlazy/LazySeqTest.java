@@ -0,0 +1,148 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class LazySeqTest {
+
+    @Test
+    public void testChunksArePulledOnDemandAndMemoized() {
+        AtomicInteger pulled = new AtomicInteger();
+        Iterator<Integer> source = IntStream.range(0, 10).peek(i -> pulled.incrementAndGet()).iterator();
+        LazySeq<Integer> seq = LazySeq.fromIterator(source, 4, LazySeq.Retention.ALL);
+        
+        assertEquals(0, pulled.get(), "Nothing should be pulled before the sequence is consumed");
+        Iterator<Integer> first = seq.iterator();
+        assertEquals(0, first.next());
+        assertEquals(4, pulled.get(), "Only the first chunk should be pulled");
+        
+        List<Integer> all = new ArrayList<>();
+        seq.forEach(all::add);
+        assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()), all);
+        assertEquals(10, pulled.get(), "Every element should be pulled once");
+        
+        assertEquals(45, seq.stream().mapToInt(Integer::intValue).sum(), "A later consumer should see every element");
+        assertEquals(1, first.next(), "An earlier iterator should continue where it stopped");
+        assertEquals(10, pulled.get(), "Consumers should share the memoized chunks");
+    }
+    
+    @Test
+    public void testChunkSupplierAndFailures() {
+        AtomicInteger calls = new AtomicInteger();
+        LazySeq<String> seq = LazySeq.fromChunks(() -> {
+            int call = calls.incrementAndGet();
+            if (call == 2) {
+                throw new IllegalStateException("page unavailable");
+            }
+            return call == 1 ? Arrays.asList("a", "b") : call == 3 ? Arrays.asList("c") : null;
+        }, LazySeq.Retention.ALL);
+        
+        Iterator<String> iterator = seq.iterator();
+        assertEquals("a", iterator.next());
+        assertEquals("b", iterator.next());
+        assertThrows(IllegalStateException.class, iterator::hasNext);
+        assertTrue(iterator.hasNext(), "A failed chunk should be pulled again");
+        assertEquals("c", iterator.next());
+        assertFalse(iterator.hasNext());
+        assertEquals(Arrays.asList("a", "b", "c"), seq.stream().collect(Collectors.toList()));
+        assertEquals(4, calls.get(), "The end of the sequence should only be pulled once");
+        
+        assertThrows(IllegalArgumentException.class,
+                () -> LazySeq.fromIterator(List.of(1).iterator(), 0, LazySeq.Retention.ALL));
+    }
+    
+    @Test
+    public void testOperatorsAreLazy() {
+        AtomicInteger pulled = new AtomicInteger();
+        LazySeq<Integer> naturals = LazySeq.fromIterator(
+                IntStream.iterate(0, i -> i + 1).peek(i -> pulled.incrementAndGet()).iterator(),
+                8, LazySeq.Retention.ALL);
+        AtomicInteger mapped = new AtomicInteger();
+        LazySeq<Integer> evenSquares = naturals
+                .filter(i -> i % 2 == 0)
+                .map(i -> {
+                    mapped.incrementAndGet();
+                    return i * i;
+                })
+                .take(5);
+        
+        assertEquals(0, pulled.get(), "Creating derived sequences should not pull anything");
+        assertEquals(List.of(0, 4, 16, 36, 64), evenSquares.stream().collect(Collectors.toList()));
+        assertEquals(List.of(0, 4, 16, 36, 64), evenSquares.stream().collect(Collectors.toList()));
+        assertTrue(pulled.get() < 100, "An infinite source should only be pulled as far as needed");
+        int mappedOnce = mapped.get();
+        evenSquares.forEach(square -> { });
+        assertEquals(mappedOnce, mapped.get(), "Derived elements should be memoized");
+        assertThrows(IllegalArgumentException.class, () -> naturals.take(-1));
+    }
+    
+    @Test
+    public void testParallelStreamSplitsByChunk() {
+        LazySeq<Integer> seq = LazySeq.fromIterator(IntStream.range(0, 100_000).iterator(), 1000,
+                LazySeq.Retention.ALL);
+        
+        long sum = seq.parallelStream().mapToLong(Integer::longValue).sum();
+        assertEquals(100_000L * 99_999 / 2, sum);
+        assertEquals(IntStream.range(0, 100_000).boxed().collect(Collectors.toList()),
+                seq.parallelStream().collect(Collectors.toList()), "A parallel stream should keep the order");
+    }
+    
+    @Test
+    public void testConsumersMustStartBeforeTheFirstChunkIsPassed() {
+        LazySeq<Integer> seq = LazySeq.fromIterator(IntStream.range(0, 100).boxed().iterator(), 10,
+                LazySeq.Retention.UNCONSUMED);
+        LazySeq<Integer> doubled = seq.map(value -> value * 2);
+        
+        Iterator<Integer> first = seq.iterator();
+        for (int i = 0; i < 10; i++) {
+            first.next();
+        }
+        Iterator<Integer> second = seq.iterator();
+        assertEquals(0, second.next(), "A consumer starting within the first chunk should see every element");
+        
+        assertEquals(10, first.next());
+        
+        assertThrows(IllegalStateException.class, seq::iterator,
+                "A consumer starting after the first chunk was passed should fail");
+        assertThrows(IllegalStateException.class, () -> doubled.iterator().hasNext(),
+                "A derived sequence pulling for the first time after the first chunk was passed should fail");
+        int count = 1;
+        while (second.hasNext()) {
+            assertEquals(count++, second.next());
+        }
+        assertEquals(100, count, "A consumer that started in time should see every element");
+    }
+    
+    @Test
+    public void testConsumedChunksAreReleased() throws InterruptedException {
+        LazySeq<Object> seq = LazySeq.fromIterator(IntStream.range(0, 100).mapToObj(i -> new Object()).iterator(), 10,
+                LazySeq.Retention.UNCONSUMED);
+        
+        Iterator<Object> iterator = seq.iterator();
+        WeakReference<Object> first = new WeakReference<>(iterator.next());
+        for (int i = 1; i < 50; i++) {
+            iterator.next();
+        }
+        
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (first.get() != null && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        
+        assertNull(first.get(), "A chunk every consumer has passed should be reclaimed");
+        assertTrue(iterator.hasNext(), "The consumer should continue past the released chunks");
+        assertThrows(IllegalStateException.class, seq::iterator,
+                "A consumer starting after the first chunk was released should fail");
+    }
+}
\ No newline at end of file
@@ -3,6 +3,14 @@ package net.cvs0.jlazy;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class LazyTest {
 
     @Test
@@ -36,4 +44,74 @@ public class LazyTest {
         assertEquals("Initialized 1 time(s)", result2, "Second initialization should return the same value");
         assertEquals(1, counter[0], "Initializer should still be called exactly once");
     }
+    
+    @Test
+    public void testConcurrentInitializationRunsOnce() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Lazy<Object> lazy = new Lazy<>(() -> {
+            counter.incrementAndGet();
+            return new Object();
+        });
+        
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return lazy.initialize();
+                }));
+            }
+            start.countDown();
+            
+            Object first = results.get(0).get();
+            for (Future<Object> result : results) {
+                assertSame(first, result.get(), "All threads should observe the same instance");
+            }
+            assertEquals(1, counter.get(), "Initializer should run exactly once");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testFailedInitializationCanBeRetried() throws InterruptedException {
+        AtomicInteger counter = new AtomicInteger();
+        Lazy<String> lazy = new Lazy<>(() -> {
+            if (counter.incrementAndGet() == 1) {
+                throw new IllegalStateException("First attempt fails");
+            }
+            return "Recovered";
+        });
+        
+        assertThrows(IllegalStateException.class, lazy::initialize, "First initialization should fail");
+        assertFalse(lazy.isInitialized(), "A failed initialization should leave the value uninitialized");
+        assertNull(lazy.get(), "get() should return null after a failed initialization");
+        
+        assertEquals("Recovered", lazy.initialize(), "Second initialization should succeed");
+        assertEquals(2, counter.get(), "Initializer should have been called twice");
+    }
+    
+    @Test
+    public void testFailureIsCachedForTtl() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        AtomicInteger counter = new AtomicInteger();
+        Lazy<String> lazy = new Lazy<>(() -> {
+            if (counter.incrementAndGet() == 1) {
+                throw new IllegalStateException("Backend down");
+            }
+            return "Recovered";
+        }, 50, ticker);
+        
+        IllegalStateException first = assertThrows(IllegalStateException.class, lazy::initialize);
+        IllegalStateException second = assertThrows(IllegalStateException.class, lazy::initialize);
+        assertSame(first, second, "Cached failure should be rethrown as the same instance");
+        assertEquals(1, counter.get(), "Initializer should not run while the failure is cached");
+        
+        ticker.advance(50);
+        assertEquals("Recovered", lazy.initialize(), "Initializer should be probed after the TTL");
+        assertEquals(2, counter.get(), "Initializer should have been called twice");
+    }
 }
\ No newline at end of file
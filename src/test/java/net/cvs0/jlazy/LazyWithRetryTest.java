@@ -3,6 +3,12 @@ package net.cvs0.jlazy;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class LazyWithRetryTest {
@@ -51,4 +57,179 @@ public class LazyWithRetryTest {
         assertEquals("Always Fails", exception.getMessage(), "Exception message should match");
         assertEquals(maxRetries, counter.get(), "Should have attempted exactly the maximum number of retries");
     }
+    
+    @Test
+    public void testExhaustedRetriesLeaveValueUninitialized() throws InterruptedException {
+        AtomicInteger counter = new AtomicInteger(0);
+        
+        LazyWithRetry<String> retryLazy = new LazyWithRetry<>(() -> {
+            if (counter.incrementAndGet() <= 2) {
+                throw new RuntimeException("Fails twice");
+            }
+            return "Recovered";
+        }, 2, 1);
+        
+        assertThrows(RuntimeException.class, retryLazy::initialize, "First initialization should exhaust its retries");
+        assertFalse(retryLazy.isInitialized(), "Failed initialization should not mark the value initialized");
+        assertNull(retryLazy.get(), "get() should return null after a failed initialization");
+        
+        assertEquals("Recovered", retryLazy.initialize(), "A later call should start over");
+        assertTrue(retryLazy.isInitialized(), "Should be initialized after a successful attempt");
+    }
+    
+    @Test
+    public void testNonRetryableFailureIsNotRetried() {
+        AtomicInteger counter = new AtomicInteger(0);
+        RetryPolicy policy = RetryPolicy.builder()
+                .maxAttempts(5)
+                .initialDelay(1)
+                .retryOn(e -> !(e instanceof IllegalArgumentException))
+                .build();
+        
+        LazyWithRetry<String> retryLazy = new LazyWithRetry<>(() -> {
+            counter.incrementAndGet();
+            throw new IllegalArgumentException("Bad input");
+        }, policy);
+        
+        assertThrows(IllegalArgumentException.class, retryLazy::initialize);
+        assertEquals(1, counter.get(), "Non-retryable failures should not be retried");
+    }
+    
+    @Test
+    public void testAsyncInitializationRetriesWithoutBlocking() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            AtomicInteger counter = new AtomicInteger(0);
+            LazyWithRetry<String> retryLazy = new LazyWithRetry<>(() -> {
+                if (counter.incrementAndGet() < 3) {
+                    throw new RuntimeException("Controlled Failure");
+                }
+                return "Async Value";
+            }, RetryPolicy.builder().maxAttempts(5).initialDelay(10).fullJitter().build());
+            
+            CompletableFuture<String> first = retryLazy.initializeAsync(scheduler);
+            CompletableFuture<String> second = retryLazy.initializeAsync(scheduler);
+            
+            assertEquals("Async Value", first.get(1, TimeUnit.SECONDS), "Async initialization should succeed after retries");
+            assertEquals("Async Value", second.get(1, TimeUnit.SECONDS), "Concurrent callers should share the initialization");
+            assertEquals(3, counter.get(), "Should have attempted exactly three times");
+            assertEquals("Async Value", retryLazy.get(), "get() should return the initialized value");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testAsyncInitializationFailure() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            LazyWithRetry<String> retryLazy = new LazyWithRetry<>(() -> {
+                throw new RuntimeException("Always Fails");
+            }, 2, 1);
+            
+            CompletableFuture<String> future = retryLazy.initializeAsync(scheduler);
+            
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+            assertEquals("Always Fails", exception.getCause().getMessage(), "Last failure should be reported");
+            assertFalse(retryLazy.isInitialized(), "Failed initialization should not mark the value initialized");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testSyncAndAsyncCallersShareOneInitialization() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            AtomicInteger calls = new AtomicInteger();
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            LazyWithRetry<Integer> retryLazy = new LazyWithRetry<>(() -> {
+                int call = calls.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return call;
+            }, 2, 1);
+            
+            CompletableFuture<Integer> async = retryLazy.initializeAsync(scheduler);
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            CompletableFuture<Integer> sync = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return retryLazy.initialize();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(50);
+            release.countDown();
+            
+            assertEquals(1, async.get(1, TimeUnit.SECONDS));
+            assertEquals(1, sync.get(1, TimeUnit.SECONDS), "A synchronous caller should wait for the running initialization");
+            assertEquals(1, calls.get(), "The supplier should only run once");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testOpenCircuitBreakerFailsFast() {
+        AtomicInteger counter = new AtomicInteger(0);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, TimeUnit.MINUTES.toMillis(1));
+        LazyWithRetry<String> retryLazy = new LazyWithRetry<>(() -> {
+            counter.incrementAndGet();
+            throw new RuntimeException("Backend down");
+        }, RetryPolicy.fixedDelay(5, 1), circuitBreaker);
+        
+        assertThrows(CircuitBreakerOpenException.class, retryLazy::initialize,
+                "Initialization should stop once the breaker opens");
+        assertEquals(2, counter.get(), "Supplier should only be called until the breaker opens");
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        
+        assertThrows(CircuitBreakerOpenException.class, retryLazy::initialize, "Open breaker should fail fast");
+        assertEquals(2, counter.get(), "Supplier should not be called while the breaker is open");
+    }
+    
+    @Test
+    public void testExhaustedRetriesAreCachedForTtl() throws InterruptedException {
+        ManualTicker ticker = new ManualTicker();
+        AtomicInteger counter = new AtomicInteger();
+        LazyWithRetry<String> retryLazy = new LazyWithRetry<>(() -> {
+            if (counter.incrementAndGet() <= 2) {
+                throw new IllegalStateException("Backend down");
+            }
+            return "Recovered";
+        }, RetryPolicy.fixedDelay(2, 1), null, 50, ticker);
+        
+        IllegalStateException first = assertThrows(IllegalStateException.class, retryLazy::initialize);
+        assertEquals(2, counter.get(), "Every attempt should have been made");
+        IllegalStateException second = assertThrows(IllegalStateException.class, retryLazy::initialize);
+        assertSame(first, second, "Cached failure should be rethrown as the same instance");
+        assertEquals(2, counter.get(), "No attempts should be made while the failure is cached");
+        
+        ticker.advance(50);
+        assertEquals("Recovered", retryLazy.initialize(), "Initialization should be probed after the TTL");
+        assertEquals(3, counter.get());
+    }
+    
+    @Test
+    public void testRecordsRetriesAndLoads() throws InterruptedException {
+        StatsCounter stats = new StatsCounter();
+        AtomicInteger counter = new AtomicInteger();
+        LazyWithRetry<String> retryLazy = new LazyWithRetry<>(() -> {
+            if (counter.incrementAndGet() < 3) {
+                throw new IllegalStateException("Backend down");
+            }
+            return "Recovered";
+        }, RetryPolicy.fixedDelay(3, 1), null, stats);
+        
+        assertEquals("Recovered", retryLazy.initialize());
+        StatsSnapshot snapshot = stats.snapshot();
+        assertEquals(2, snapshot.getRetryCount(), "Both failed attempts should have been retried");
+        assertEquals(1, snapshot.getLoadSuccessCount(), "The whole initialization should count as one load");
+        assertEquals(0, snapshot.getLoadFailureCount());
+    }
 }
\ No newline at end of file
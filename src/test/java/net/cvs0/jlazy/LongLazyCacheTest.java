@@ -0,0 +1,109 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LongLazyCacheTest {
+
+    @Test
+    public void testCacheOperations() throws InterruptedException {
+        LongLazyCache<String> cache = new LongLazyCache<>();
+        
+        assertEquals("Value 1", cache.getOrCreate(1, key -> "Value " + key));
+        assertEquals("Value 1", cache.getOrCreate(1, key -> "New Value"), "Cache should keep the original value");
+        assertEquals("Value 1", cache.getIfPresent(1));
+        assertNull(cache.getIfPresent(2), "Absent keys should not be loaded");
+        assertTrue(cache.containsKey(1));
+        assertEquals(1, cache.size());
+        
+        assertTrue(cache.remove(1), "Removing a present key should succeed");
+        assertFalse(cache.remove(1), "Removing an absent key should fail");
+        assertFalse(cache.containsKey(1));
+        
+        cache.getOrCreate(3, key -> null);
+        assertTrue(cache.containsKey(3), "Null values should be cached");
+        assertNull(cache.getOrCreate(3, key -> "Unused"));
+        
+        cache.clear();
+        assertEquals(0, cache.size(), "Cache should be empty after clear");
+    }
+    
+    @Test
+    public void testMatchesHashMapUnderRandomOperations() throws InterruptedException {
+        LongLazyCache<Long> cache = new LongLazyCache<>(1);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(2_000) - 1_000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, cache.remove(key), "Removal mismatch for key " + key);
+            } else {
+                Long value = cache.getOrCreate(key, k -> k * 31);
+                expected.putIfAbsent(key, key * 31);
+                assertEquals(expected.get(key), value, "Value mismatch for key " + key);
+            }
+        }
+        assertEquals(expected.size(), cache.size(), "Cache size should match the reference map");
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), cache.getIfPresent(entry.getKey()), "Missing key " + entry.getKey());
+        }
+    }
+    
+    @Test
+    public void testFailedLoadIsNotCached() throws InterruptedException {
+        LongLazyCache<String> cache = new LongLazyCache<>();
+        
+        assertThrows(IllegalStateException.class, () -> cache.getOrCreate(1, key -> {
+            throw new IllegalStateException("Backend down");
+        }));
+        assertFalse(cache.containsKey(1), "Failed loads should not stay cached");
+        assertEquals("Recovered", cache.getOrCreate(1, key -> "Recovered"));
+    }
+    
+    @Test
+    public void testConcurrentGetOrCreateLoadsOnce() throws Exception {
+        LongLazyCache<Object> cache = new LongLazyCache<>();
+        AtomicInteger counter = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (long key = 0; key < 1_000; key++) {
+                        cache.getOrCreate(key, k -> {
+                            counter.incrementAndGet();
+                            return new Object();
+                        });
+                    }
+                    return cache.getOrCreate(7, k -> new Object());
+                }));
+            }
+            start.countDown();
+            
+            Object first = results.get(0).get();
+            for (Future<Object> result : results) {
+                assertSame(first, result.get(), "All threads should observe the same instance");
+            }
+            assertEquals(1_000, counter.get(), "Each key should be loaded exactly once");
+            assertEquals(1_000, cache.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
\ No newline at end of file
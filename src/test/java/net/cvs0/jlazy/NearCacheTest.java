@@ -0,0 +1,64 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NearCacheTest {
+
+    @Test
+    public void testSetsHoldTwoKeys() {
+        NearCache<Key, String> nearCache = new NearCache<>(5);
+        NearCache<Key, String>.Table table = nearCache.table();
+        Key a = new Key(1, 0);
+        Key b = new Key(2, 0);
+        Key c = new Key(3, 0);
+        
+        assertEquals(8, nearCache.capacity(), "The size should be rounded up to a power of two");
+        table.put(a, "a");
+        table.put(b, "b");
+        assertEquals("a", table.get(a));
+        assertEquals("b", table.get(b));
+        
+        // b is now the most recently used, so a is displaced
+        table.put(c, "c");
+        assertNull(table.get(a));
+        assertEquals("b", table.get(b));
+        assertEquals("c", table.get(c));
+        
+        table.remove(c);
+        assertNull(table.get(c));
+        assertEquals("b", table.get(b));
+    }
+    
+    @Test
+    public void testInvalidationEmptiesTables() {
+        NearCache<String, String> nearCache = new NearCache<>(4);
+        NearCache<String, String>.Table table = nearCache.table();
+        table.put("key", "value");
+        assertEquals("value", nearCache.table().get("key"));
+        
+        nearCache.invalidateAll();
+        
+        assertNull(nearCache.table().get("key"), "An invalidated table should be emptied before its next use");
+    }
+    
+    private static final class Key {
+        final int id;
+        final int hash;
+        
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).id == id;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
\ No newline at end of file
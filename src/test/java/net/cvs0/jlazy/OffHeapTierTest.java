@@ -0,0 +1,110 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class OffHeapTierTest {
+    private static final Codec<String> STRINGS = new Codec<String>() {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+        
+        @Override
+        public String decode(ByteBuffer buffer) {
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    };
+
+    @Test
+    public void testValuesAreTakenOnce() {
+        OffHeapTier<Integer, String> tier = new OffHeapTier<>(STRINGS, 1 << 16);
+        
+        tier.put(1, "One", 0, OffHeapTier.NEVER);
+        tier.put(2, "Two", 0, 100);
+        tier.put(1, "Uno", 7, OffHeapTier.NEVER);
+        
+        assertTrue(tier.contains(1, 0));
+        LazyCache.Stored<String> stored = tier.take(1, 0);
+        assertEquals("Uno", stored.value, "The latest value should win");
+        assertEquals(7, stored.writeTime, "The write time should be kept with the value");
+        assertNull(tier.take(1, 0), "A taken value should be gone");
+        assertNull(tier.take(2, 200), "An expired value should not be returned");
+        assertEquals(0, tier.size());
+    }
+    
+    @Test
+    public void testOldestRegionIsDroppedWhenFull() {
+        OffHeapTier<Integer, String> tier = new OffHeapTier<>(STRINGS, 2 * 4096);
+        String value = "x".repeat(1000);
+        
+        for (int i = 0; i < 20; i++) {
+            tier.put(i, value, 0, OffHeapTier.NEVER);
+        }
+        
+        assertFalse(tier.contains(0, 0), "The oldest values should be dropped for new ones");
+        assertEquals(value, tier.take(19, 0).value, "The newest value should be kept");
+        assertTrue(tier.size() <= 8, "The tier should not hold more than fits");
+    }
+    
+    @Test
+    public void testCompactionKeepsLiveValues() {
+        OffHeapTier<Integer, String> tier = new OffHeapTier<>(STRINGS, 2 * 4096);
+        String value = "x".repeat(1000);
+        
+        for (int i = 0; i < 6; i++) {
+            tier.put(i, value + i, 0, OffHeapTier.NEVER);
+        }
+        // Leave one live value in the first region, then reclaim the rest of it
+        for (int i = 1; i < 4; i++) {
+            tier.remove(i);
+        }
+        tier.compact(0);
+        for (int i = 6; i < 10; i++) {
+            tier.put(i, value + i, 0, OffHeapTier.NEVER);
+        }
+        
+        assertEquals(value + 0, tier.take(0, 0).value, "Compaction should move live values");
+        assertEquals(value + 5, tier.take(5, 0).value);
+        assertEquals(value + 9, tier.take(9, 0).value);
+    }
+    
+    @Test
+    public void testCompactionThatSealsTheActiveRegion() {
+        OffHeapTier<Integer, String> tier = new OffHeapTier<>(STRINGS, 4 * 4096);
+        String value = "x".repeat(1000);
+        
+        for (int i = 0; i < 15; i++) {
+            tier.put(i, value + i, 0, OffHeapTier.NEVER);
+        }
+        // Three sparse regions, more live bytes than the active region has left
+        for (int i = 0; i < 12; i++) {
+            if (i % 4 != 0) {
+                tier.remove(i);
+            }
+        }
+        tier.compact(0);
+        
+        for (int i : new int[]{0, 4, 8, 12, 13, 14}) {
+            assertEquals(value + i, tier.take(i, 0).value, "Compaction should keep every live value");
+        }
+        assertEquals(0, tier.size());
+    }
+    
+    @Test
+    public void testMemoryMappedFile(@TempDir Path directory) {
+        Path file = directory.resolve("tier.bin");
+        OffHeapTier<Integer, String> tier = new OffHeapTier<>(STRINGS, 1 << 16, file);
+        
+        tier.put(1, "One", 0, OffHeapTier.NEVER);
+        
+        assertTrue(Files.exists(file), "The file should be created");
+        assertEquals("One", tier.take(1, 0).value);
+    }
+}
\ No newline at end of file
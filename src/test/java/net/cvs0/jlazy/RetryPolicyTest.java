@@ -0,0 +1,56 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testExponentialBackoff() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .maxAttempts(6)
+                .initialDelay(100)
+                .multiplier(2.0)
+                .maxDelay(500)
+                .build();
+        RuntimeException failure = new RuntimeException();
+        
+        assertEquals(100, policy.nextDelayMillis(1, failure, 0));
+        assertEquals(200, policy.nextDelayMillis(2, failure, 0));
+        assertEquals(400, policy.nextDelayMillis(3, failure, 0));
+        assertEquals(500, policy.nextDelayMillis(4, failure, 0), "Delay should be capped at the maximum delay");
+        assertEquals(-1, policy.nextDelayMillis(6, failure, 0), "No retry after the maximum number of attempts");
+    }
+    
+    @Test
+    public void testFullJitterStaysWithinBounds() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .maxAttempts(10)
+                .initialDelay(100)
+                .fullJitter()
+                .build();
+        RuntimeException failure = new RuntimeException();
+        
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.nextDelayMillis(3, failure, 0);
+            assertTrue(delay >= 0 && delay <= 400, "Jittered delay should be between 0 and the exponential delay");
+        }
+    }
+    
+    @Test
+    public void testMaxElapsedTimeAndPredicate() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .maxAttempts(10)
+                .initialDelay(100)
+                .multiplier(1.0)
+                .maxElapsedTime(1000)
+                .retryOn(e -> e instanceof IllegalStateException)
+                .build();
+        
+        assertEquals(100, policy.nextDelayMillis(1, new IllegalStateException(), 500));
+        assertEquals(-1, policy.nextDelayMillis(1, new IllegalStateException(), 950),
+                "No retry that would start after the maximum elapsed time");
+        assertEquals(-1, policy.nextDelayMillis(1, new IllegalArgumentException(), 0),
+                "No retry for failures that don't match the predicate");
+    }
+}
\ No newline at end of file
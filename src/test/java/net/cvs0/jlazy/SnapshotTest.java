@@ -0,0 +1,87 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class SnapshotTest {
+    private static final Codec<String> STRINGS = new Codec<String>() {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+        
+        @Override
+        public String decode(ByteBuffer buffer) {
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    };
+
+    @Test
+    public void testRoundTrip(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("cache.snapshot");
+        long now = System.currentTimeMillis();
+        
+        write(file, now - 5000);
+        Snapshot<String, String> snapshot = Snapshot.restore(file, STRINGS, STRINGS, 0);
+        
+        assertNotNull(snapshot, "A valid snapshot should be restored");
+        assertTrue(snapshot.contains("a"));
+        LazyCache.Stored<String> stored = snapshot.take("a", 0);
+        assertEquals("Apple", stored.value);
+        assertTrue(stored.writeTime <= -TimeUnit.SECONDS.toNanos(5), "The write time should be carried over");
+        assertTrue(stored.writeTime > -TimeUnit.SECONDS.toNanos(60));
+        assertNull(snapshot.take("a", 0), "A restored value should only be taken once");
+        assertEquals("Banana", snapshot.take("b", 0).value);
+        assertNull(snapshot.take("missing", 0));
+    }
+    
+    @Test
+    public void testOldEntriesAreNotRestored(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("cache.snapshot");
+        Snapshot.write(file, writer -> {
+            writer.write(STRINGS.encode("fresh"), ByteBuffer.wrap(STRINGS.encode("1")), System.currentTimeMillis());
+            writer.write(STRINGS.encode("stale"), ByteBuffer.wrap(STRINGS.encode("2")), System.currentTimeMillis() - 60_000);
+        });
+        
+        Snapshot<String, String> snapshot = Snapshot.restore(file, STRINGS, STRINGS, 10_000);
+        
+        assertTrue(snapshot.contains("fresh"));
+        assertFalse(snapshot.contains("stale"), "Entries older than the maximum age should be skipped");
+    }
+    
+    @Test
+    public void testCorruptOrIncompatibleFilesAreSkipped(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("cache.snapshot");
+        assertNull(Snapshot.restore(file, STRINGS, STRINGS, 0), "A missing file should be skipped");
+        
+        write(file, System.currentTimeMillis());
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        assertNull(Snapshot.restore(file, STRINGS, STRINGS, 0), "A checksum mismatch should be skipped");
+        
+        write(file, System.currentTimeMillis());
+        bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(4, Snapshot.VERSION + 1);
+        Files.write(file, bytes);
+        assertNull(Snapshot.restore(file, STRINGS, STRINGS, 0), "An unknown version should be skipped");
+        
+        Files.write(file, new byte[]{1, 2, 3});
+        assertNull(Snapshot.restore(file, STRINGS, STRINGS, 0), "A truncated file should be skipped");
+    }
+    
+    private static void write(Path file, long writtenAt) throws IOException {
+        Snapshot.write(file, writer -> {
+            writer.write(STRINGS.encode("a"), ByteBuffer.wrap(STRINGS.encode("Apple")), writtenAt);
+            writer.write(STRINGS.encode("b"), ByteBuffer.wrap(STRINGS.encode("Banana")), writtenAt);
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,74 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class StatsCounterTest {
+
+    @Test
+    public void testSnapshotReflectsRecordedStats() {
+        StatsCounter stats = new StatsCounter();
+        stats.recordHits(3);
+        stats.recordMisses(1);
+        stats.recordEviction();
+        stats.recordRetry();
+        stats.recordLoadSuccess(500);
+        stats.recordLoadFailure(3_000);
+        
+        StatsSnapshot snapshot = stats.snapshot();
+        assertEquals(3, snapshot.getHitCount());
+        assertEquals(1, snapshot.getMissCount());
+        assertEquals(0.75, snapshot.getHitRate(), 1e-9);
+        assertEquals(1, snapshot.getEvictionCount());
+        assertEquals(1, snapshot.getRetryCount());
+        assertEquals(1, snapshot.getLoadSuccessCount());
+        assertEquals(1, snapshot.getLoadFailureCount());
+        assertEquals(3_500, snapshot.getTotalLoadTimeNanos());
+        assertEquals(1_750.0, snapshot.getAverageLoadTimeNanos(), 1e-9);
+        
+        long[] latencies = snapshot.getLoadLatencyCounts();
+        assertEquals(1, latencies[0], "500 ns should fall into the first bucket");
+        assertEquals(1, latencies[2], "3 us should fall into the 2-4 us bucket");
+    }
+    
+    @Test
+    public void testLatencyBuckets() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(1_023));
+        assertEquals(1, LatencyHistogram.bucketOf(1_024));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT - 1; bucket++) {
+            long upperBound = StatsSnapshot.getLoadLatencyUpperBoundNanos(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(upperBound - 1), "Bucket bounds should be exclusive");
+            assertEquals(bucket + 1, LatencyHistogram.bucketOf(upperBound), "Upper bound should start the next bucket");
+        }
+    }
+    
+    @Test
+    public void testSlowLoadsAreRecordedInFlightRecorder() throws Exception {
+        StatsCounter stats = new StatsCounter("slow-test", 0);
+        Path file = Files.createTempFile("jlazy", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("net.cvs0.jlazy.SlowInitialization");
+            recording.start();
+            stats.load(() -> "value");
+            recording.stop();
+            recording.dump(file);
+            
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(1, events.size(), "The slow load should produce one event");
+            assertEquals("slow-test", events.get(0).getString("source"));
+            assertFalse(events.get(0).getBoolean("failed"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StripedLazyTest {
+
+    @Test
+    public void testInstancesAreBoundedByStripes() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        StripedLazy<StringBuilder> striped = new StripedLazy<>(() -> {
+            created.incrementAndGet();
+            return new StringBuilder();
+        }, 4);
+        
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    assertNotNull(striped.initialize());
+                    assertTrue(striped.isInitialized());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        assertTrue(created.get() <= 4, "No more instances than stripes should be created");
+        assertEquals(created.get(), striped.initializedCount());
+        assertSame(striped.initialize(), striped.get(), "A thread should keep seeing its stripe's instance");
+    }
+    
+    @Test
+    public void testWithValueGivesExclusiveUse() throws Exception {
+        StripedLazy<AtomicBoolean> striped = new StripedLazy<>(AtomicBoolean::new, 2);
+        AtomicInteger overlaps = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        striped.withValue(inUse -> {
+                            if (!inUse.compareAndSet(false, true)) {
+                                overlaps.incrementAndGet();
+                            }
+                            Thread.yield();
+                            inUse.set(false);
+                            return null;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(0, overlaps.get(), "No instance should be used by two callers at once");
+        assertEquals(2, striped.initializedCount(), "Busy stripes should spill over to free ones");
+    }
+    
+    @Test
+    public void testRejectsInvalidStripes() {
+        assertThrows(IllegalArgumentException.class, () -> new StripedLazy<>(Object::new, 0));
+    }
+}
\ No newline at end of file
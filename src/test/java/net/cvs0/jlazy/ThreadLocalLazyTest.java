@@ -4,6 +4,8 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class ThreadLocalLazyTest {
@@ -53,4 +55,51 @@ public class ThreadLocalLazyTest {
         assertNull(threadLocalLazy.get(), "Value should be null after remove");
         assertFalse(threadLocalLazy.isInitialized(), "Should not be initialized after remove");
     }
+    
+    @Test
+    public void testNullValueIsInitializedOnce() throws InterruptedException {
+        AtomicInteger calls = new AtomicInteger();
+        ThreadLocalLazy<String> threadLocalLazy = new ThreadLocalLazy<>(() -> {
+            calls.incrementAndGet();
+            return null;
+        });
+        
+        assertNull(threadLocalLazy.initialize());
+        assertNull(threadLocalLazy.initialize());
+        
+        assertTrue(threadLocalLazy.isInitialized(), "A null value should count as initialized");
+        assertEquals(1, calls.get(), "The initializer should run once per thread");
+    }
+    
+    @Test
+    public void testThreadsInitializeWithoutWaitingForEachOther() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ThreadLocalLazy<String> threadLocalLazy = new ThreadLocalLazy<>(() -> {
+            if (Thread.currentThread().getName().equals("slow")) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return Thread.currentThread().getName();
+        });
+        
+        Thread slow = new Thread(() -> {
+            try {
+                threadLocalLazy.initialize();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "slow");
+        slow.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        
+        assertEquals(Thread.currentThread().getName(), threadLocalLazy.initialize(),
+                "Another thread's slow initialization should not block this one");
+        release.countDown();
+        slow.join();
+    }
 }
\ No newline at end of file
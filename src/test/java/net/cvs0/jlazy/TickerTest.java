@@ -0,0 +1,33 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+public class TickerTest {
+
+    @Test
+    public void testManualTickerOnlyMovesWhenAdvanced() {
+        ManualTicker ticker = new ManualTicker();
+        
+        assertEquals(0, ticker.read());
+        assertEquals(0, ticker.read(), "Time should not move on its own");
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), ticker.advance(5).read());
+        assertThrows(IllegalArgumentException.class, () -> ticker.advance(-1));
+    }
+    
+    @Test
+    public void testCoarseTickerIsSharedAndAdvances() throws InterruptedException {
+        Ticker ticker = Ticker.coarse(1);
+        
+        assertSame(ticker, Ticker.coarse(1), "Tickers with the same resolution should be shared");
+        long first = ticker.read();
+        TimeUnit.MILLISECONDS.sleep(50);
+        long second = ticker.read();
+        assertTrue(second > first, "The background thread should advance the time");
+        assertTrue(Math.abs(System.nanoTime() - second) < TimeUnit.SECONDS.toNanos(1),
+                "The time should follow System.nanoTime");
+        assertThrows(IllegalArgumentException.class, () -> Ticker.coarse(0));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,74 @@
+package net.cvs0.jlazy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TimerWheelTest {
+
+    @Test
+    public void testEntriesExpireAtTheirTimeAcrossLevels() {
+        long[] delays = {
+                TimeUnit.MILLISECONDS.toNanos(5),
+                TimeUnit.MILLISECONDS.toNanos(500),
+                TimeUnit.SECONDS.toNanos(30),
+                TimeUnit.MINUTES.toNanos(45),
+                TimeUnit.HOURS.toNanos(20),
+                TimeUnit.DAYS.toNanos(10)
+        };
+        long[] now = {0};
+        List<LazyCache.Node<Integer, Integer>> expired = new ArrayList<>();
+        List<Long> expiredAt = new ArrayList<>();
+        TimerWheel<Integer, Integer> wheel = new TimerWheel<>(node -> {
+            if (node.expirationTime <= now[0]) {
+                expired.add(node);
+                expiredAt.add(now[0]);
+                return true;
+            }
+            return false;
+        }, 0);
+        
+        for (int i = 0; i < delays.length; i++) {
+            LazyCache.Node<Integer, Integer> node = new LazyCache.Node<>(i, null, null);
+            node.expirationTime = delays[i];
+            wheel.schedule(node);
+        }
+        
+        long step = TimeUnit.MILLISECONDS.toNanos(10);
+        while (expired.size() < delays.length && now[0] < TimeUnit.DAYS.toNanos(20)) {
+            // Move quickly through long stretches, but in small steps near the start
+            now[0] += now[0] < TimeUnit.SECONDS.toNanos(2) ? step : TimeUnit.SECONDS.toNanos(1);
+            wheel.advance(now[0]);
+        }
+        
+        assertEquals(delays.length, expired.size(), "Every entry should expire exactly once");
+        for (int i = 0; i < expired.size(); i++) {
+            int key = expired.get(i).key;
+            assertEquals(i, key, "Entries should expire in order of their expiration time");
+            assertTrue(expiredAt.get(i) >= delays[key], "Entries must not expire early");
+            assertTrue(expiredAt.get(i) - delays[key] <= TimeUnit.SECONDS.toNanos(2),
+                    "Entries should expire close to their expiration time");
+        }
+    }
+    
+    @Test
+    public void testDescheduledEntriesDoNotExpire() {
+        List<LazyCache.Node<Integer, Integer>> expired = new ArrayList<>();
+        TimerWheel<Integer, Integer> wheel = new TimerWheel<>(node -> expired.add(node), 0);
+        LazyCache.Node<Integer, Integer> kept = new LazyCache.Node<>(1, null, null);
+        LazyCache.Node<Integer, Integer> removed = new LazyCache.Node<>(2, null, null);
+        kept.expirationTime = TimeUnit.MILLISECONDS.toNanos(50);
+        removed.expirationTime = TimeUnit.MILLISECONDS.toNanos(50);
+        wheel.schedule(kept);
+        wheel.schedule(removed);
+        
+        wheel.deschedule(removed);
+        wheel.advance(TimeUnit.SECONDS.toNanos(1));
+        
+        assertEquals(1, expired.size(), "Only the scheduled entry should expire");
+        assertSame(kept, expired.get(0));
+    }
+}
\ No newline at end of file